@@ -8,8 +8,11 @@
   (:import [edu.umass.cs.surveyman.qc QCMetrics]
            [edu.umass.cs.runner.system BoxedBool])
   (:import edu.umass.cs.surveyman.utils.Slurpie)
-  (:import edu.umass.cs.runner.Record)
+  (:import edu.umass.cs.runner.Record
+           edu.umass.cs.runner.dashboard.ResponseFeedHandler
+           org.eclipse.jetty.server.handler.HandlerList)
   (:import edu.umass.cs.runner.system.Parameters
+           edu.umass.cs.runner.system.metrics.Metrics
            (java.net BindException))
   (:use ring.adapter.jetty)
   (:use ring.middleware.params)
@@ -61,6 +64,7 @@
                                                      "record-pointer" (System/identityHashCode @record-data)
                                                      })
                       "response_data" (.jsonizeResponses @record-data)
+                      "metrics" (Metrics/toJson)
                       )
                     )
                   (Slurpie/slurp (clojure.string/join "" (rest uri))))
@@ -69,13 +73,23 @@
    }
   )
 
+(defn add-response-feed
+  "Puts the record's live feed at /response_stream ahead of the ring handler."
+  [^Record record server]
+  (let [ring-handler (.getHandler server)]
+    (.setHandler server (doto (HandlerList.)
+                          (.addHandler (ResponseFeedHandler. record))
+                          (.addHandler ring-handler)))))
+
 (defn run
   [^Record record]
   (reset! record-data record)
   (try
     (let [dashboardServer (ring.adapter.jetty/run-jetty
                             handler
-                            {:port ^Long @PORT :join? false})]
+                            {:port ^Long @PORT
+                             :join? false
+                             :configurator (partial add-response-feed record)})]
       (println (str "Dashboard server running at http://localhost:" @PORT "/dashboard/Dashboard.html"))
       dashboardServer)
     (catch BindException _
@@ -0,0 +1,281 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.QuestionResponse;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.HTMLDatum;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Columnar export of a survey's responses, written next to the CSV produced by {@link ResponseWriter}. It holds the
+ * same rows as the CSV (one per selected option) but stores each column separately:
+ *
+ * <pre>
+ *     header     : magic (int) | version (short)
+ *     dictionary : every distinct string (ids, question and option text, backend values), each once
+ *     columns    : one packed int column per entry in COLUMNS, in order
+ *     responses  : per response: srid (ref) | workerid (ref) | first row (int) | row count (int)
+ *                  | n | n x (key ref, value ref)
+ *     footer     : surveyid (ref) | dictionary offset (long) | dictionary size (int)
+ *                  | rows (int) | column offsets (long each) | responses offset (long) | response count (int)
+ *                  | response index: (srid ref, response ordinal) pairs sorted by srid
+ *     trailer    : footer offset (long) | magic (int)
+ * </pre>
+ *
+ * A ref is an index into the dictionary. A packed column stores its minimum value, a bit width and the values less
+ * the minimum in that many bits each, so a column of positions takes a few bits per row. Strings are written as a
+ * length followed by UTF-8 bytes. Version 1 files have no workerid refs; their worker ids are the srids.
+ * {@link ColumnarReader} reads the file back.
+ */
+public class ColumnarExport {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    public static final String EXTENSION = ".columns";
+    static final int MAGIC = 0x534d434c; // SMCL
+    static final short VERSION = 2;
+    // written before worker ids were stored apart from response ids
+    static final short VERSION_WITHOUT_WORKER_IDS = 1;
+
+    public static final String QUESTION_ID = "questionid";
+    public static final String QUESTION_TEXT = "questiontext";
+    public static final String QUESTION_POS = "questionpos";
+    public static final String OPTION_ID = "optionid";
+    public static final String OPTION_TEXT = "optiontext";
+    public static final String OPTION_POS = "optionpos";
+    /** 1 if the option is free text rather than one of the question's options. */
+    public static final String LITERAL = "literal";
+    public static final String[] COLUMNS = {
+            QUESTION_ID, QUESTION_TEXT, QUESTION_POS, OPTION_ID, OPTION_TEXT, OPTION_POS, LITERAL
+    };
+
+    private final Map<String, Integer> refs = new HashMap<String, Integer>();
+    private final List<String> dictionary = new ArrayList<String>();
+
+    private ColumnarExport() {}
+
+    /**
+     * The export file that belongs with the given CSV output file.
+     */
+    public static File fileFor(
+            String csvFileName)
+    {
+        String base = csvFileName.endsWith(".csv") ? csvFileName.substring(0, csvFileName.length() - 4) : csvFileName;
+        return new File(base + EXTENSION);
+    }
+
+    /**
+     * Exports every response in the record next to its output file.
+     */
+    public static File write(
+            Record record)
+            throws IOException
+    {
+        File file = fileFor(record.outputFileName);
+        write(record.survey, record.getAllResponses(), file);
+        return file;
+    }
+
+    /**
+     * Writes the responses to a temporary file that then replaces the given one.
+     */
+    public static void write(
+            Survey survey,
+            List<SurveyResponse> responses,
+            File file)
+            throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            new ColumnarExport().writeTo(survey, responses, out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            if (!file.delete() || !tmp.renameTo(file))
+                throw new IOException(String.format("Could not replace %s", file));
+        }
+        LOGGER.debug(String.format("Exported %d responses to %s", responses.size(), file));
+    }
+
+    private int ref(
+            String s)
+    {
+        if (s == null)
+            s = "";
+        Integer ref = refs.get(s);
+        if (ref == null) {
+            ref = dictionary.size();
+            refs.put(s, ref);
+            dictionary.add(s);
+        }
+        return ref;
+    }
+
+    static String optionText(
+            SurveyDatum c)
+    {
+        if (c instanceof HTMLDatum)
+            return ((HTMLDatum) c).data.toString();
+        else if (c instanceof StringDatum && ! c.isEmpty())
+            return ((StringDatum) c).data.toString();
+        else return "";
+    }
+
+    private void writeTo(
+            Survey survey,
+            List<SurveyResponse> responses,
+            DataOutputStream out)
+            throws IOException
+    {
+        int rows = 0;
+        for (SurveyResponse sr : responses)
+            for (IQuestionResponse qr : sr.getAllResponses())
+                rows += qr.getOpts().size();
+        int[][] columns = new int[COLUMNS.length][rows];
+        int[] firstRows = new int[responses.size()];
+        int[] rowCounts = new int[responses.size()];
+        int row = 0;
+        for (int r = 0 ; r < responses.size() ; r++) {
+            SurveyResponse sr = responses.get(r);
+            ref(sr.getSrid());
+            ref(sr.getWorkerId());
+            firstRows[r] = row;
+            for (IQuestionResponse qr : sr.getAllResponses()) {
+                Question q = qr.getQuestion();
+                int quid = ref(q.id);
+                int qtext = ref(q.data == null ? "" : q.data.toString());
+                for (OptTuple opt : qr.getOpts()) {
+                    boolean literal = !QuestionResponse.isSurveyOption(q, opt.c);
+                    columns[0][row] = quid;
+                    columns[1][row] = qtext;
+                    columns[2][row] = qr.getIndexSeen();
+                    columns[3][row] = ref(literal ? optionText(opt.c) : opt.c.getId());
+                    columns[4][row] = ref(optionText(opt.c));
+                    columns[5][row] = opt.i;
+                    columns[6][row] = literal ? 1 : 0;
+                    row++;
+                }
+            }
+            rowCounts[r] = row - firstRows[r];
+            for (Map.Entry<String, String> entry : sr.otherValues.entrySet()) {
+                ref(entry.getKey());
+                ref(entry.getValue());
+            }
+        }
+        int surveyRef = ref(survey.sid);
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        long dictionaryOffset = out.size();
+        for (String s : dictionary)
+            writeString(out, s);
+
+        long[] columnOffsets = new long[COLUMNS.length];
+        for (int c = 0 ; c < COLUMNS.length ; c++) {
+            columnOffsets[c] = out.size();
+            writePacked(out, columns[c], rows);
+        }
+
+        long responsesOffset = out.size();
+        for (int r = 0 ; r < responses.size() ; r++) {
+            SurveyResponse sr = responses.get(r);
+            out.writeInt(ref(sr.getSrid()));
+            out.writeInt(ref(sr.getWorkerId()));
+            out.writeInt(firstRows[r]);
+            out.writeInt(rowCounts[r]);
+            out.writeInt(sr.otherValues.size());
+            for (Map.Entry<String, String> entry : sr.otherValues.entrySet()) {
+                out.writeInt(ref(entry.getKey()));
+                out.writeInt(ref(entry.getValue()));
+            }
+        }
+
+        long footerOffset = out.size();
+        out.writeInt(surveyRef);
+        out.writeLong(dictionaryOffset);
+        out.writeInt(dictionary.size());
+        out.writeInt(rows);
+        for (long offset : columnOffsets)
+            out.writeLong(offset);
+        out.writeLong(responsesOffset);
+        out.writeInt(responses.size());
+        Integer[] order = new Integer[responses.size()];
+        for (int r = 0 ; r < order.length ; r++)
+            order[r] = r;
+        final List<SurveyResponse> rs = responses;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return rs.get(a).getSrid().compareTo(rs.get(b).getSrid());
+            }
+        });
+        for (Integer r : order) {
+            out.writeInt(ref(responses.get(r).getSrid()));
+            out.writeInt(r);
+        }
+        out.writeLong(footerOffset);
+        out.writeInt(MAGIC);
+    }
+
+    static void writeString(
+            DataOutputStream out,
+            String s)
+            throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes values[0..n) as: min (int) | bits (byte) | ceil(n * bits / 64) longs, least significant bits first.
+     */
+    static void writePacked(
+            DataOutputStream out,
+            int[] values,
+            int n)
+            throws IOException
+    {
+        int min = 0, max = 0;
+        if (n > 0) {
+            min = Integer.MAX_VALUE;
+            max = Integer.MIN_VALUE;
+            for (int i = 0 ; i < n ; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+        }
+        long range = (long) max - min;
+        int bits = range == 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+        out.writeInt(min);
+        out.writeByte(bits);
+        if (bits == 0)
+            return;
+        long word = 0;
+        int used = 0;
+        for (int i = 0 ; i < n ; i++) {
+            long v = (long) values[i] - min;
+            word |= v << used;
+            if (used + bits >= 64) {
+                out.writeLong(word);
+                int spill = used + bits - 64;
+                word = spill == 0 ? 0 : v >>> (bits - spill);
+                used = spill;
+            } else used += bits;
+        }
+        if (used > 0)
+            out.writeLong(word);
+    }
+}
@@ -0,0 +1,278 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.QuestionResponse;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads a file written by {@link ColumnarExport}. Opening a file reads only its footer and dictionary; columns are
+ * decoded on demand, so a scan of one column touches only that column's bytes. Responses can be loaded all at once
+ * or looked up by response id through the footer index.
+ */
+public class ColumnarReader {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    private final MappedByteBuffer buffer;
+    private final boolean hasWorkerIds;
+    private final String[] dictionary;
+    private final String surveyId;
+    private final int rows;
+    private final long[] columnOffsets = new long[ColumnarExport.COLUMNS.length];
+    private final long responsesOffset;
+    private final int numResponses;
+    // srid refs sorted by srid, and the ordinal of each
+    private final int[] indexRefs;
+    private final int[] indexOrdinals;
+    private long[] responseOffsets;
+    private final Map<String, int[]> columns = new HashMap<String, int[]>();
+
+    public ColumnarReader(
+            File file)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        if (buffer.limit() < 18 || buffer.getInt(0) != ColumnarExport.MAGIC
+                || buffer.getInt(buffer.limit() - 4) != ColumnarExport.MAGIC)
+            throw new IOException(String.format("%s is not a columnar export", file));
+        short version = buffer.getShort(4);
+        if (version != ColumnarExport.VERSION && version != ColumnarExport.VERSION_WITHOUT_WORKER_IDS)
+            throw new IOException(String.format("Unsupported columnar export version %d in %s", version, file));
+        hasWorkerIds = version != ColumnarExport.VERSION_WITHOUT_WORKER_IDS;
+        ByteBuffer footer = buffer.duplicate();
+        footer.position((int) buffer.getLong(buffer.limit() - 12));
+        int surveyRef = footer.getInt();
+        long dictionaryOffset = footer.getLong();
+        dictionary = new String[footer.getInt()];
+        rows = footer.getInt();
+        for (int c = 0 ; c < columnOffsets.length ; c++)
+            columnOffsets[c] = footer.getLong();
+        responsesOffset = footer.getLong();
+        numResponses = footer.getInt();
+        indexRefs = new int[numResponses];
+        indexOrdinals = new int[numResponses];
+        for (int i = 0 ; i < numResponses ; i++) {
+            indexRefs[i] = footer.getInt();
+            indexOrdinals[i] = footer.getInt();
+        }
+        ByteBuffer strings = buffer.duplicate();
+        strings.position((int) dictionaryOffset);
+        for (int i = 0 ; i < dictionary.length ; i++)
+            dictionary[i] = readString(strings);
+        surveyId = dictionary[surveyRef];
+    }
+
+    private static String readString(
+            ByteBuffer in)
+    {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String getSurveyId()
+    {
+        return surveyId;
+    }
+
+    public int getNumRows()
+    {
+        return rows;
+    }
+
+    public int getNumResponses()
+    {
+        return numResponses;
+    }
+
+    public String lookup(
+            int ref)
+    {
+        return dictionary[ref];
+    }
+
+    /**
+     * Decodes one of {@link ColumnarExport#COLUMNS}. For string columns the values are dictionary refs; see
+     * {@link #lookup(int)}.
+     */
+    public synchronized int[] column(
+            String name)
+    {
+        int[] values = columns.get(name);
+        if (values != null)
+            return values;
+        int c = Arrays.asList(ColumnarExport.COLUMNS).indexOf(name);
+        if (c < 0)
+            throw new IllegalArgumentException(String.format("No column named %s", name));
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) columnOffsets[c]);
+        values = readPacked(in, rows);
+        columns.put(name, values);
+        return values;
+    }
+
+    static int[] readPacked(
+            ByteBuffer in,
+            int n)
+    {
+        int min = in.getInt();
+        int bits = in.get();
+        int[] values = new int[n];
+        if (bits == 0) {
+            Arrays.fill(values, min);
+            return values;
+        }
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        long word = 0;
+        int available = 0;
+        for (int i = 0 ; i < n ; i++) {
+            long v;
+            if (available == 0) {
+                word = in.getLong();
+                available = 64;
+            }
+            if (available >= bits) {
+                v = word & mask;
+                word >>>= bits == 64 ? 0 : bits;
+                available -= bits;
+            } else {
+                long low = word;
+                int lowBits = available;
+                word = in.getLong();
+                v = (low | (word << lowBits)) & mask;
+                word >>>= bits - lowBits;
+                available = 64 - (bits - lowBits);
+            }
+            values[i] = (int) (v + min);
+        }
+        return values;
+    }
+
+    private synchronized long responseOffset(
+            int ordinal)
+    {
+        if (responseOffsets == null) {
+            responseOffsets = new long[numResponses];
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) responsesOffset);
+            for (int r = 0 ; r < numResponses ; r++) {
+                responseOffsets[r] = in.position();
+                in.position(in.position() + (hasWorkerIds ? 16 : 12));
+                in.position(in.position() + 8 * in.getInt());
+            }
+        }
+        return responseOffsets[ordinal];
+    }
+
+    /**
+     * Loads every response, in the order they were exported.
+     */
+    public List<SurveyResponse> readSurveyResponses(
+            Survey survey)
+            throws SurveyException
+    {
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>(numResponses);
+        for (int r = 0 ; r < numResponses ; r++)
+            responses.add(readSurveyResponse(survey, r));
+        return responses;
+    }
+
+    /**
+     * Loads the response with the given id, or returns null if there is none.
+     */
+    public SurveyResponse readSurveyResponse(
+            Survey survey,
+            String srid)
+            throws SurveyException
+    {
+        int lo = 0, hi = numResponses - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = dictionary[indexRefs[mid]].compareTo(srid);
+            if (cmp == 0)
+                return readSurveyResponse(survey, indexOrdinals[mid]);
+            else if (cmp < 0)
+                lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return null;
+    }
+
+    private SurveyResponse readSurveyResponse(
+            Survey survey,
+            int ordinal)
+            throws SurveyException
+    {
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) responseOffset(ordinal));
+        SurveyResponse sr = new SurveyResponse(survey, dictionary[in.getInt()]);
+        if (hasWorkerIds)
+            sr.setWorkerId(dictionary[in.getInt()]);
+        int firstRow = in.getInt();
+        int rowCount = in.getInt();
+        int numOtherValues = in.getInt();
+        for (int i = 0 ; i < numOtherValues ; i++) {
+            String key = dictionary[in.getInt()];
+            sr.otherValues.put(key, dictionary[in.getInt()]);
+        }
+        int[] quids = column(ColumnarExport.QUESTION_ID);
+        int[] qpos = column(ColumnarExport.QUESTION_POS);
+        int[] oids = column(ColumnarExport.OPTION_ID);
+        int[] opos = column(ColumnarExport.OPTION_POS);
+        int[] literals = column(ColumnarExport.LITERAL);
+        List<IQuestionResponse> questionResponses = new ArrayList<IQuestionResponse>();
+        QuestionResponse questionResponse = null;
+        Question q = null;
+        int lastQuid = -1;
+        for (int row = firstRow ; row < firstRow + rowCount ; row++) {
+            String quid = dictionary[quids[row]];
+            if (quids[row] != lastQuid) {
+                lastQuid = quids[row];
+                try {
+                    questionResponse = new QuestionResponse(survey, quid, qpos[row]);
+                    q = questionResponse.getQuestion();
+                } catch (SurveyException se) {
+                    questionResponse = new QuestionResponse();
+                    q = null;
+                }
+                questionResponses.add(questionResponse);
+            }
+            String option = dictionary[oids[row]];
+            SurveyDatum c = null;
+            if (literals[row] == 0 && q != null) {
+                try {
+                    c = q.getOptById(option);
+                } catch (Exception e) {
+                    LOGGER.warn(String.format("Option %s not found in question %s", option, quid));
+                }
+            }
+            if (c == null)
+                c = new StringDatum(option, -1, -1, -1);
+            if (q == null)
+                questionResponse.add(quid, new OptTuple(c, opos[row]), sr.otherValues);
+            else questionResponse.getOpts().add(new OptTuple(c, opos[row]));
+        }
+        sr.setResponses(questionResponses);
+        return sr;
+    }
+}
@@ -0,0 +1,221 @@
+package edu.umass.cs.runner;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.output.Json;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a {@link Record}'s classified responses ready for the dashboard without reclassifying the whole population
+ * on every request. Each response is counted into per-question option frequency tables as it is filed; responses
+ * are classified on arrival by the record's classifier, so between full passes only the new ones need to be
+ * serialized. A full pass through {@link edu.umass.cs.surveyman.qc.QCMetrics#classifyResponses(List)} -- which
+ * rescores everyone against the current population and moves the threshold -- runs only once the option
+ * distributions have drifted from where they were at the last pass by more than the reclassifydrift property
+ * (a percentage of total variation distance for the most-changed question). The serialized responses are cached
+ * until something changes.
+ */
+public class IncrementalClassifier {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    private static final Histogram fullPassLatency = Metrics.histogram("classifier.fullpass.nanos");
+    public static final int DEFAULT_DRIFT_PERCENT = 5;
+
+    private final Record record;
+    private final double maxDrift;
+    // quid -> option id -> count, and quid -> number of options chosen
+    private final Map<String, Map<String, Integer>> frequencies = new HashMap<String, Map<String, Integer>>();
+    private final Map<String, Integer> totals = new HashMap<String, Integer>();
+    private final Set<String> observed = new HashSet<String>();
+    // the tables as of the last full pass
+    private Map<String, Map<String, Integer>> classifiedFrequencies = new HashMap<String, Map<String, Integer>>();
+    private Map<String, Integer> classifiedTotals = new HashMap<String, Integer>();
+    private boolean classified = false;
+    // read and filled without the monitor by jsonize(SurveyResponse); bumped before entries are invalidated
+    private final ConcurrentHashMap<String, String> json = new ConcurrentHashMap<String, String>();
+    private volatile long jsonGeneration = 0;
+    private String responseData;
+    private long version = 0;
+    private long responseDataVersion = -1;
+    private int fullPasses = 0;
+
+    public IncrementalClassifier(
+            Record record)
+    {
+        this.record = record;
+        int percent = record.library == null ? DEFAULT_DRIFT_PERCENT
+                : record.library.getIntProperty(Parameters.RECLASSIFY_DRIFT, DEFAULT_DRIFT_PERCENT);
+        this.maxDrift = percent / 100.0;
+    }
+
+    /**
+     * Counts a newly filed response into the frequency tables. Responses already counted are ignored.
+     */
+    public synchronized void observe(
+            SurveyResponse sr)
+    {
+        if (!observed.add(sr.getSrid()))
+            return;
+        for (IQuestionResponse qr : sr.getAllResponses()) {
+            String quid = qr.getQuestion().id;
+            Map<String, Integer> counts = frequencies.get(quid);
+            if (counts == null) {
+                counts = new HashMap<String, Integer>();
+                frequencies.put(quid, counts);
+            }
+            for (OptTuple opt : qr.getOpts()) {
+                String oid = opt.c.getId();
+                Integer count = counts.get(oid);
+                counts.put(oid, count == null ? 1 : count + 1);
+                Integer total = totals.get(quid);
+                totals.put(quid, total == null ? 1 : total + 1);
+            }
+        }
+        version++;
+    }
+
+    /**
+     * Notes that a response was moved between valid and bot, so its serialized form is stale.
+     */
+    public synchronized void invalidate(
+            String srid)
+    {
+        jsonGeneration++;
+        if (json.remove(srid) != null)
+            version++;
+    }
+
+    /**
+     * The largest total variation distance, over all questions, between the current option distribution and the
+     * one at the last full pass.
+     */
+    synchronized double drift()
+    {
+        double drift = 0.0;
+        for (Map.Entry<String, Map<String, Integer>> entry : frequencies.entrySet()) {
+            String quid = entry.getKey();
+            Map<String, Integer> then = classifiedFrequencies.get(quid);
+            Integer thenTotal = classifiedTotals.get(quid);
+            if (then == null || thenTotal == null || thenTotal == 0)
+                return 1.0;
+            double nowTotal = totals.get(quid);
+            double distance = 0.0;
+            Set<String> oids = new HashSet<String>(entry.getValue().keySet());
+            oids.addAll(then.keySet());
+            for (String oid : oids) {
+                Integer now = entry.getValue().get(oid);
+                Integer before = then.get(oid);
+                distance += Math.abs((now == null ? 0 : now) / nowTotal - (before == null ? 0 : before) / (double) thenTotal);
+            }
+            drift = Math.max(drift, distance / 2);
+        }
+        return drift;
+    }
+
+    synchronized boolean needsFullPass()
+    {
+        return !classified || drift() > maxDrift;
+    }
+
+    public synchronized int getFullPasses()
+    {
+        return fullPasses;
+    }
+
+    private void fullPass()
+            throws SurveyException
+    {
+        long start = System.nanoTime();
+        List<SurveyResponse> population = record.getAllResponses();
+        record.qcMetrics.classifyResponses(new ArrayList<SurveyResponse>(population));
+        fullPassLatency.recordSince(start);
+        classifiedFrequencies = new HashMap<String, Map<String, Integer>>();
+        for (Map.Entry<String, Map<String, Integer>> entry : frequencies.entrySet())
+            classifiedFrequencies.put(entry.getKey(), new HashMap<String, Integer>(entry.getValue()));
+        classifiedTotals = new HashMap<String, Integer>(totals);
+        classified = true;
+        jsonGeneration++;
+        json.clear();
+        fullPasses++;
+        version++;
+        LOGGER.debug(String.format("Reclassified %d responses for record %s", population.size(), record.rid));
+    }
+
+    /**
+     * The response's struct as JSON, serialized once until the response is reclassified. This does not take the
+     * classifier's monitor, so that publishing a new response to the dashboard never waits on a full pass; a value
+     * serialized while the response was being reclassified is returned but not cached.
+     */
+    public String jsonize(
+            SurveyResponse sr)
+    {
+        String srid = sr.getSrid();
+        String s = json.get(srid);
+        if (s == null) {
+            long generation = jsonGeneration;
+            s = sr.makeStruct().jsonize();
+            json.put(srid, s);
+            if (jsonGeneration != generation)
+                json.remove(srid, s);
+        }
+        return s;
+    }
+
+    /**
+     * The JSON array of every response's struct that the dashboard shows.
+     */
+    public synchronized String jsonizeResponses()
+            throws SurveyException
+    {
+        if (needsFullPass())
+            fullPass();
+        if (responseData != null && responseDataVersion == version)
+            return responseData;
+        StringBuilder sb = new StringBuilder("[ ");
+        boolean first = true;
+        for (SurveyResponse sr : record.responses()) {
+            String s = jsonize(sr);
+            if (!first)
+                sb.append(", ");
+            sb.append(s);
+            first = false;
+        }
+        responseData = sb.append(" ]").toString();
+        responseDataVersion = version;
+        return responseData;
+    }
+
+    /**
+     * Streams the same array as {@link #jsonizeResponses()} to out, without assembling it in memory. Responses
+     * already serialized are copied from the cache; the rest are written straight from their structs.
+     */
+    public synchronized void writeResponses(
+            OutputStream out)
+            throws SurveyException,
+            IOException
+    {
+        if (needsFullPass())
+            fullPass();
+        JsonGenerator generator = Json.generator(out);
+        generator.writeStartArray();
+        for (SurveyResponse sr : record.responses()) {
+            String s = json.get(sr.getSrid());
+            if (s != null)
+                generator.writeRawValue(s);
+            else sr.makeStruct().writeJson(generator);
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+}
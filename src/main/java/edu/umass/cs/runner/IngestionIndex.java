@@ -0,0 +1,172 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Set of the backend assignment ids whose responses have been ingested for a survey. Response managers consult the
+ * index before downloading or parsing an assignment's answers, so each poll only pays for new work. An assignment is
+ * added only once its response has been written out.
+ *
+ * Ids are stored as 64-bit hashes in an open-addressing table, which keeps the index to a few bytes per assignment.
+ * Every hash added is also appended to a file, and the file is replayed when the index is opened, so the index
+ * survives restarts. There is one file per survey, named after a hash of the survey's source, under the records
+ * directory; a new Record for the same survey (e.g. a rerun against HITs that are still up) shares it.
+ */
+public class IngestionIndex implements Closeable {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    public static final String INDEX_DIR = "ingested";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long EMPTY = 0L;
+
+    private static final Map<String, IngestionIndex> open = new HashMap<String, IngestionIndex>();
+
+    private final File file;
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private DataOutputStream out;
+
+    IngestionIndex(
+            File file)
+            throws IOException
+    {
+        this.file = file;
+        if (file.exists())
+            load();
+    }
+
+    /**
+     * The index of the survey's assignments, opened once per process.
+     */
+    public static synchronized IngestionIndex forSurvey(
+            Survey survey)
+            throws IOException
+    {
+        String source = survey.source == null ? survey.sid : survey.source;
+        IngestionIndex index = open.get(source);
+        if (index == null) {
+            File directory = new File(AbstractLibrary.RECORDDIR, INDEX_DIR);
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException(String.format("Could not create %s", directory.getPath()));
+            index = new IngestionIndex(new File(directory, String.format("%016x", hash(source))));
+            open.put(source, index);
+        }
+        return index;
+    }
+
+    public synchronized boolean contains(
+            String assignmentId)
+    {
+        long h = hash(assignmentId);
+        int mask = table.length - 1;
+        for (int i = (int) h & mask ; table[i] != EMPTY ; i = (i + 1) & mask)
+            if (table[i] == h)
+                return true;
+        return false;
+    }
+
+    /**
+     * Records an assignment as ingested.
+     * @return false if the assignment was already in the index.
+     */
+    public synchronized boolean add(
+            String assignmentId)
+            throws IOException
+    {
+        long h = hash(assignmentId);
+        if (!insert(h))
+            return false;
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        out.writeLong(h);
+        out.flush();
+        return true;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void load()
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long entries = file.length() / 8;
+            for (long i = 0 ; i < entries ; i++)
+                insert(in.readLong());
+            if (file.length() % 8 != 0)
+                LOGGER.warn(String.format("Ignoring torn entry at the end of %s", file.getPath()));
+        } finally {
+            in.close();
+        }
+        LOGGER.debug(String.format("Loaded %d ingested assignments from %s", size, file.getPath()));
+    }
+
+    private boolean insert(
+            long h)
+    {
+        if (2 * (size + 1) > table.length)
+            resize(table.length * 2);
+        int mask = table.length - 1;
+        int i = (int) h & mask;
+        for ( ; table[i] != EMPTY ; i = (i + 1) & mask)
+            if (table[i] == h)
+                return false;
+        table[i] = h;
+        size++;
+        return true;
+    }
+
+    private void resize(
+            int capacity)
+    {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long h : old) {
+            if (h == EMPTY)
+                continue;
+            int i = (int) h & mask;
+            while (table[i] != EMPTY)
+                i = (i + 1) & mask;
+            table[i] = h;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the id's characters, followed by a finalizer so that the low bits used for probing are
+     * well mixed. Zero is reserved for empty slots.
+     */
+    static long hash(
+            String s)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0 ; i < s.length() ; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1L : h;
+    }
+}
@@ -1,5 +1,7 @@
 package edu.umass.cs.runner;
 
+import edu.umass.cs.runner.dashboard.ResponseFeed;
+import edu.umass.cs.runner.system.BoxedBool;
 import edu.umass.cs.runner.system.Parameters;
 import edu.umass.cs.runner.system.SurveyResponse;
 import edu.umass.cs.runner.system.backend.AbstractLibrary;
@@ -14,10 +16,13 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.lang.reflect.Field;
 import java.util.*;
 
 public class Record implements Serializable {
 
+    // the UID of the class before checkpoints, so that the snapshots it wrote can still be read
+    private static final long serialVersionUID = -389011167908735557L;
     final private static Logger LOGGER = Runner.LOGGER;
     final private static Gensym gensym = new Gensym(String.format("rec_%d", System.currentTimeMillis()));
 
@@ -28,9 +33,12 @@ public class Record implements Serializable {
     final public QCMetrics qcMetrics;
     final public double alpha;
     final public String rid = gensym.next();
-    private List<SurveyResponse> validResponses;
-    private List<SurveyResponse> botResponses;
-    private Deque<ITask> tasks; // these should be hitids
+    private transient ResponseStore responses;
+    private transient Deque<ITask> tasks; // these should be hitids
+    private transient RecordCheckpoint checkpoint;
+    private transient IncrementalClassifier incrementalClassifier;
+    private transient ResponseFeed responseFeed;
+    private transient boolean restoredFromSnapshot = false;
     private String htmlFileName = "";
     public KnownBackendType backendType;
     public final double expectedCost;
@@ -38,18 +46,14 @@ public class Record implements Serializable {
     private final String RECORDDIR = AbstractLibrary.RECORDDIR + AbstractLibrary.fileSep + this.rid;
 
     public String serializeRecord() throws IOException {
-        String timestamp = String.valueOf(System.currentTimeMillis());
-        String serializedFileName = RECORDDIR + AbstractLibrary.fileSep + timestamp;
-        FileOutputStream fileOutputStream = new FileOutputStream(serializedFileName);
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-        objectOutputStream.writeObject(this);
-        objectOutputStream.close();
-        fileOutputStream.close();
-        LOGGER.info("Wrote record data to " + serializedFileName);
-        return serializedFileName;
+        return checkpoint().compact();
     }
 
     public static Record deserializeRecord(String serializedRecordFilename) throws IOException, ClassNotFoundException {
+        File file = new File(serializedRecordFilename);
+        if (RecordCheckpoint.isCheckpoint(file))
+            return RecordCheckpoint.restore(file);
+        // snapshot written by Java serialization, before checkpoints
         Record record;
         FileInputStream fileInputStream = new FileInputStream(serializedRecordFilename);
         ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
@@ -62,15 +66,97 @@ public class Record implements Serializable {
     public static Record deserializeLatestRecord(String recordDirectory) throws IOException, ClassNotFoundException {
         File dir = new File(recordDirectory);
         assert dir.isDirectory() : String.format("File %s is not a directory", recordDirectory);
+        File checkpoint = new File(dir, RecordCheckpoint.CHECKPOINT_FILE);
+        if (checkpoint.exists())
+            return RecordCheckpoint.restore(checkpoint);
         long maxTimestamp = Long.MIN_VALUE;
         for (File file : dir.listFiles()) {
+            if (!RecordCheckpoint.isLegacySnapshot(file))
+                continue;
             long thisTimestamp = Long.parseLong(file.getName());
             if (thisTimestamp > maxTimestamp)
                 maxTimestamp = thisTimestamp;
         }
+        if (maxTimestamp == Long.MIN_VALUE)
+            throw new FileNotFoundException(String.format("No record data found in %s", recordDirectory));
         return deserializeRecord(recordDirectory + AbstractLibrary.fileSep + String.valueOf(maxTimestamp));
     }
 
+    private synchronized RecordCheckpoint checkpoint() {
+        if (this.checkpoint == null)
+            this.checkpoint = new RecordCheckpoint(this, new File(this.RECORDDIR));
+        return this.checkpoint;
+    }
+
+    /**
+     * The index of backend assignments whose responses have been ingested for this record's survey.
+     */
+    public IngestionIndex getIngestionIndex() throws IOException {
+        return IngestionIndex.forSurvey(this.survey);
+    }
+
+    /**
+     * Tracks the population for the dashboard, so that it is reclassified only when it has changed enough to matter.
+     */
+    public synchronized IncrementalClassifier getIncrementalClassifier() {
+        if (this.incrementalClassifier == null)
+            this.incrementalClassifier = new IncrementalClassifier(this);
+        return this.incrementalClassifier;
+    }
+
+    /**
+     * The live feed of this record's responses for the dashboard.
+     */
+    public synchronized ResponseFeed getResponseFeed() {
+        if (this.responseFeed == null)
+            this.responseFeed = new ResponseFeed(this);
+        return this.responseFeed;
+    }
+
+    /**
+     * Whether this record was read from a snapshot written by Java serialization, before checkpoints. Such a
+     * snapshot carries its own responses and tasks, so it may only be removed once a checkpoint holding them exists.
+     */
+    boolean isRestoredFromSnapshot() {
+        return this.restoredFromSnapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        // many of the fields are final, so they are set the way defaultReadObject would set them
+        for (ObjectStreamField field : ObjectStreamClass.lookup(Record.class).getFields()) {
+            try {
+                Field f = Record.class.getDeclaredField(field.getName());
+                f.setAccessible(true);
+                if (field.getType() == double.class)
+                    f.setDouble(this, fields.get(field.getName(), 0.0));
+                else f.set(this, fields.get(field.getName(), null));
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new InvalidObjectException(String.format("Cannot restore field %s: %s", field.getName(), e));
+            }
+        }
+        this.responses = new ResponseStore();
+        this.tasks = new ArrayDeque<ITask>();
+        // a checkpoint's base leaves responses and tasks to the deltas; an old snapshot holds them itself
+        ObjectStreamClass streamClass = fields.getObjectStreamClass();
+        if (streamClass.getField("validResponses") == null)
+            return;
+        this.restoredFromSnapshot = true;
+        List<SurveyResponse> valid = (List<SurveyResponse>) fields.get("validResponses", null);
+        List<SurveyResponse> bots = (List<SurveyResponse>) fields.get("botResponses", null);
+        Deque<ITask> oldTasks = streamClass.getField("tasks") == null ? null
+                : (Deque<ITask>) fields.get("tasks", null);
+        if (valid != null)
+            for (SurveyResponse sr : valid)
+                restoreResponse(sr, true);
+        if (bots != null)
+            for (SurveyResponse sr : bots)
+                restoreResponse(sr, false);
+        if (oldTasks != null)
+            this.tasks.addAll(oldTasks);
+    }
+
     public Record(QCMetrics qcMetrics, AbstractLibrary someLib, KnownBackendType backendType) {
         this.qcMetrics = qcMetrics;
         try {
@@ -110,8 +196,7 @@ public class Record implements Serializable {
         }
         this.survey = qcMetrics.survey;
         this.library = someLib; //new MturkLibrary();
-        this.validResponses = new ArrayList<SurveyResponse>();
-        this.botResponses = new ArrayList<SurveyResponse>();
+        this.responses = new ResponseStore();
         this.tasks = new ArrayDeque<ITask>();
         this.backendType = backendType;
         this.classifier = qcMetrics.classifier;
@@ -126,7 +211,7 @@ public class Record implements Serializable {
         try {
             this.serializeRecord();
         } catch (IOException io) {
-            LOGGER.warn(String.format("Attempt to serialize record %s in constructor failed.,", this.rid));
+            LOGGER.warn(String.format("Attempt to checkpoint record %s in constructor failed.,", this.rid));
             LOGGER.warn(io);
         }
     }
@@ -169,87 +254,190 @@ public class Record implements Serializable {
         return this.htmlFileName;
     }
 
-    public void addNewTask(ITask task) {
+    public synchronized void addNewTask(ITask task) {
         tasks.push(task);
         try {
-            this.serializeRecord();
+            checkpoint().appendTask(task);
+        } catch (IOException io) {
+            LOGGER.warn("Attempted to checkpoint record:\n"+io);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Adds a task recovered from a checkpoint, without checkpointing it again.
+     */
+    synchronized void restoreTask(ITask task) {
+        tasks.push(task);
+    }
+
+    /**
+     * Adds a response recovered from a checkpoint, without checkpointing it again.
+     */
+    void restoreResponse(SurveyResponse surveyResponse, boolean valid) {
+        if (this.responses.add(surveyResponse, valid))
+            getIncrementalClassifier().observe(surveyResponse);
+    }
+
+    Iterable<SurveyResponse> validResponses() {
+        return this.responses.valid();
+    }
+
+    Iterable<SurveyResponse> botResponses() {
+        return this.responses.bots();
+    }
+
+    private void checkpointResponse(SurveyResponse surveyResponse, boolean valid) {
+        try {
+            checkpoint().appendResponse(surveyResponse, valid);
         } catch (IOException io) {
-            LOGGER.warn("Attempted to serialize record:\n"+io);
+            LOGGER.warn(String.format("Attempted to checkpoint response %s:\n%s", surveyResponse.getSrid(), io));
         }
     }
 
-    public ITask[] getAllTasks() {
+    private void checkpointRemoval(SurveyResponse surveyResponse) {
+        try {
+            checkpoint().appendRemoval(surveyResponse);
+        } catch (IOException io) {
+            LOGGER.warn(String.format("Attempted to checkpoint removal of %s:\n%s", surveyResponse.getSrid(), io));
+        }
+    }
+
+    public synchronized ITask[] getAllTasks() {
         if (this.tasks == null || this.tasks.isEmpty())
             return new ITask[0];
         return this.tasks.toArray(new ITask[tasks.size()]);
     }
 
-    public synchronized List<SurveyResponse> getAllResponses() {
-        List<SurveyResponse> allResponses = new ArrayList<SurveyResponse>();
+    /**
+     * Blocks until at least one task has been posted for this record, or until the interrupt is set.
+     */
+    public synchronized void awaitTasks(BoxedBool interrupt) throws InterruptedException {
+        while ((this.tasks == null || this.tasks.isEmpty()) && !interrupt.getInterrupt())
+            this.wait(1000);
+    }
 
-        if (this.validResponses != null) {
-            for (SurveyResponse SurveyResponse : validResponses)
-                allResponses.add((SurveyResponse) SurveyResponse);
-        }
-        if (this.botResponses != null) {
-            for (SurveyResponse SurveyResponse : botResponses)
-                allResponses.add((SurveyResponse) SurveyResponse);
+    /**
+     * Blocks until the number of valid responses differs from numValidSeen, or until millis milliseconds have
+     * elapsed.
+     */
+    public synchronized void awaitValidResponses(int numValidSeen, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (this.responses.getNumValid() == numValidSeen && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
         }
+    }
+
+    /**
+     * Every response, valid ones and bots, in the order they were added. Iterating does not copy or lock.
+     */
+    public Iterable<SurveyResponse> responses() {
+        return this.responses.all();
+    }
+
+    /**
+     * A copy of every response; prefer {@link #responses()} unless a list is needed.
+     */
+    public List<SurveyResponse> getAllResponses() {
+        List<SurveyResponse> allResponses = new ArrayList<SurveyResponse>(this.responses.size());
+        for (SurveyResponse sr : this.responses.all())
+            allResponses.add(sr);
         return allResponses;
     }
 
     public String jsonizeResponses() throws SurveyException {
-        List<SurveyResponse> SurveyResponses = this.getAllResponses();
-        qcMetrics.classifyResponses(new ArrayList<SurveyResponse>(SurveyResponses));
-        List<String> strings = new ArrayList<>();
-        for (SurveyResponse sr : this.getAllResponses()) {
-            strings.add(sr.makeStruct().jsonize());
-        }
-        return String.format("[ %s ]", StringUtils.join(strings, ", "));
+        return getIncrementalClassifier().jsonizeResponses();
+    }
+
+    /**
+     * Writes the same JSON as {@link #jsonizeResponses()} to the stream, as UTF-8, without building it in memory.
+     */
+    public void writeResponses(OutputStream out) throws SurveyException, IOException {
+        getIncrementalClassifier().writeResponses(out);
     }
 
     public boolean needsWrite() {
-        for (SurveyResponse SurveyResponse : this.getAllResponses())
+        for (SurveyResponse SurveyResponse : this.responses.all())
             if (!SurveyResponse.isRecorded())
                 return true;
         return false;
     }
 
-    public synchronized int getNumValidResponses() {
-        return this.validResponses.size();
+    public int getNumValidResponses() {
+        return this.responses.getNumValid();
     }
 
-    public synchronized int getNumBotResponses() {
-        return this.botResponses.size();
+    public int getNumBotResponses() {
+        return this.responses.getNumBots();
     }
 
-    public synchronized void addBotResponse(SurveyResponse surveyResponse) {
-        this.botResponses.add(surveyResponse);
+    public int getNumResponses() {
+        return this.responses.size();
     }
 
-    public synchronized void addValidResponse(SurveyResponse surveyResponse) {
-        this.validResponses.add(surveyResponse);
+    public boolean isValidResponse(String srid) {
+        return this.responses.isValid(srid);
     }
 
-    public synchronized void removeBotResponse(SurveyResponse surveyResponse) {
-        if (this.botResponses.contains(surveyResponse)) {
-            this.botResponses.remove(surveyResponse);
+    public void addBotResponse(SurveyResponse surveyResponse) {
+        if (!this.responses.add(surveyResponse, false)) {
+            LOGGER.info(String.format("Response %s was already recorded", surveyResponse.getSrid()));
+            return;
+        }
+        getIncrementalClassifier().observe(surveyResponse);
+        checkpointResponse(surveyResponse, false);
+        getResponseFeed().responseAdded(surveyResponse, false);
+        synchronized (this) {
+            this.notifyAll();
         }
     }
 
-    public synchronized void removeValidResponse(SurveyResponse surveyResponse) {
-        if (this.validResponses.contains(surveyResponse)) {
-            this.botResponses.remove(surveyResponse);
+    public void addValidResponse(SurveyResponse surveyResponse) {
+        if (!this.responses.add(surveyResponse, true)) {
+            LOGGER.info(String.format("Response %s was already recorded", surveyResponse.getSrid()));
+            return;
+        }
+        getIncrementalClassifier().observe(surveyResponse);
+        checkpointResponse(surveyResponse, true);
+        getResponseFeed().responseAdded(surveyResponse, true);
+        synchronized (this) {
+            this.notifyAll();
         }
     }
 
+    /**
+     * Moves a response between valid and bot, e.g. after it has been classified again.
+     */
+    public void reclassifyResponse(SurveyResponse surveyResponse, boolean valid) {
+        if (this.responses.reclassify(surveyResponse.getSrid(), valid)) {
+            getIncrementalClassifier().invalidate(surveyResponse.getSrid());
+            checkpointResponse(surveyResponse, valid);
+            getResponseFeed().classificationChanged(surveyResponse.getSrid(), valid);
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    public void removeBotResponse(SurveyResponse surveyResponse) {
+        if (this.responses.remove(surveyResponse.getSrid(), false))
+            checkpointRemoval(surveyResponse);
+    }
+
+    public void removeValidResponse(SurveyResponse surveyResponse) {
+        if (this.responses.remove(surveyResponse.getSrid(), true))
+            checkpointRemoval(surveyResponse);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof Record) {
             Record that = (Record) o;
 
-            int     thisNumResponses = this.getAllResponses().size(),
-                    thatNumResponses = that.getAllResponses().size(),
+            int     thisNumResponses = this.getNumResponses(),
+                    thatNumResponses = that.getNumResponses(),
                     thisNumTasks = this.getAllTasks().length,
                     thatNumTasks = that.getAllTasks().length;
 
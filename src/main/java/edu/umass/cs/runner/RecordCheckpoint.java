@@ -0,0 +1,556 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.QuestionResponse;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.backend.ITask;
+import edu.umass.cs.runner.system.metrics.Counter;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary checkpoint of a {@link Record}. A checkpoint file consists of a header followed by checksummed segments:
+ *
+ * <pre>
+ *     header   : magic (int) | version (short) | rid (string) | created (long)
+ *     segment  : type (byte) | length (int) | payload (length bytes) | crc32 of payload (int)
+ * </pre>
+ *
+ * The first segment is always a BASE segment holding the Java-serialized Record, with its responses and tasks left
+ * out. It is followed by a task table (one TASK segment per task) and RESPONSE segments. Tasks and responses that
+ * are added after the base was written are appended as further TASK and RESPONSE segments, so a new response costs
+ * one small append instead of a fresh snapshot of the whole object graph. When a response is reclassified, a new
+ * RESPONSE segment is appended and the later segment wins on restore. Responses are keyed by srid, which names the
+ * response rather than the worker (a worker may submit more than once); the worker id is stored alongside it. A
+ * removed response gets a REMOVAL segment holding its srid, and is left out on restore.
+ *
+ * All of a checkpoint's state is guarded by its Record's monitor, which compaction needs anyway to read the Record's
+ * tasks; taking one lock means a checkpoint can never be locked before the Record.
+ *
+ * Once more than a threshold of deltas has accumulated, the checkpoint is compacted: a new base is written with the
+ * current tasks and responses folded in, and it atomically replaces the old file. When the record was itself
+ * restored from a timestamped snapshot left behind by the old Java-serialization format, compaction then removes
+ * those snapshots, since the new base holds their responses and tasks.
+ */
+public class RecordCheckpoint implements Closeable {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    private static final Histogram checkpointBytes = Metrics.histogram("checkpoint.bytes");
+    private static final Histogram compactLatency = Metrics.histogram("checkpoint.compact.nanos");
+    private static final Counter deltasWritten = Metrics.counter("checkpoint.deltas");
+
+    public static final String CHECKPOINT_FILE = "checkpoint";
+    public static final int DEFAULT_COMPACT_THRESHOLD = 1024;
+    static final int MAGIC = 0x534d4350; // SMCP
+    static final short VERSION = 2;
+    // version 1 did not record worker ids, which were the same as the srids
+    static final short VERSION_WITHOUT_WORKER_IDS = 1;
+    static final byte BASE = 1;
+    static final byte TASK = 2;
+    static final byte RESPONSE = 3;
+    static final byte REMOVAL = 4;
+    private static final byte SURVEY_OPTION = 0;
+    private static final byte LITERAL_OPTION = 1;
+
+    /**
+     * Placeholder for a task restored from a checkpoint. The backend objects behind a task (e.g. an MTurk HIT) are
+     * not checkpointed; a response manager can recreate them from the task id.
+     */
+    public static class CheckpointedTask implements ITask, Serializable {
+        private final String taskid;
+        private final String backend;
+        private Record record;
+
+        CheckpointedTask(String taskid, String backend, Record record) {
+            this.taskid = taskid;
+            this.backend = backend;
+            this.record = record;
+        }
+
+        @Override
+        public String getTaskId() {
+            return taskid;
+        }
+
+        public String getBackend() {
+            return backend;
+        }
+
+        @Override
+        public Record getRecord() {
+            return record;
+        }
+
+        @Override
+        public void setRecord(Record record) {
+            this.record = record;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ITask && this.taskid.equals(((ITask) o).getTaskId());
+        }
+
+        @Override
+        public int hashCode() {
+            return taskid.hashCode();
+        }
+    }
+
+    private final Record record;
+    private final File file;
+    private final int compactThreshold;
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(4096);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final CRC32 crc = new CRC32();
+    private DataOutputStream out;
+    private int deltasSinceBase = 0;
+
+    RecordCheckpoint(
+            Record record,
+            File directory)
+    {
+        this.record = record;
+        this.file = new File(directory, CHECKPOINT_FILE);
+        this.compactThreshold = record.library == null ? DEFAULT_COMPACT_THRESHOLD
+                : record.library.getIntProperty(Parameters.CHECKPOINT_COMPACT_THRESHOLD, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Writes a fresh base containing the record's current tasks and responses and atomically replaces the existing
+     * checkpoint with it.
+     * @return the path of the checkpoint file.
+     */
+    String compact()
+            throws IOException
+    {
+        synchronized (record) {
+            return writeBase();
+        }
+    }
+
+    private String writeBase()
+            throws IOException
+    {
+        long start = System.nanoTime();
+        close();
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(tmp);
+        DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+        try {
+            writeHeader(compacted);
+            payload.flush();
+            payloadBytes.reset();
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(payloadBytes);
+            objectOutputStream.writeObject(record);
+            objectOutputStream.close();
+            writeSegment(compacted, BASE);
+            ITask[] tasks = record.getAllTasks();
+            // tasks are pushed onto the front of the record's deque; replay them in the order they were added
+            for (int i = tasks.length - 1; i >= 0; i--) {
+                encodeTask(tasks[i]);
+                writeSegment(compacted, TASK);
+            }
+            for (SurveyResponse sr : record.validResponses()) {
+                encodeResponse(sr, true);
+                writeSegment(compacted, RESPONSE);
+            }
+            for (SurveyResponse sr : record.botResponses()) {
+                encodeResponse(sr, false);
+                writeSegment(compacted, RESPONSE);
+            }
+            compacted.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            compacted.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // some platforms will not rename over an existing file
+            if (!file.delete() || !tmp.renameTo(file))
+                throw new IOException(String.format("Could not replace checkpoint %s", file.getPath()));
+        }
+        deltasSinceBase = 0;
+        // the base now holds whatever an old snapshot of this record held
+        if (record.isRestoredFromSnapshot())
+            removeLegacySnapshots();
+        compactLatency.recordSince(start);
+        checkpointBytes.record(file.length());
+        LOGGER.info(String.format("Wrote record checkpoint to %s (%d bytes)", file.getPath(), file.length()));
+        return file.getPath();
+    }
+
+    void appendTask(
+            ITask task)
+            throws IOException
+    {
+        synchronized (record) {
+            encodeTask(task);
+            appendDelta(TASK);
+        }
+    }
+
+    void appendResponse(
+            SurveyResponse sr,
+            boolean valid)
+            throws IOException
+    {
+        synchronized (record) {
+            encodeResponse(sr, valid);
+            appendDelta(RESPONSE);
+        }
+    }
+
+    void appendRemoval(
+            SurveyResponse sr)
+            throws IOException
+    {
+        synchronized (record) {
+            writeString(payload, sr.getSrid());
+            appendDelta(REMOVAL);
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        synchronized (record) {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    private void appendDelta(
+            byte type)
+            throws IOException
+    {
+        if (!file.exists() || (out == null && !isCurrentVersion(file))) {
+            // no base to append to yet, or one in an older format that the new delta would not match
+            writeBase();
+            return;
+        }
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        writeSegment(out, type);
+        out.flush();
+        deltasWritten.increment();
+        if (++deltasSinceBase > compactThreshold)
+            writeBase();
+    }
+
+    private void removeLegacySnapshots()
+    {
+        File[] files = file.getParentFile().listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (isLegacySnapshot(f) && !f.delete())
+                LOGGER.warn(String.format("Could not remove old snapshot %s", f.getPath()));
+        }
+    }
+
+    static boolean isLegacySnapshot(
+            File f)
+    {
+        String name = f.getName();
+        if (name.isEmpty())
+            return false;
+        for (int i = 0 ; i < name.length() ; i++)
+            if (!Character.isDigit(name.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private void writeHeader(
+            DataOutputStream stream)
+            throws IOException
+    {
+        stream.writeInt(MAGIC);
+        stream.writeShort(VERSION);
+        writeString(stream, record.rid);
+        stream.writeLong(System.currentTimeMillis());
+    }
+
+    private void writeSegment(
+            DataOutputStream stream,
+            byte type)
+            throws IOException
+    {
+        payload.flush();
+        byte[] bytes = payloadBytes.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        stream.writeByte(type);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+        stream.writeInt((int) crc.getValue());
+        payloadBytes.reset();
+    }
+
+    private void encodeTask(
+            ITask task)
+            throws IOException
+    {
+        writeString(payload, task.getTaskId());
+        writeString(payload, record.backendType == null ? "" : record.backendType.name());
+    }
+
+    private void encodeResponse(
+            SurveyResponse sr,
+            boolean valid)
+            throws IOException
+    {
+        writeString(payload, sr.getSrid());
+        writeString(payload, sr.getWorkerId());
+        payload.writeBoolean(valid);
+        payload.writeInt(sr.otherValues.size());
+        for (Map.Entry<String, String> entry : sr.otherValues.entrySet()) {
+            writeString(payload, entry.getKey());
+            writeString(payload, entry.getValue());
+        }
+        List<IQuestionResponse> questionResponses = sr.getAllResponses();
+        payload.writeInt(questionResponses.size());
+        for (IQuestionResponse qr : questionResponses) {
+            Question q = qr.getQuestion();
+            writeString(payload, q.id);
+            payload.writeInt(qr.getIndexSeen());
+            payload.writeInt(qr.getOpts().size());
+            for (OptTuple opt : qr.getOpts()) {
+                if (QuestionResponse.isSurveyOption(q, opt.c)) {
+                    payload.writeByte(SURVEY_OPTION);
+                    writeString(payload, opt.c.getId());
+                } else {
+                    payload.writeByte(LITERAL_OPTION);
+                    writeString(payload, opt.c instanceof StringDatum ? ((StringDatum) opt.c).data.toString() : opt.c.toString());
+                }
+                payload.writeInt(opt.i);
+            }
+        }
+    }
+
+    private static void writeString(
+            DataOutputStream stream,
+            String s)
+            throws IOException
+    {
+        if (s == null) {
+            stream.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    private static String readString(
+            DataInputStream stream)
+            throws IOException
+    {
+        int length = stream.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        stream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the file starts with the checkpoint magic number.
+     */
+    public static boolean isCheckpoint(
+            File f)
+    {
+        if (!f.isFile() || f.length() < 4)
+            return false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(f));
+            return in.readInt() == MAGIC;
+        } catch (IOException io) {
+            return false;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException io) {
+                LOGGER.warn(io);
+            }
+        }
+    }
+
+    private static boolean isCurrentVersion(
+            File f)
+    {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(f));
+            return in.readInt() == MAGIC && in.readShort() == VERSION;
+        } catch (IOException io) {
+            return false;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException io) {
+                LOGGER.warn(io);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a Record from its checkpoint by loading the base and replaying the deltas appended after it. A
+     * truncated or corrupt segment at the end of the file (e.g. from a crash mid-append) ends the replay; everything
+     * before it is kept.
+     */
+    public static Record restore(
+            File f)
+            throws IOException,
+            ClassNotFoundException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(String.format("%s is not a record checkpoint", f.getPath()));
+            short version = in.readShort();
+            if (version != VERSION && version != VERSION_WITHOUT_WORKER_IDS)
+                throw new IOException(String.format("Unsupported checkpoint version %d in %s", version, f.getPath()));
+            String rid = readString(in);
+            in.readLong();
+            Record record = null;
+            Map<String, SurveyResponse> responses = new LinkedHashMap<String, SurveyResponse>();
+            Map<String, Boolean> classifications = new HashMap<String, Boolean>();
+            CRC32 crc = new CRC32();
+            while (true) {
+                int type = in.read();
+                if (type == -1)
+                    break;
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    crc.reset();
+                    crc.update(bytes, 0, bytes.length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        LOGGER.warn(String.format("Checksum mismatch in %s; ignoring the remainder", f.getPath()));
+                        break;
+                    }
+                } catch (EOFException eof) {
+                    LOGGER.warn(String.format("Truncated segment in %s; ignoring the remainder", f.getPath()));
+                    break;
+                }
+                DataInputStream segment = new DataInputStream(new ByteArrayInputStream(bytes));
+                switch (type) {
+                    case BASE:
+                        ObjectInputStream objectInputStream = new ObjectInputStream(segment);
+                        record = (Record) objectInputStream.readObject();
+                        objectInputStream.close();
+                        responses.clear();
+                        classifications.clear();
+                        break;
+                    case TASK:
+                        String taskid = readString(segment);
+                        String backend = readString(segment);
+                        if (record != null)
+                            record.restoreTask(new CheckpointedTask(taskid, backend, record));
+                        break;
+                    case REMOVAL:
+                        String removed = readString(segment);
+                        responses.remove(removed);
+                        classifications.remove(removed);
+                        break;
+                    case RESPONSE:
+                        if (record == null)
+                            break;
+                        String srid = readString(segment);
+                        String workerId = version == VERSION_WITHOUT_WORKER_IDS ? srid : readString(segment);
+                        boolean valid = segment.readBoolean();
+                        SurveyResponse sr = decodeResponse(segment, srid, record);
+                        sr.setWorkerId(workerId);
+                        responses.put(srid, sr);
+                        classifications.put(srid, valid);
+                        break;
+                    default:
+                        LOGGER.warn(String.format("Unknown segment type %d in %s; skipping", type, f.getPath()));
+                }
+            }
+            if (record == null)
+                throw new IOException(String.format("Checkpoint %s for record %s has no base", f.getPath(), rid));
+            for (SurveyResponse sr : responses.values())
+                record.restoreResponse(sr, classifications.get(sr.getSrid()));
+            return record;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static SurveyResponse decodeResponse(
+            DataInputStream segment,
+            String srid,
+            Record record)
+            throws IOException
+    {
+        Survey survey = record.survey;
+        SurveyResponse sr = new SurveyResponse(survey, srid);
+        sr.record = record;
+        int numOtherValues = segment.readInt();
+        for (int i = 0 ; i < numOtherValues ; i++) {
+            String key = readString(segment);
+            sr.otherValues.put(key, readString(segment));
+        }
+        int numQuestionResponses = segment.readInt();
+        List<IQuestionResponse> questionResponses = new ArrayList<IQuestionResponse>(numQuestionResponses);
+        for (int i = 0 ; i < numQuestionResponses ; i++) {
+            String quid = readString(segment);
+            int indexSeen = segment.readInt();
+            int numOpts = segment.readInt();
+            QuestionResponse questionResponse;
+            Question q = null;
+            try {
+                questionResponse = new QuestionResponse(survey, quid, indexSeen);
+                q = questionResponse.getQuestion();
+            } catch (SurveyException se) {
+                questionResponse = new QuestionResponse();
+            }
+            for (int j = 0 ; j < numOpts ; j++) {
+                byte kind = segment.readByte();
+                String s = readString(segment);
+                int position = segment.readInt();
+                SurveyDatum c = null;
+                if (kind == SURVEY_OPTION && q != null) {
+                    try {
+                        c = q.getOptById(s);
+                    } catch (Exception e) {
+                        LOGGER.warn(String.format("Option %s not found in question %s", s, quid));
+                    }
+                }
+                if (c == null)
+                    c = new StringDatum(s, -1, -1, -1);
+                if (q == null)
+                    questionResponse.add(quid, new OptTuple(c, position), sr.otherValues);
+                else questionResponse.getOpts().add(new OptTuple(c, position));
+            }
+            questionResponses.add(questionResponse);
+        }
+        sr.setResponses(questionResponses);
+        return sr;
+    }
+}
@@ -0,0 +1,189 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.QuestionResponse;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.HTMLDatum;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the rows of {@link ResponseWriter}'s CSV for one survey. Everything that depends only on the survey -- the
+ * quoted and escaped question and option text, the user-defined header cells and the correlation labels -- is
+ * built once per question and option and then copied into each row, so encoding a response is a sequence of appends
+ * with no per-cell formatting or regex escaping. The output is identical to
+ * {@link ResponseWriter#outputSurveyResponseWithFormat(Survey, SurveyResponse)}.
+ */
+public class ResponseRowEncoder {
+
+    private static final String sep = ResponseWriter.sep;
+    private static final String newline = ResponseWriter.newline;
+    private static final Map<Survey, ResponseRowEncoder> encoders =
+            Collections.synchronizedMap(new WeakHashMap<Survey, ResponseRowEncoder>());
+
+    private static class CompiledQuestion {
+        // ,surveyid,questionid,"questiontext",
+        final String head;
+        // user-defined header cells
+        final String otherCells;
+        // correlation cell, or the empty string
+        final String correlationCell;
+        final ConcurrentHashMap<String, String> options = new ConcurrentHashMap<String, String>();
+        CompiledQuestion(String head, String otherCells, String correlationCell) {
+            this.head = head;
+            this.otherCells = otherCells;
+            this.correlationCell = correlationCell;
+        }
+    }
+
+    private static class SortedKeys {
+        final Set<String> keys;
+        final String[] sorted;
+        SortedKeys(Set<String> keys) {
+            this.keys = new HashSet<String>(keys);
+            this.sorted = keys.toArray(new String[keys.size()]);
+            Arrays.sort(this.sorted);
+        }
+    }
+
+    private final Survey survey;
+    private final boolean correlated;
+    private final ConcurrentHashMap<String, CompiledQuestion> questions = new ConcurrentHashMap<String, CompiledQuestion>();
+    private volatile SortedKeys backendKeys = new SortedKeys(Collections.<String>emptySet());
+
+    public ResponseRowEncoder(
+            Survey survey)
+    {
+        this.survey = survey;
+        this.correlated = survey.correlationMap != null && !survey.correlationMap.isEmpty();
+    }
+
+    /**
+     * The encoder shared by every writer of the given survey.
+     */
+    public static ResponseRowEncoder forSurvey(
+            Survey survey)
+    {
+        synchronized (encoders) {
+            ResponseRowEncoder encoder = encoders.get(survey);
+            if (encoder == null) {
+                encoder = new ResponseRowEncoder(survey);
+                encoders.put(survey, encoder);
+            }
+            return encoder;
+        }
+    }
+
+    static String quote(
+            String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0 ; i < s.length() ; i++) {
+            char c = s.charAt(i);
+            if (c == '"')
+                sb.append('"');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private CompiledQuestion compile(
+            Question q)
+    {
+        CompiledQuestion compiled = questions.get(q.id);
+        if (compiled != null)
+            return compiled;
+        String head = sep + survey.sid + sep + q.id + sep + quote(q.data.toString()) + sep;
+        StringBuilder otherCells = new StringBuilder();
+        if (survey.otherHeaders != null)
+            for (String header : survey.otherHeaders)
+                otherCells.append(sep).append('"').append(q.otherValues.get(header)).append('"');
+        String correlationCell = correlated ? sep + survey.getCorrelationLabel(q) : "";
+        compiled = new CompiledQuestion(head, otherCells.toString(), correlationCell);
+        CompiledQuestion existing = questions.putIfAbsent(q.id, compiled);
+        return existing == null ? compiled : existing;
+    }
+
+    private static String encodeOption(
+            SurveyDatum c)
+    {
+        String otext = "";
+        if (c instanceof HTMLDatum)
+            otext = ((HTMLDatum) c).data.toString();
+        else if (c instanceof StringDatum && ! c.isEmpty())
+            otext = ((StringDatum) c).data.toString();
+        // ,optionid,"optiontext",
+        return sep + c.getId() + sep + quote(otext) + sep;
+    }
+
+    /**
+     * The option cells for c. Cells for the question's own options are cached by option id; custom and free-text
+     * answers all share a placeholder id, so their cells are encoded for every row.
+     */
+    private static String compileOption(
+            Question question,
+            CompiledQuestion q,
+            SurveyDatum c)
+    {
+        if (!QuestionResponse.isSurveyOption(question, c))
+            return encodeOption(c);
+        String id = c.getId();
+        String option = q.options.get(id);
+        if (option != null)
+            return option;
+        option = encodeOption(c);
+        q.options.put(id, option);
+        return option;
+    }
+
+    private String[] sortedBackendKeys(
+            Map<String, String> backendHeaders)
+    {
+        SortedKeys keys = backendKeys;
+        if (!keys.keys.equals(backendHeaders.keySet())) {
+            keys = new SortedKeys(backendHeaders.keySet());
+            backendKeys = keys;
+        }
+        return keys.sorted;
+    }
+
+    /**
+     * Appends the rows for every question answered in the response.
+     */
+    public void encode(
+            SurveyResponse sr,
+            StringBuilder out)
+    {
+        String srid = sr.getSrid();
+        String workerId = sr.getWorkerId();
+        Map<String, String> backendHeaders = sr.otherValues;
+        String backendCells = "";
+        if (!backendHeaders.isEmpty()) {
+            StringBuilder cells = new StringBuilder();
+            for (String key : sortedBackendKeys(backendHeaders))
+                cells.append(sep).append('"').append(backendHeaders.get(key)).append('"');
+            backendCells = cells.toString();
+        }
+        for (IQuestionResponse qr : sr.resultsAsMap().values()) {
+            assert qr.getOpts().size() > 0;
+            Question question = qr.getQuestion();
+            CompiledQuestion q = compile(question);
+            int indexSeen = qr.getIndexSeen();
+            for (OptTuple opt : qr.getOpts()) {
+                out.append(srid).append(sep).append(workerId)
+                        .append(q.head).append(indexSeen)
+                        .append(compileOption(question, q, opt.c)).append(opt.i)
+                        .append(q.otherCells)
+                        .append(backendCells)
+                        .append(q.correlationCell)
+                        .append(newline);
+            }
+        }
+    }
+}
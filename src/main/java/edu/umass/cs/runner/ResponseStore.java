@@ -0,0 +1,234 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.SurveyResponse;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A {@link Record}'s responses, each classified as valid or bot. Responses are appended to a log of fixed-size
+ * segments and never move; a response's classification is a slot in its segment's state array, so moving it between
+ * valid and bot (or removing it) is a single compare-and-set, found through a srid index. The valid and bot counts are
+ * kept in atomics, so reading them takes no lock.
+ *
+ * Iteration does not copy: an iterator walks the slots that had been published when it was created and reads each
+ * slot's classification as it goes, so it sees every response added before it started and no response twice.
+ * Appends take a short lock to claim a slot; everything else is lock-free.
+ */
+public class ResponseStore {
+
+    static final int SEGMENT_SIZE = 1024;
+    private static final int EMPTY = 0;
+    private static final int VALID = 1;
+    private static final int BOT = 2;
+    private static final int REMOVED = 3;
+
+    private static class Segment {
+        final SurveyResponse[] responses = new SurveyResponse[SEGMENT_SIZE];
+        final AtomicIntegerArray states = new AtomicIntegerArray(SEGMENT_SIZE);
+    }
+
+    private final ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger numValid = new AtomicInteger();
+    private final AtomicInteger numBots = new AtomicInteger();
+    private volatile Segment[] segments = new Segment[0];
+    // slots [0, published) are filled
+    private volatile int published = 0;
+
+    private Segment segment(
+            int slot)
+    {
+        return segments[slot / SEGMENT_SIZE];
+    }
+
+    private AtomicInteger counter(
+            int state)
+    {
+        return state == VALID ? numValid : numBots;
+    }
+
+    /**
+     * Adds the response, unless a response with the same srid is already here (or was removed). Srids name responses,
+     * not workers, so a second response with the same srid is the same response delivered twice; use
+     * {@link #reclassify(String, boolean)} to change a response's classification.
+     * @return true if the response was new.
+     */
+    public boolean add(
+            SurveyResponse sr,
+            boolean valid)
+    {
+        if (index.containsKey(sr.getSrid()))
+            return false;
+        synchronized (this) {
+            if (index.containsKey(sr.getSrid()))
+                return false;
+            int slot = published;
+            if (slot / SEGMENT_SIZE == segments.length) {
+                Segment[] grown = new Segment[segments.length + 1];
+                System.arraycopy(segments, 0, grown, 0, segments.length);
+                grown[segments.length] = new Segment();
+                segments = grown;
+            }
+            Segment segment = segment(slot);
+            segment.responses[slot % SEGMENT_SIZE] = sr;
+            segment.states.set(slot % SEGMENT_SIZE, valid ? VALID : BOT);
+            counter(valid ? VALID : BOT).incrementAndGet();
+            index.put(sr.getSrid(), slot);
+            published = slot + 1;
+        }
+        return true;
+    }
+
+    private boolean move(
+            int slot,
+            int to)
+    {
+        AtomicIntegerArray states = segment(slot).states;
+        int i = slot % SEGMENT_SIZE;
+        while (true) {
+            int from = states.get(i);
+            // a removed response stays removed
+            if (from == to || from == REMOVED)
+                return false;
+            if (states.compareAndSet(i, from, to)) {
+                if (from == VALID || from == BOT)
+                    counter(from).decrementAndGet();
+                if (to == VALID || to == BOT)
+                    counter(to).incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves the response with the given srid to valid or bot.
+     * @return false if there is no such response, it was removed, or it was already so classified.
+     */
+    public boolean reclassify(
+            String srid,
+            boolean valid)
+    {
+        Integer slot = index.get(srid);
+        return slot != null && move(slot, valid ? VALID : BOT);
+    }
+
+    /**
+     * Removes the response if it is currently classified as valid (or as a bot, if valid is false).
+     */
+    public boolean remove(
+            String srid,
+            boolean valid)
+    {
+        Integer slot = index.get(srid);
+        if (slot == null)
+            return false;
+        AtomicIntegerArray states = segment(slot).states;
+        int from = valid ? VALID : BOT;
+        if (states.compareAndSet(slot % SEGMENT_SIZE, from, REMOVED)) {
+            counter(from).decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(
+            String srid)
+    {
+        Integer slot = index.get(srid);
+        return slot != null && segment(slot).states.get(slot % SEGMENT_SIZE) != REMOVED;
+    }
+
+    public boolean isValid(
+            String srid)
+    {
+        Integer slot = index.get(srid);
+        return slot != null && segment(slot).states.get(slot % SEGMENT_SIZE) == VALID;
+    }
+
+    public int getNumValid()
+    {
+        return numValid.get();
+    }
+
+    public int getNumBots()
+    {
+        return numBots.get();
+    }
+
+    public int size()
+    {
+        return numValid.get() + numBots.get();
+    }
+
+    /**
+     * Every response, valid or not, in the order they were added.
+     */
+    public Iterable<SurveyResponse> all()
+    {
+        return view(VALID | BOT);
+    }
+
+    public Iterable<SurveyResponse> valid()
+    {
+        return view(VALID);
+    }
+
+    public Iterable<SurveyResponse> bots()
+    {
+        return view(BOT);
+    }
+
+    private Iterable<SurveyResponse> view(
+            final int mask)
+    {
+        return new Iterable<SurveyResponse>() {
+            @Override
+            public Iterator<SurveyResponse> iterator() {
+                return new SnapshotIterator(mask);
+            }
+        };
+    }
+
+    private class SnapshotIterator implements Iterator<SurveyResponse> {
+        private final Segment[] segments = ResponseStore.this.segments;
+        private final int end;
+        private final int mask;
+        private int slot = 0;
+        private SurveyResponse next;
+
+        SnapshotIterator(int mask) {
+            // segments may have grown after we read it; stay within the ones we have
+            this.end = Math.min(published, this.segments.length * SEGMENT_SIZE);
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slot < end) {
+                Segment segment = segments[slot / SEGMENT_SIZE];
+                int state = segment.states.get(slot % SEGMENT_SIZE);
+                if (state != EMPTY && state != REMOVED && (state & mask) != 0)
+                    next = segment.responses[slot % SEGMENT_SIZE];
+                slot++;
+            }
+            return next != null;
+        }
+
+        @Override
+        public SurveyResponse next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            SurveyResponse sr = next;
+            next = null;
+            return sr;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
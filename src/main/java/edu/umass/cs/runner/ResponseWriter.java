@@ -46,6 +46,10 @@ public class ResponseWriter {
         return s.toString();
     }
 
+    /**
+     * Formats one question's rows with String.format. Kept as the reference implementation that
+     * {@link ResponseRowEncoder} is checked and benchmarked against.
+     */
     private static String outputQuestionResponse(
             Survey survey,
             IQuestionResponse qr,
@@ -80,7 +84,7 @@ public class ResponseWriter {
                 toWrite.append(String.format("%s%%%d$s", sep, i+1));
             retval.append(String.format(toWrite.toString()
                     , sr.getSrid()
-                    , sr.getSrid()
+                    , sr.getWorkerId()
                     , survey.sid
                     , qr.getQuestion().id
                     , qtext.toString()
@@ -125,6 +129,15 @@ public class ResponseWriter {
             Survey survey,
             SurveyResponse sr)
     {
+        StringBuilder retval = new StringBuilder();
+        ResponseRowEncoder.forSurvey(survey).encode(sr, retval);
+        return retval.toString();
+    }
+
+    public static String outputSurveyResponseWithFormat(
+            Survey survey,
+            SurveyResponse sr)
+    {
 
         StringBuilder retval = new StringBuilder();
 
@@ -142,8 +155,9 @@ public class ResponseWriter {
 
         StringBuilder retval = new StringBuilder();
 
+        ResponseRowEncoder encoder = ResponseRowEncoder.forSurvey(survey);
         for (SurveyResponse sr : surveyResponses)
-            retval.append(outputSurveyResponse(survey, sr));
+            encoder.encode(sr, retval);
 
         return retval.toString();
 
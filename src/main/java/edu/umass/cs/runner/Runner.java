@@ -2,10 +2,7 @@ package edu.umass.cs.runner;
 
 import clojure.java.api.Clojure;
 import clojure.lang.IFn;
-import com.amazonaws.mturk.service.exception.AccessKeyException;
-import com.amazonaws.mturk.service.exception.InsufficientFundsException;
 import edu.umass.cs.runner.system.BoxedBool;
-import edu.umass.cs.runner.system.SurveyResponse;
 import edu.umass.cs.runner.system.backend.*;
 import edu.umass.cs.runner.system.Parameters;
 import edu.umass.cs.runner.system.backend.known.localhost.LocalLibrary;
@@ -16,6 +13,8 @@ import edu.umass.cs.runner.system.backend.known.localhost.server.WebServerExcept
 import edu.umass.cs.runner.system.backend.known.mturk.MturkLibrary;
 import edu.umass.cs.runner.system.backend.known.mturk.MturkResponseManager;
 import edu.umass.cs.runner.system.backend.known.mturk.MturkSurveyPoster;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.scheduling.PollScheduler;
 import edu.umass.cs.runner.utils.ArgReader;
 import edu.umass.cs.runner.utils.Slurpie;
 import edu.umass.cs.surveyman.SurveyMan;
@@ -46,7 +45,6 @@ import java.util.*;
 public class Runner {
 
     public static final Logger LOGGER = LogManager.getLogger(Runner.class.getName());
-    private static long timeSinceLastNotice = System.currentTimeMillis();
     private static KnownBackendType backendType;
     private static AbstractResponseManager responseManager;
     private static ISurveyPoster surveyPoster;
@@ -55,11 +53,16 @@ public class Runner {
     public static final double basePay = 7.25;
     public static double alpha = 0.05;
     private static boolean smoothing = false;
+    public static final int DEFAULT_POLL_INTERVAL = 2000;
+    private static volatile PollScheduler pollScheduler;
+    private static String config = "";
+    private static SurveyScheduler scheduler;
 
     private static ArgumentParser makeArgParser() {
         // move more of the setup into this method
         ArgumentParser argumentParser = ArgumentParsers.newArgumentParser(Runner.class.getName(),true,"-").description("Posts surveys");
-        argumentParser.addArgument("survey").required(true);
+        argumentParser.addArgument("survey").nargs("+").required(true)
+                .help("One or more surveys, run side by side with the same backend and properties.");
         for (Map.Entry<String, String> entry : ArgReader.getMandatoryAndDefault(Runner.class).entrySet()) {
             String arg = entry.getKey();
             Argument a = argumentParser.addArgument("--" + arg)
@@ -90,11 +93,14 @@ public class Runner {
             throws IOException {
         // if it's an unrecognized backend type, it will fail earlier
         backendType = KnownBackendType.valueOf(bt);
+        Runner.config = config;
+        if (responseManager != null)
+            responseManager.close();
         switch (backendType) {
             case LOCALHOST:
-                responseManager = new LocalResponseManager();
-                surveyPoster = new LocalSurveyPoster();
                 library = new LocalLibrary(properties);
+                responseManager = new LocalResponseManager((LocalLibrary) library);
+                surveyPoster = new LocalSurveyPoster();
                 break;
             case MTURK:
                 library = new MturkLibrary(properties, config);
@@ -116,242 +122,62 @@ public class Runner {
         init(bt.name());
     }
 
-    private static int recordAllTasksForSurvey(
-            Survey survey)
-            throws IOException,
-            SurveyException {
-
-        Record record = AbstractResponseManager.getRecord(survey);
-        String hiturl = "", msg;
-        int responsesAdded = 0;
-
-        for (ITask hit : record.getAllTasks()) {
-            hiturl = surveyPoster.makeTaskURL(responseManager, hit);
-            responsesAdded = responseManager.addResponses(survey, hit);
-            if (responsesAdded > 0)
-                LOGGER.debug(String.format("Added %d responses", responsesAdded));
-        }
-
-        msg = String.format("Polling for responses for Tasks at %s (%d total; %d valid)"
-                , hiturl
-                , record.getNumValidResponses()+record.getNumBotResponses()
-                , record.getNumValidResponses());
-
-        if (System.currentTimeMillis() - timeSinceLastNotice > 1000000) {
-            System.out.println(msg);
-            LOGGER.info(msg);
-            timeSinceLastNotice = System.currentTimeMillis();
-        }
-
-        return responsesAdded;
+    /**
+     * The poll scheduler of the survey started most recently, for reporting its rate and interval.
+     */
+    public static PollScheduler getPollScheduler() {
+        return pollScheduler;
     }
 
-    private static Thread makeResponseGetter(final Survey survey) {
-        // grab responses for each incomplete survey in the responsemanager
-        final KnownBackendType backendType = Runner.backendType;
-        return new Thread(){
-            @Override
-            public void run(){
-                System.out.println(String.format("Checking for responses in %s", backendType));
-                do {
-                    try {
-                        recordAllTasksForSurvey(survey);
-                    } catch (IOException | SurveyException e) {
-                        e.printStackTrace();
-                    }
-                } while(!interrupt.getInterrupt());
-                // if we're out of the loop, expire and process the remaining HITs
-                try {
-                    Record record = AbstractResponseManager.getRecord(survey);
-                    ITask[] tasks = record.getAllTasks();
-                    System.out.println("\n\tCleaning up...\n");
-                    for (ITask task : tasks){
-                        boolean expiredAndAdded = false;
-                        while (! expiredAndAdded) {
-                            try {
-                                responseManager.makeTaskUnavailable(task);
-                                responseManager.addResponses(survey, task);
-                                expiredAndAdded = true;
-                            } catch (Exception e) {
-                                System.err.println("something in the response getter thread threw an error.");
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                    AbstractResponseManager.removeRecord(record);
-                    } catch (IOException | SurveyException e) {
-                        e.printStackTrace();
-                    }
-            }
-        };
+    /**
+     * The scheduler shared by every survey run in this JVM, created on first use.
+     */
+    public static synchronized SurveyScheduler getScheduler() {
+        if (scheduler == null)
+            scheduler = new SurveyScheduler(library);
+        return scheduler;
     }
 
-    private static boolean stillLive(
-            Survey survey)
-            throws IOException,
-            SurveyException,
-            ClassNotFoundException,
-            IllegalAccessException,
-            InstantiationException
-    {
-        Record record = AbstractResponseManager.getRecord(survey);
-        assert record.getNumBotResponses() + record.getNumValidResponses() == record.getAllResponses().size();
-        return record.getNumValidResponses() < Integer.parseInt(
-                record.library.props.getProperty(Parameters.NUM_PARTICIPANTS));
-    }
-
-    private static void writeResponses(
-            Survey survey,
-            Record record) {
-        assert record.getAllResponses().size() > 0 :
-                "Should not be calling Runner.writeResponses if we have not recieved any responses. ";
-        for (SurveyResponse sr : record.getAllResponses()) {
-            assert sr.resultsAsMap().size() > 0 : String.format(
-                    "Respondent %s should have answered at least 1 question.",
-                    sr.getSrid());
-            if (!sr.isRecorded()) {
-                PrintWriter bw = null;
-                LOGGER.info("Writing " + sr.getSrid() + "...");
-                try {
-                    LOGGER.info(record.outputFileName);
-                    File f = new File(record.outputFileName);
-                    bw = new PrintWriter(new FileWriter(f, true));
-                    if (! f.exists() || f.length()==0)
-                        bw.print(ResponseWriter.outputHeaders(survey, record.library.getBackendHeaders()));
-                    String txt = ResponseWriter.outputSurveyResponse(survey, sr);
-                    LOGGER.info(txt);
-                    bw.print(txt);
-                    bw.flush();
-                    bw.close();
-                    sr.setRecorded(true);
-                } catch (IOException ex) {
-                    LOGGER.info(ex.getMessage());
-                    LOGGER.warn(ex);
-                } finally {
-                    try {
-                        if (bw != null) bw.close();
-                    } catch (Exception ex) {
-                        LOGGER.warn(ex);
-                    }
-                }
-            }
-        }
-    }
-
-    private static Thread makeWriter(final Survey survey) {
-        //writes hits that correspond to current jobs in memory to their files
-        return new Thread(){
-            @Override
-            public void run(){
-                Record record = null;
-                int numTimesCalled = 0;
-                do try {
-                    record = AbstractResponseManager.getRecord(survey);
-                    //LOGGER.debug("Record identity:\t"+System.identityHashCode(record));
-                    synchronized (record) {
-                        if (record.needsWrite()) {
-                            writeResponses(survey, record);
-                        }
-                    }
-                } catch (IOException | SurveyException e) {
-                    e.printStackTrace();
-                } catch (NullPointerException npe) {
-                    LOGGER.warn(npe);
-                } while (!interrupt.getInterrupt());
-                    // clean up
-                System.out.print("Writing straggling data...");
-                if (record!=null)
-                    writeResponses(survey, record);
-                System.out.println("done.");
-            }
-        };
-    }
-
-    public static void run(
-            final Record record)
-            throws InterruptedException,
-            ClassNotFoundException,
-            InstantiationException,
-            IllegalAccessException,
-            IOException,
-            AccessKeyException {
-        try {
-            Survey survey = record.survey;
-            int numTimesCalled = 0;
-            do {
-                // Log every 5 times this thing is called:
-                if (numTimesCalled % 5 == 0) {
-                    LOGGER.info(String.format("Runner Thread called %d times.", numTimesCalled));
-                    numTimesCalled++;
-                }
-                if (!interrupt.getInterrupt()) {
-                    surveyPoster.postSurvey(responseManager, record);
-                }
-            } while (stillLive(survey));
-            Object foo = new Object(){};
-            interrupt.setInterrupt(true, String.format("Target goal met in %s.%s"
-                    , foo.getClass().getEnclosingClass().getName()
-                    , foo.getClass().getEnclosingMethod().getName()));
-
-        } catch (SurveyException e) {
-
-            String msg = "Fatal error: " + e.getMessage() + "\nExiting...";
-            System.err.println(msg);
-            LOGGER.fatal(e);
-            interrupt.setInterrupt(true,"Error detected in edu.umass.cs.runner.Runner.run",e.getStackTrace()[1]);
-
-        } finally {
-
-            synchronized(interrupt) {
-                surveyPoster.stopSurvey(responseManager, record, interrupt);
-            }
-
+    private static ISurveyPoster makeSurveyPoster() {
+        ISurveyPoster poster;
+        switch (backendType) {
+            case MTURK:
+                // remembers whether its survey has been posted yet, so every survey needs its own
+                poster = new MturkSurveyPoster();
+                break;
+            default:
+                poster = new LocalSurveyPoster();
         }
+        poster.init(config);
+        return poster;
     }
 
-    private static Thread makeRunner(
-            final Record record)
+    /**
+     * A context for running the survey on the backend set up by {@link #init(String, String, String)}. Every
+     * context shares that backend's library and response manager; setting {@link #interrupt} stops all of them.
+     */
+    public static SurveyRunContext newContext(
+            Survey survey,
+            AbstractClassifier classifier,
+            boolean smoothing,
+            double alpha)
     {
-        return new Thread(){
-            @Override
-            public void run() {
-                Scanner scanner = new Scanner(System.in);
-                try {
-                    Runner.run(record);
-                } catch (InsufficientFundsException ife) {
-                    System.out.println("Insufficient funds in your Mechanical Turk account. Would you like to:\n" +
-                        "[1] Add more money to your account and retry\n" +
-                        "[2] Quit\n");
-                    int i;
-                    do {
-                        System.out.println("Type number corresponding to preference: ");
-                        i = scanner.nextInt();
-                        if (i==2)
-                            System.exit(1);
-                    } while(i!=1);
-                } catch (AccessKeyException aws) {
-                    System.out.println(String.format("There is a problem with your access keys: %s; Exiting...", aws.getMessage()));
-                    System.exit(0);
-                } catch (IllegalAccessException | InterruptedException | IOException | InstantiationException | ClassNotFoundException e) {
-                    e.printStackTrace();
-                } finally {
-                    scanner.close();
-                }
-            }
-        };
+        SurveyRunContext context = new SurveyRunContext(survey, classifier, smoothing, alpha, backendType, library,
+                responseManager, makeSurveyPoster(), interrupt);
+        pollScheduler = context.pollScheduler;
+        return context;
     }
 
     private static void exit(
-            AbstractResponseManager abstractResponseManager,
-            Record record) {
-        for (ITask task : record.getAllTasks())
-            abstractResponseManager.makeTaskAvailable(task.getTaskId(), record);
+            List<SurveyRunContext> contexts) {
+        for (SurveyRunContext context : contexts)
+            for (ITask task : context.record.getAllTasks())
+                context.responseManager.makeTaskAvailable(task.getTaskId(), context.record);
         interrupt.setInterrupt(true, "User called exit.");
     }
 
     private static Thread makeREPL(
-            final AbstractResponseManager abstractResponseManager,
-            final Record record,
+            final List<SurveyRunContext> contexts,
             final org.eclipse.jetty.server.Server dashboardServer) {
         return new Thread() {
 
@@ -365,10 +191,12 @@ public class Runner {
                 int exitChoice = 1;
                 String stopDashboard = "\t[2] Stop the dashboard server.\n";
                 int stopDashboardChoice = 2;
+                String stopSurvey = "\t[3] Stop one survey; the others keep running.\n";
+                int stopSurveyChoice = 3;
                 PrintWriter printWriter = new PrintWriter(System.out);
                 String prompt = ANSI_PURPLE + "\nsurveyman> ";
                 String instructions = "While the program is running, you may execute the following actions:\n"
-                        + exit + stopDashboard;
+                        + exit + stopDashboard + (contexts.size() > 1 ? stopSurvey : "");
                 printWriter.write(prompt + instructions + ANSI_RESET);
                 printWriter.flush();
                 while (true) {
@@ -376,7 +204,7 @@ public class Runner {
                     try {
                         int choice = userAction.nextInt();
                         if (choice == exitChoice) {
-                            exit(abstractResponseManager, record);
+                            exit(contexts);
                             return;
                         } else if (choice == stopDashboardChoice) {
                             LOGGER.info("User cancelling dashboard service.");
@@ -386,6 +214,16 @@ public class Runner {
                             } catch (Exception e) {
                                 e.printStackTrace();
                             }
+                        } else if (choice == stopSurveyChoice && contexts.size() > 1) {
+                            for (int i = 0 ; i < contexts.size() ; i++)
+                                printWriter.write(String.format("\t[%d] %s%s\n", i + 1,
+                                        contexts.get(i).survey.sourceName, contexts.get(i).isDone() ? " (done)" : ""));
+                            printWriter.write(prompt + "Survey to stop: " + ANSI_RESET);
+                            printWriter.flush();
+                            int i = userAction.nextInt() - 1;
+                            if (i >= 0 && i < contexts.size())
+                                contexts.get(i).stop("User stopped survey.");
+                            else printWriter.write(prompt + String.format("%d not a recognized survey.", i + 1) + ANSI_RESET);
                         } else {
                             printWriter.write(prompt + String.format("%d not a recognized option.", choice) + ANSI_RESET);
                         }
@@ -397,17 +235,15 @@ public class Runner {
         };
     }
 
-    private static void runAll(
+    private static Survey parseSurvey(
             String s,
             String sep,
-            Namespace ns)
+            boolean breakoff)
             throws InvocationTargetException,
                    IllegalAccessException,
                    NoSuchMethodException,
                    IOException,
-                   InterruptedException, SurveyException {
-        boolean breakoff = Boolean.valueOf((String) ns.get("breakoff"));
-        boolean runDashboardp = Boolean.valueOf((String) ns.get("dashboard"));
+                   SurveyException {
         AbstractParser parser;
         if (s.endsWith("csv"))
             parser = new CSVParser(new CSVLexer(s, sep));
@@ -415,20 +251,41 @@ public class Runner {
             parser = new JSONParser(Slurpie.slurp(s));
         else throw new RuntimeException("Input files must have csv or json extensions.");
         Survey survey = parser.parse();
-        AbstractClassifier classifier = SurveyMan.resolveClassifier(
-                survey,
-                ((String) ns.get("classifier")).toUpperCase(),
-                2,
-                Double.valueOf((String) ns.get("alpha")),
-                Boolean.valueOf((String) ns.get("smoothing"))
-	);
         // Kind of a hack.
         if (!breakoff)
             for (Question q : survey.questions)
                 q.permitBreakoff = false;
         AbstractRule.getDefaultRules();
         StaticAnalysis.wellFormednessChecks(survey);
-        runAll(survey, classifier, smoothing, alpha, runDashboardp);
+        return survey;
+    }
+
+    private static void runAll(
+            List<String> surveys,
+            String sep,
+            Namespace ns)
+            throws InvocationTargetException,
+                   IllegalAccessException,
+                   NoSuchMethodException,
+                   IOException,
+                   InterruptedException, SurveyException {
+        boolean breakoff = Boolean.valueOf((String) ns.get("breakoff"));
+        boolean runDashboardp = Boolean.valueOf((String) ns.get("dashboard"));
+        Runner.alpha = Double.valueOf((String) ns.get("alpha"));
+        Runner.smoothing = Boolean.valueOf((String) ns.get("smoothing"));
+        List<SurveyRunContext> contexts = new ArrayList<SurveyRunContext>();
+        for (String s : surveys) {
+            Survey survey = parseSurvey(s, sep, breakoff);
+            AbstractClassifier classifier = SurveyMan.resolveClassifier(
+                    survey,
+                    ((String) ns.get("classifier")).toUpperCase(),
+                    2,
+                    alpha,
+                    smoothing
+            );
+            contexts.add(newContext(survey, classifier, smoothing, alpha));
+        }
+        runAll(contexts, runDashboardp);
     }
 
     public static void runAll(
@@ -437,40 +294,81 @@ public class Runner {
             boolean smoothing,
             double alpha,
             boolean runDashboardp)
-            throws InvocationTargetException,
-            IllegalAccessException,
-            NoSuchMethodException,
-            IOException,
-            InterruptedException,
-            SurveyException
+            throws InterruptedException
     {
-        // create and store the record
-        final Record record = new Record(new QCMetrics(survey, classifier),  library, backendType);
-        AbstractResponseManager.putRecord(survey, record);
         Runner.alpha = alpha;
         Runner.smoothing = smoothing;
-        // now we're ready to go
-        Thread writer = makeWriter(survey);
-        Thread responder = makeResponseGetter(survey);
-        Thread runner = makeRunner(record);
-        Thread repl = makeREPL(responseManager, record, runDashboardp ? runDashboard(record) : null);
-        runner.start();
-        writer.start();
-        responder.start();
+        runAll(Collections.singletonList(newContext(survey, classifier, smoothing, alpha)), runDashboardp);
+    }
+
+    /**
+     * Runs the surveys side by side on the shared {@link SurveyScheduler} and waits for all of them to finish. The
+     * dashboard, if requested, follows the first survey.
+     */
+    public static void runAll(
+            List<SurveyRunContext> contexts,
+            boolean runDashboardp)
+            throws InterruptedException
+    {
+        if (contexts.isEmpty())
+            return;
+        SurveyScheduler scheduler = getScheduler();
+        Thread repl = makeREPL(contexts, runDashboardp ? runDashboard(contexts.get(0).record) : null);
+        for (SurveyRunContext context : contexts)
+            scheduler.submit(context);
         repl.start();
         StringBuilder msg = new StringBuilder(String.format("Target number of valid responses: %s\nTo take the survey, navigate to:"
-                , record.library.props.get(Parameters.NUM_PARTICIPANTS)));
-        while (record.getAllTasks().length==0) {}
-        for (ITask task : record.getAllTasks())
-            msg.append("\n\t" + surveyPoster.makeTaskURL(responseManager, task));
+                , contexts.get(0).library.props.get(Parameters.NUM_PARTICIPANTS)));
+        for (SurveyRunContext context : contexts) {
+            while (context.record.getAllTasks().length == 0 && !context.isStopped())
+                answerFundsRequest(scheduler, SurveyScheduler.STOP_CHECK_MILLIS);
+            for (ITask task : context.record.getAllTasks())
+                msg.append("\n\t" + context.surveyPoster.makeTaskURL(context.responseManager, task));
+        }
         LOGGER.info(msg.toString());
         System.out.println(msg.toString());
-        runner.join();
-        responder.join();
-        writer.join();
+        for (SurveyRunContext context : contexts)
+            while (!context.isDone())
+                answerFundsRequest(scheduler, SurveyScheduler.STOP_CHECK_MILLIS);
+        System.out.println("Wrote straggling data; done.");
         repl.join();
     }
 
+    /**
+     * Waits up to millis milliseconds for a survey that ran out of funds, and asks the user whether to retry posting
+     * it or stop it. Only that survey's posting waits on the answer.
+     */
+    private static void answerFundsRequest(
+            SurveyScheduler scheduler,
+            long millis)
+            throws InterruptedException
+    {
+        SurveyRunContext context = scheduler.awaitFundsRequest(millis);
+        if (context == null)
+            return;
+        Scanner scanner = new Scanner(System.in);
+        System.out.println(String.format("Insufficient funds in your Mechanical Turk account to post %s. Would you like to:\n" +
+                "[1] Add more money to your account and retry\n" +
+                "[2] Stop this survey\n", context.survey.sourceName));
+        int i;
+        try {
+            do {
+                System.out.println("Type number corresponding to preference: ");
+                if (scanner.hasNextInt())
+                    i = scanner.nextInt();
+                else {
+                    scanner.next();
+                    i = 0;
+                }
+            } while (i != 1 && i != 2);
+        } catch (NoSuchElementException nse) {
+            i = 2;
+        }
+        if (i == 1)
+            scheduler.resumePosting(context);
+        else context.stop("Insufficient funds");
+    }
+
     public static org.eclipse.jetty.server.Server runDashboard(
             Record record)
     {
@@ -502,9 +400,10 @@ public class Runner {
             ns = argumentParser.parseArgs(args);
 
             init(ns.getString("backend"), ns.getString("properties"), ns.getString("config"));
+            Metrics.registerMBean();
 
             if (backendType.equals(KnownBackendType.LOCALHOST))
-                Server.startServe();
+                Server.startServe(library, ((LocalResponseManager) responseManager).isInProcess());
 
             AbstractLibrary.dashboardDump(ns);
 
@@ -513,7 +412,7 @@ public class Runner {
             if (backendType.equals(KnownBackendType.NONE) && runDashboard)
                 runDashboard(Record.deserializeLatestRecord((String) ns.get("record")));
             else
-                runAll(ns.getString("survey"), ns.getString("separator"), ns);
+                runAll(ns.<String>getList("survey"), ns.getString("separator"), ns);
 
             if (backendType.equals(KnownBackendType.LOCALHOST))
                 Server.endServe();
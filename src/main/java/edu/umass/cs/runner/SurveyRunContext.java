@@ -0,0 +1,222 @@
+package edu.umass.cs.runner;
+
+import edu.umass.cs.runner.system.BoxedBool;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
+import edu.umass.cs.runner.system.backend.ISurveyPoster;
+import edu.umass.cs.runner.system.backend.ITask;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.exceptions.PipelineFailedException;
+import edu.umass.cs.runner.system.pipeline.ResponsePipeline;
+import edu.umass.cs.runner.system.scheduling.Backoff;
+import edu.umass.cs.runner.system.scheduling.PollScheduler;
+import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.classifiers.AbstractClassifier;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of one running survey: its {@link Record} and {@link ResponsePipeline}, the backend it was posted to,
+ * its poll scheduler and its own interrupt. Surveys running in the same JVM share the backend's library, response
+ * manager and server, but each has a context of its own, so stopping one survey does not stop the others. A context
+ * may also be given a parent interrupt (e.g. {@link Runner#interrupt}) that stops every survey created under it.
+ *
+ * A context does no work on its own; a {@link SurveyScheduler} drives it.
+ */
+public class SurveyRunContext {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    private static final long NOTICE_MILLIS = 1000000;
+    private static final int CLEANUP_ATTEMPTS = 5;
+
+    public final Survey survey;
+    public final Record record;
+    public final KnownBackendType backendType;
+    public final AbstractLibrary library;
+    public final AbstractResponseManager responseManager;
+    public final ISurveyPoster surveyPoster;
+    public final ResponsePipeline pipeline;
+    public final PollScheduler pollScheduler;
+    public final double alpha;
+    public final boolean smoothing;
+    public final BoxedBool interrupt = new BoxedBool();
+    private final BoxedBool parent;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private long lastNotice = System.currentTimeMillis();
+    private boolean finished = false;
+
+    public SurveyRunContext(
+            Survey survey,
+            AbstractClassifier classifier,
+            boolean smoothing,
+            double alpha,
+            KnownBackendType backendType,
+            AbstractLibrary library,
+            AbstractResponseManager responseManager,
+            ISurveyPoster surveyPoster,
+            BoxedBool parent)
+    {
+        this.survey = survey;
+        this.smoothing = smoothing;
+        this.alpha = alpha;
+        this.backendType = backendType;
+        this.library = library;
+        this.responseManager = responseManager;
+        this.surveyPoster = surveyPoster;
+        this.parent = parent;
+        this.record = new Record(new QCMetrics(survey, classifier), library, backendType);
+        AbstractResponseManager.putRecord(survey, record);
+        this.pipeline = new ResponsePipeline(record);
+        AbstractResponseManager.putPipeline(survey, pipeline);
+        this.pollScheduler = PollScheduler.forBackend(backendType, library);
+    }
+
+    /**
+     * Stops this survey only. Its tasks are expired and its remaining responses collected before it finishes.
+     */
+    public void stop(
+            String reason)
+    {
+        if (!interrupt.getInterrupt())
+            interrupt.setInterrupt(true, String.format("%s (%s)", reason, survey.sourceName));
+    }
+
+    public boolean isStopped()
+    {
+        if (parent != null && parent.getInterrupt() && !interrupt.getInterrupt())
+            interrupt.setInterrupt(true, String.format("Parent interrupt set (%s)", survey.sourceName));
+        if (pipeline.hasFailed() && !interrupt.getInterrupt())
+            interrupt.setInterrupt(true, String.format("Response pipeline failed (%s)", survey.sourceName));
+        return interrupt.getInterrupt();
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Blocks until the survey has stopped and its pipeline has drained.
+     */
+    public void awaitDone()
+            throws InterruptedException
+    {
+        done.await();
+    }
+
+    /**
+     * @return false if the survey was still running after millis milliseconds.
+     */
+    public boolean awaitDone(
+            long millis)
+            throws InterruptedException
+    {
+        return done.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean stillLive()
+    {
+        return record.getNumValidResponses() < Integer.parseInt(
+                library.props.getProperty(Parameters.NUM_PARTICIPANTS));
+    }
+
+    long getPostInterval()
+    {
+        return library.getIntProperty(Parameters.POLL_INTERVAL, Runner.DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Posts the survey, or extends it if it has already been posted. Does nothing once the survey has been taken
+     * down.
+     */
+    synchronized void post()
+            throws SurveyException
+    {
+        if (!finished)
+            surveyPoster.postSurvey(responseManager, record);
+    }
+
+    /**
+     * One round of collecting responses for every task posted so far.
+     * @return the number of responses added.
+     */
+    int poll()
+            throws SurveyException
+    {
+        ITask[] tasks = record.getAllTasks();
+        int responsesAdded = responseManager.addResponses(survey, tasks);
+        if (responsesAdded > 0)
+            LOGGER.debug(String.format("Added %d responses for %s", responsesAdded, survey.sourceName));
+        if (System.currentTimeMillis() - lastNotice > NOTICE_MILLIS) {
+            String msg = String.format("Polling for responses for %s (%d total; %d valid)"
+                    , survey.sourceName
+                    , record.getNumValidResponses() + record.getNumBotResponses()
+                    , record.getNumValidResponses());
+            System.out.println(msg);
+            LOGGER.info(msg);
+            lastNotice = System.currentTimeMillis();
+        }
+        return responsesAdded;
+    }
+
+    /**
+     * Takes the survey down: expires its tasks, collects what arrived in the meantime, and closes the pipeline.
+     */
+    synchronized void finish()
+    {
+        if (finished)
+            return;
+        finished = true;
+        try {
+            synchronized (interrupt) {
+                surveyPoster.stopSurvey(responseManager, record, interrupt);
+            }
+            for (ITask task : record.getAllTasks()) {
+                Backoff backoff = new Backoff(500, 8000);
+                for (int attempt = 0 ; attempt < CLEANUP_ATTEMPTS ; attempt++) {
+                    try {
+                        responseManager.makeTaskUnavailable(task);
+                        responseManager.addResponses(survey, task);
+                        break;
+                    } catch (PipelineFailedException e) {
+                        // retrying can't help; the responses have nowhere to go
+                        LOGGER.warn(e);
+                        break;
+                    } catch (Exception e) {
+                        LOGGER.warn(String.format("Cleaning up task %s for %s: %s", task.getTaskId(),
+                                survey.sourceName, e));
+                        if (!backoff.pause())
+                            break;
+                    }
+                }
+            }
+            responseManager.flush();
+        } finally {
+            AbstractResponseManager.removeRecord(record);
+            // no more responses will arrive; let the pipeline drain and exit
+            pipeline.close();
+        }
+    }
+
+    /**
+     * Waits for the pipeline to drain, then for the backend to acknowledge the responses it wrote, and marks the
+     * survey done.
+     */
+    void complete()
+            throws InterruptedException,
+            PipelineFailedException
+    {
+        try {
+            pipeline.join();
+            responseManager.flush();
+        } finally {
+            AbstractResponseManager.removePipeline(survey);
+            done.countDown();
+        }
+    }
+}
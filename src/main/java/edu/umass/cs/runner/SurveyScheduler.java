@@ -0,0 +1,221 @@
+package edu.umass.cs.runner;
+
+import com.amazonaws.mturk.service.exception.AccessKeyException;
+import com.amazonaws.mturk.service.exception.InsufficientFundsException;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.exceptions.PipelineFailedException;
+import edu.umass.cs.runner.system.scheduling.PollScheduler;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs any number of surveys on one fixed pool of threads. Each {@link SurveyRunContext} gets two recurring tasks
+ * instead of dedicated threads: one posts (or extends) the survey until it has enough valid responses, the other
+ * polls the backend at the rate its {@link PollScheduler} chooses. Between rounds a survey holds no thread, so the
+ * pool size (the surveythreads property) bounds how many backend calls are in flight, not how many surveys can run.
+ *
+ * Once a survey is stopped -- by reaching its target, by {@link SurveyRunContext#stop(String)}, or through its
+ * parent interrupt -- its poll task notices within {@link #STOP_CHECK_MILLIS}, takes it down and waits for its
+ * pipeline to drain. Other surveys keep running.
+ *
+ * A survey that runs out of funds stops posting (but keeps polling) and is queued for {@link #awaitFundsRequest(long)};
+ * whoever owns the console asks the user and calls {@link #resumePosting(SurveyRunContext)} once funds are added. Pool
+ * threads never wait on the user.
+ */
+public class SurveyScheduler {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_THREADS = 4;
+    public static final long STOP_CHECK_MILLIS = 1000;
+
+    private final ScheduledExecutorService executor;
+    private final List<SurveyRunContext> running = new CopyOnWriteArrayList<SurveyRunContext>();
+    private final BlockingQueue<SurveyRunContext> fundsRequests = new LinkedBlockingQueue<SurveyRunContext>();
+
+    public SurveyScheduler(
+            int threads)
+    {
+        final AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, String.format("survey-%d", n.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public SurveyScheduler(
+            AbstractLibrary library)
+    {
+        this(library == null ? DEFAULT_THREADS : library.getIntProperty(Parameters.SURVEY_THREADS, DEFAULT_THREADS));
+    }
+
+    /**
+     * Starts running the survey.
+     */
+    public void submit(
+            SurveyRunContext context)
+    {
+        running.add(context);
+        context.pipeline.start();
+        executor.execute(new PostTask(context));
+        executor.execute(new PollTask(context));
+    }
+
+    /**
+     * The surveys that have been submitted and are not yet done.
+     */
+    public List<SurveyRunContext> getRunning()
+    {
+        return new ArrayList<SurveyRunContext>(running);
+    }
+
+    /**
+     * Blocks until every survey submitted so far is done.
+     */
+    public void awaitAll()
+            throws InterruptedException
+    {
+        for (SurveyRunContext context : running)
+            context.awaitDone();
+    }
+
+    /**
+     * Waits up to millis milliseconds for a survey whose posting stopped for lack of funds.
+     * @return the survey, or null if none ran out of funds in that time.
+     */
+    public SurveyRunContext awaitFundsRequest(
+            long millis)
+            throws InterruptedException
+    {
+        return fundsRequests.poll(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts posting a survey again after its funds request has been answered.
+     */
+    public void resumePosting(
+            SurveyRunContext context)
+    {
+        executor.execute(new PostTask(context));
+    }
+
+    /**
+     * Stops every running survey, waits for them to finish, and releases the pool.
+     */
+    public void shutdown()
+            throws InterruptedException
+    {
+        for (SurveyRunContext context : running)
+            context.stop("Scheduler shut down");
+        awaitAll();
+        executor.shutdown();
+    }
+
+    private class PostTask implements Runnable {
+        private final SurveyRunContext context;
+
+        PostTask(SurveyRunContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (context.isStopped())
+                    return;
+                context.post();
+                if (context.stillLive()) {
+                    executor.schedule(this, context.getPostInterval(), TimeUnit.MILLISECONDS);
+                    return;
+                }
+                context.stop("Target goal met");
+            } catch (InsufficientFundsException ife) {
+                // don't reschedule; posting for this survey waits until the funds request is answered
+                LOGGER.warn(String.format("Insufficient funds to post %s", context.survey.sourceName));
+                fundsRequests.add(context);
+            } catch (AccessKeyException aws) {
+                System.out.println(String.format("There is a problem with your access keys: %s; Exiting...", aws.getMessage()));
+                System.exit(0);
+            } catch (Exception e) {
+                String msg = String.format("Fatal error posting %s: %s", context.survey.sourceName, e.getMessage());
+                System.err.println(msg);
+                LOGGER.fatal(msg, e);
+                context.stop("Error detected while posting");
+            }
+        }
+    }
+
+    private class PollTask implements Runnable {
+        private final SurveyRunContext context;
+        private final PollScheduler.Poll poll;
+        private long nextPoll = 0;
+
+        PollTask(final SurveyRunContext context) {
+            this.context = context;
+            this.poll = new PollScheduler.Poll() {
+                @Override
+                public int poll() throws Exception {
+                    return context.poll();
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (context.isStopped()) {
+                    takeDown();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    long wait = context.pollScheduler.pollOnce(poll);
+                    now = System.currentTimeMillis();
+                    nextPoll = now + wait;
+                }
+                // wake up at least every STOP_CHECK_MILLIS, so that a stopped survey is noticed
+                long delay = Math.max(1, Math.min(nextPoll - now, STOP_CHECK_MILLIS));
+                executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                context.stop("Poll interrupted");
+                takeDown();
+            } catch (RuntimeException e) {
+                LOGGER.fatal(e);
+                context.stop("Error detected while polling");
+                takeDown();
+            }
+        }
+
+        private void takeDown() {
+            try {
+                try {
+                    context.finish();
+                } finally {
+                    context.complete();
+                }
+                LOGGER.info(String.format("Survey %s done", context.survey.sourceName));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (PipelineFailedException e) {
+                LOGGER.fatal(e);
+            } finally {
+                running.remove(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.umass.cs.runner.dashboard;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live feed of a {@link Record} for the dashboard, as server-sent events. A subscriber first receives a snapshot
+ * event holding every response, then deltas: a response event for each new response, a classification event when a
+ * response moves between valid and bot, and a counts event after each change. Each delta is formatted once and
+ * shared by all subscribers, so the cost of a change does not depend on the size of the population.
+ *
+ * Every subscriber has a bounded buffer. A subscriber that falls behind has its buffer discarded and is sent a fresh
+ * snapshot instead, so a slow dashboard costs memory proportional to the buffer, not to the backlog. The number of
+ * subscribers is capped. Deltas published while a snapshot is being taken may also appear in it; clients should key
+ * responses by srid.
+ */
+public class ResponseFeed {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_MAX_SUBSCRIBERS = 16;
+    public static final int DEFAULT_BUFFER_EVENTS = 256;
+
+    public class Subscriber {
+        private final BlockingQueue<String> events = new ArrayBlockingQueue<String>(bufferEvents);
+        // guarded by this subscriber, so that deciding to resend a snapshot and discarding the buffer are one step
+        private boolean needsSnapshot = true;
+        private volatile boolean closed = false;
+
+        private synchronized void offer(
+                String event)
+        {
+            if (needsSnapshot)
+                return;
+            if (!events.offer(event)) {
+                LOGGER.debug("Dashboard subscriber fell behind; resending snapshot");
+                needsSnapshot = true;
+                events.clear();
+            }
+        }
+
+        /**
+         * The next event to send, waiting up to millis milliseconds; null if there is none yet.
+         */
+        public String next(
+                long millis)
+                throws InterruptedException,
+                SurveyException
+        {
+            boolean resend;
+            synchronized (this) {
+                resend = needsSnapshot;
+                if (resend) {
+                    needsSnapshot = false;
+                    events.clear();
+                }
+            }
+            if (resend)
+                return snapshot();
+            return events.poll(millis, TimeUnit.MILLISECONDS);
+        }
+
+        public boolean isClosed()
+        {
+            return closed;
+        }
+
+        public void close()
+        {
+            closed = true;
+            subscribers.remove(this);
+        }
+    }
+
+    private final Record record;
+    private final int maxSubscribers;
+    private final int bufferEvents;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    public ResponseFeed(
+            Record record)
+    {
+        this.record = record;
+        this.maxSubscribers = record.library == null ? DEFAULT_MAX_SUBSCRIBERS
+                : record.library.getIntProperty(Parameters.DASHBOARD_SUBSCRIBERS, DEFAULT_MAX_SUBSCRIBERS);
+        this.bufferEvents = Math.max(1, record.library == null ? DEFAULT_BUFFER_EVENTS
+                : record.library.getIntProperty(Parameters.DASHBOARD_BUFFER, DEFAULT_BUFFER_EVENTS));
+    }
+
+    /**
+     * @return a new subscriber, or null if there are already as many as allowed.
+     */
+    public synchronized Subscriber subscribe()
+    {
+        if (subscribers.size() >= maxSubscribers)
+            return null;
+        Subscriber subscriber = new Subscriber();
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public int getNumSubscribers()
+    {
+        return subscribers.size();
+    }
+
+    static String event(
+            String name,
+            String data)
+    {
+        return "event: " + name + "\ndata: " + data + "\n\n";
+    }
+
+    private String snapshot()
+            throws SurveyException
+    {
+        return event("snapshot", record.jsonizeResponses());
+    }
+
+    private String counts()
+    {
+        return event("counts", String.format("{\"valid\":%d,\"bots\":%d}",
+                record.getNumValidResponses(), record.getNumBotResponses()));
+    }
+
+    private void publish(
+            String event)
+    {
+        for (Subscriber subscriber : subscribers)
+            subscriber.offer(event);
+    }
+
+    public void responseAdded(
+            SurveyResponse sr,
+            boolean valid)
+    {
+        if (subscribers.isEmpty())
+            return;
+        String json = record.getIncrementalClassifier().jsonize(sr);
+        publish(event("response", String.format("{\"valid\":%b,\"response\":%s}", valid, json)));
+        publish(counts());
+    }
+
+    public void classificationChanged(
+            String srid,
+            boolean valid)
+    {
+        if (subscribers.isEmpty())
+            return;
+        publish(event("classification", String.format("{\"srid\":\"%s\",\"valid\":%b}", srid, valid)));
+        publish(counts());
+    }
+}
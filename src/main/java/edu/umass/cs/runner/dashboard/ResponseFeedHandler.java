@@ -0,0 +1,75 @@
+package edu.umass.cs.runner.dashboard;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a {@link Record}'s {@link ResponseFeed} as a text/event-stream at {@link #PATH} on the dashboard's Jetty
+ * server. Other requests fall through to the next handler. Each connection holds one server thread for as long as the
+ * client stays connected, which the feed's subscriber cap bounds; a comment line is sent when there has been nothing
+ * to say for a while, so that dead connections are noticed.
+ */
+public class ResponseFeedHandler extends AbstractHandler {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final String PATH = "/response_stream";
+    public static final long KEEPALIVE_MILLIS = 15000;
+
+    private final Record record;
+
+    public ResponseFeedHandler(
+            Record record)
+    {
+        this.record = record;
+    }
+
+    @Override
+    public void handle(
+            String target,
+            Request baseRequest,
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws IOException,
+            ServletException
+    {
+        if (!PATH.equals(target))
+            return;
+        baseRequest.setHandled(true);
+        ResponseFeed.Subscriber subscriber = record.getResponseFeed().subscribe();
+        if (subscriber == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many dashboard subscribers");
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        OutputStream out = response.getOutputStream();
+        try {
+            while (!subscriber.isClosed()) {
+                String event = subscriber.next(KEEPALIVE_MILLIS);
+                out.write((event == null ? ": keepalive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException io) {
+            LOGGER.debug(String.format("Dashboard subscriber disconnected: %s", io.getMessage()));
+        } catch (SurveyException se) {
+            LOGGER.warn(se);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriber.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.umass.cs.runner.system;
+
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Streaming parser for MTurk QuestionFormAnswers documents. Each thread keeps its own XMLInputFactory, and a document
+ * is read in a single forward pass over its {@code <Answer>} elements, without building a tree.
+ */
+public class AnswerParser {
+
+    private static final String ANSWER = "Answer";
+    private static final String QUESTION_IDENTIFIER = "QuestionIdentifier";
+    private static final String FREE_TEXT = "FreeText";
+    private static final Histogram parseLatency = Metrics.histogram("answers.parse.nanos");
+
+    private static final ThreadLocal<XMLInputFactory> factories = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            return factory;
+        }
+    };
+
+    public static ArrayList<IQuestionResponse> parse(
+            Survey s,
+            String ansXML,
+            Map<String, String> otherValues)
+            throws SurveyException, SAXException
+    {
+        long start = System.nanoTime();
+        ArrayList<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
+        XMLStreamReader reader = null;
+        try {
+            reader = factories.get().createXMLStreamReader(new StringReader(ansXML));
+            String quid = null;
+            String opts = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = reader.getLocalName();
+                        if (name.equals(ANSWER)) {
+                            quid = null;
+                            opts = null;
+                        } else if (name.equals(QUESTION_IDENTIFIER) && quid == null) {
+                            quid = reader.getElementText();
+                        } else if (name.equals(FREE_TEXT) && opts == null) {
+                            opts = reader.getElementText();
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (reader.getLocalName().equals(ANSWER))
+                            SurveyResponse.addAnswer(s, quid, opts, otherValues, retval);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException xse) {
+            throw new SAXException(xse);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException xse) {
+                    SurveyResponse.LOGGER.warn(xse);
+                }
+            }
+        }
+        parseLatency.recordSince(start);
+        return retval;
+    }
+}
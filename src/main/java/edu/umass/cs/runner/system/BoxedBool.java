@@ -2,17 +2,23 @@ package edu.umass.cs.runner.system;
 
 import edu.umass.cs.runner.Runner;
 
+/**
+ * Shutdown signal shared by the threads running a survey. Threads that would otherwise sleep or spin between
+ * units of work should block in {@link #awaitInterrupt(long)}, so that setting the interrupt wakes them
+ * immediately.
+ */
 public class BoxedBool {
-    private boolean interrupt;
+    private volatile boolean interrupt;
     public BoxedBool(){
         this.interrupt = false;
     }
-    public void setInterrupt(boolean bool, String reason, StackTraceElement caller){
+    public synchronized void setInterrupt(boolean bool, String reason, StackTraceElement caller){
         String source = "";
         if (caller!=null)
             source = caller.getMethodName();
         Runner.LOGGER.info(String.format("Interrupt in %s: %s", source, reason));
         this.interrupt = bool;
+        this.notifyAll();
     }
     public void setInterrupt(boolean bool, String reason) {
         setInterrupt(bool, reason, null);
@@ -20,4 +26,18 @@ public class BoxedBool {
     public boolean getInterrupt(){
         return interrupt;
     }
+
+    /**
+     * Blocks until the interrupt has been set or until millis milliseconds have elapsed.
+     * @return the state of the interrupt when this method returns.
+     */
+    public synchronized boolean awaitInterrupt(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!interrupt && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return interrupt;
+    }
 }
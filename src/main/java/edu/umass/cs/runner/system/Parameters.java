@@ -12,4 +12,22 @@ public class Parameters {
     public static final String SPLASH_PAGE = "splashpage";
     public static final String DESCRIPTION = "description";
     public static final String BREAKOFF_MESSAGE = "breakoffmsg";
+    public static final String PIPELINE_CAPACITY = "pipelinecapacity";
+    public static final String POLL_INTERVAL = "pollinterval";
+    public static final String JOURNAL_SYNC_RECORDS = "journalsyncrecords";
+    public static final String JOURNAL_SYNC_MILLIS = "journalsyncmillis";
+    public static final String CHECKPOINT_COMPACT_THRESHOLD = "checkpointcompactthreshold";
+    public static final String MTURK_WORKERS = "mturkworkers";
+    public static final String APPROVAL_RETRIES = "approvalretries";
+    public static final String POLL_INTERVAL_MAX = "pollintervalmax";
+    public static final String RATE_LIMIT = "ratelimit";
+    public static final String LOCAL_IN_PROCESS = "localinprocess";
+    public static final String COLUMNAR_EXPORT = "columnarexport";
+    public static final String BONUS_CONCURRENCY = "bonusconcurrency";
+    public static final String RECLASSIFY_DRIFT = "reclassifydrift";
+    public static final String DASHBOARD_SUBSCRIBERS = "dashboardsubscribers";
+    public static final String DASHBOARD_BUFFER = "dashboardbuffer";
+    public static final String LOCAL_MAX_THREADS = "localmaxthreads";
+    public static final String SURVEY_THREADS = "surveythreads";
+    public static final String VIRTUAL_THREADS = "virtualthreads";
 }
@@ -111,6 +111,17 @@ public class QuestionResponse implements IQuestionResponse {
         return String.format(" (%s) %s : [ %s ]", q.id, q.toString(), s.toString());
     }
 
+    /**
+     * Whether c is one of q's own options, as opposed to a custom or free-text answer (which is not in q's option
+     * map, or only shares an id with an entry there).
+     */
+    public static boolean isSurveyOption(
+            Question q,
+            SurveyDatum c)
+    {
+        return q != null && q.options != null && q.options.get(c.getId()) == c;
+    }
+
     public Question getQuestion() {
         return this.q;
     }
@@ -19,10 +19,6 @@ import edu.umass.cs.surveyman.utils.Gensym;
 import org.apache.log4j.Logger;
 import org.dom4j.DocumentException;
 import org.json.JSONObject;
-import org.supercsv.cellprocessor.ift.CellProcessor;
-import org.supercsv.io.CsvMapReader;
-import org.supercsv.io.ICsvMapReader;
-import org.supercsv.prefs.CsvPreference;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -37,11 +33,15 @@ import javax.xml.parsers.ParserConfigurationException;
 
 public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyResponse implements ISurveyResponseReader {
 
+    // unchanged since record snapshots were written by Java serialization, so that those can still be read
+    private static final long serialVersionUID = 2955416113408000347L;
     public static final Logger LOGGER = Logger.getLogger("survey");
     public static final Gensym gensym = new Gensym("sr");
     public static final String dateFormat = "EEE, d MMM yyyy HH:mm:ss Z";
 
     protected String srid = gensym.next();
+    // the respondent; the srid identifies the response, and one worker may submit several
+    protected String workerId = srid;
     public Record record;
 
     /** otherValues is a map of the key value pairs that are not necessary for quality control,
@@ -54,6 +54,21 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
     public SurveyResponse(Survey survey, String wID){
         super(survey);
         this.srid = wID;
+        this.workerId = wID;
+    }
+
+    /**
+     * A response read back from a results file, which records both the worker id and the response id.
+     */
+    static SurveyResponse fromResults(
+            Survey survey,
+            String workerId,
+            String srid)
+    {
+        SurveyResponse sr = new SurveyResponse(survey, srid == null ? workerId : srid);
+        if (workerId != null)
+            sr.setWorkerId(workerId);
+        return sr;
     }
 
     public SurveyResponse(edu.umass.cs.surveyman.analyses.SurveyResponse surveyResponse) {
@@ -66,6 +81,28 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
         return this.srid;
     }
 
+    public String getWorkerId()
+    {
+        return this.workerId;
+    }
+
+    private void readObject(
+            ObjectInputStream in)
+            throws IOException,
+            ClassNotFoundException
+    {
+        in.defaultReadObject();
+        // responses serialized before worker ids were kept apart used the worker id as the srid
+        if (this.workerId == null)
+            this.workerId = this.srid;
+    }
+
+    public void setWorkerId(
+            String workerId)
+    {
+        this.workerId = workerId;
+    }
+
     public SurveyResponse (Survey s, String workerId, String xmlAns, Record record, Map<String, String> ov)
             throws SurveyException, DocumentException, IOException, SAXException, ParserConfigurationException {
         this(s, workerId);
@@ -98,30 +135,17 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
 
     public List<SurveyResponse> readSurveyResponses(Survey s, String filename) throws SurveyException {
 
-        List<SurveyResponse> responses = null;
-
-        if (new File(filename).isFile()) {
-
-            try {
-                responses = readSurveyResponses(s, new FileReader(filename));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        } else if (new File(filename).isDirectory()) {
-
-            responses = new ArrayList<SurveyResponse>();
-
-            for (File f : new File(filename).listFiles()) {
-                try {
-                    responses.addAll(readSurveyResponses(s, new FileReader(f)));
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
-            }
-
-        } else throw new RuntimeException("Unknown file or directory: "+filename);
-
-        return responses;
+        File file = new File(filename);
+        try {
+            if (file.isFile())
+                return SurveyResponseReader.readAll(s, file);
+            else if (file.isDirectory())
+                return SurveyResponseReader.readDirectory(s, file, Runtime.getRuntime().availableProcessors());
+        } catch (IOException io) {
+            io.printStackTrace();
+            return null;
+        }
+        throw new RuntimeException("Unknown file or directory: "+filename);
     }
 
     public List<SurveyResponse> readSurveyResponses(
@@ -129,43 +153,16 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
             Reader r)
             throws SurveyException
     {
-
-        List<SurveyResponse> responses = new LinkedList<SurveyResponse>();
-
-        final CellProcessor[] cellProcessors = s.makeProcessorsForResponse();
-
-        try{
-            ICsvMapReader reader = new CsvMapReader(r, CsvPreference.STANDARD_PREFERENCE);
-            final String[] header = reader.getHeader(true);
-            Map<String, Object> headerMap;
-            SurveyResponse sr = null;
-            while ((headerMap = reader.read(header, cellProcessors)) != null) {
-                // loop through one survey response (i.e. per responseid) at a time
-                if ( sr == null || !sr.getSrid().equals(headerMap.get("responseid"))){
-                    if (sr!=null)
-                        // add this to the list of responses and create a new one
-                        responses.add(sr);
-                    sr = new SurveyResponse(s, (String) headerMap.get("workerid"));
-                    sr.setSrid((String) headerMap.get("responseid"));
-
-                }
-                // fill out the individual question responses
-                IQuestionResponse questionResponse = new QuestionResponse(s, (String) headerMap.get("questionid"), (Integer) headerMap.get("questionpos"));
-                for (IQuestionResponse qr : sr.getAllResponses())
-                    if (qr.getQuestion().id.equals(headerMap.get("questionid"))) {
-                        // if we already have a QuestionResponse object matching this id, set it
-                        questionResponse = qr;
-                        break;
-                    }
-                SurveyDatum c;
-                if (!Question.customQuestion(questionResponse.getQuestion().id))
-                    c = questionResponse.getQuestion().getOptById((String) headerMap.get("optionid"));
-                else c = new StringDatum((String) headerMap.get("optionid"), -1, -1, -1);
-                Integer i = (Integer) headerMap.get("optionpos");
-                questionResponse.getOpts().add(new OptTuple(c,i));
-                sr.getAllResponses().add(questionResponse);
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+        try {
+            SurveyResponseReader reader = new SurveyResponseReader(s, r);
+            try {
+                SurveyResponse sr;
+                while ((sr = reader.readNext()) != null)
+                    responses.add(sr);
+            } finally {
+                reader.close();
             }
-            reader.close();
             return responses;
         } catch (IOException io) {
             io.printStackTrace();
@@ -175,6 +172,15 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
 
     public static ArrayList<IQuestionResponse> parse(Survey s, String ansXML, Map<String, String> otherValues)
             throws DocumentException, SurveyException, ParserConfigurationException, IOException, SAXException {
+        return AnswerParser.parse(s, ansXML, otherValues);
+    }
+
+    /**
+     * Builds a DOM for the answer document and walks it. Kept as the reference implementation that
+     * {@link AnswerParser} is benchmarked against.
+     */
+    public static ArrayList<IQuestionResponse> parseWithDOM(Survey s, String ansXML, Map<String, String> otherValues)
+            throws DocumentException, SurveyException, ParserConfigurationException, IOException, SAXException {
         ArrayList<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
         DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
@@ -185,30 +191,45 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
             Element e = (Element) n;
             String quid = e.getElementsByTagName("QuestionIdentifier").item(0).getTextContent();
             String opts = e.getElementsByTagName("FreeText").item(0).getTextContent();
-            QuestionResponse questionResponse;
-            if (quid.equals("commit")) {
-                continue;
-            } else if (!quid.startsWith("q")) {
-                questionResponse = new QuestionResponse();
-                questionResponse.add(quid, new OptTuple(new StringDatum(opts, -1, -1, -1), -1), otherValues);
-            } else {
-                questionResponse = new QuestionResponse(s.getQuestionById(quid));
-                String[] optionStuff = opts.split("\\|");
-                for (String optionJSON : optionStuff) {
-                    try {
-                        questionResponse.add(new JSONObject(optionJSON), s, otherValues);
-                    } catch (Exception ise) {
-                        System.err.println(String.format("JSON parse error: %s\nGenerating alternate entry.", ise.getMessage()));
-                        // this is a hack
-                        LOGGER.info(ise);
-                        LOGGER.info(optionJSON);
-                        questionResponse.add(quid, new OptTuple(new StringDatum(optionJSON, -1, -1, -1), -1), null);
-                    }
+            addAnswer(s, quid, opts, otherValues, retval);
+        }
+        return retval;
+    }
+
+    static void addAnswer(
+            Survey s,
+            String quid,
+            String opts,
+            Map<String, String> otherValues,
+            List<IQuestionResponse> retval)
+            throws SurveyException
+    {
+        if (quid == null || opts == null) {
+            LOGGER.warn(String.format("Skipping answer with question identifier %s and text %s", quid, opts));
+            return;
+        }
+        QuestionResponse questionResponse;
+        if (quid.equals("commit")) {
+            return;
+        } else if (!quid.startsWith("q")) {
+            questionResponse = new QuestionResponse();
+            questionResponse.add(quid, new OptTuple(new StringDatum(opts, -1, -1, -1), -1), otherValues);
+        } else {
+            questionResponse = new QuestionResponse(s.getQuestionById(quid));
+            String[] optionStuff = opts.split("\\|");
+            for (String optionJSON : optionStuff) {
+                try {
+                    questionResponse.add(new JSONObject(optionJSON), s, otherValues);
+                } catch (Exception ise) {
+                    System.err.println(String.format("JSON parse error: %s\nGenerating alternate entry.", ise.getMessage()));
+                    // this is a hack
+                    LOGGER.info(ise);
+                    LOGGER.info(optionJSON);
+                    questionResponse.add(quid, new OptTuple(new StringDatum(optionJSON, -1, -1, -1), -1), null);
                 }
-                retval.add(questionResponse);
             }
+            retval.add(questionResponse);
         }
-        return retval;
     }
 
     public SurveyResponseStruct makeStruct()
@@ -229,6 +250,7 @@ public class SurveyResponse extends edu.umass.cs.surveyman.analyses.SurveyRespon
             answerQuads.add(new AnswerQuad(s.getKey(), s.getValue(), -1, -1));
         return new SurveyResponseStruct(
                 this.getSrid(),
+                this.getWorkerId(),
                 new AnswerStruct(answerQuads),
                 score,
                 threshold,
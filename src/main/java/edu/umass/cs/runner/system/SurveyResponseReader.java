@@ -0,0 +1,225 @@
+package edu.umass.cs.runner.system;
+
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.io.CsvMapReader;
+import org.supercsv.io.ICsvMapReader;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams the responses in a results CSV written by {@link edu.umass.cs.runner.ResponseWriter}. Rows are grouped
+ * by responseid as they are read, so only the response being assembled is held in memory, and each row finds its
+ * QuestionResponse through a map keyed by question id. Rows for one response must be contiguous, as they are in
+ * files the runner writes.
+ *
+ * As an {@link Iterator}, the reader wraps parse and I/O errors in a {@link ReaderException}; {@link #readNext()}
+ * throws them directly.
+ */
+public class SurveyResponseReader implements Iterator<SurveyResponse>, Closeable {
+
+    public static class ReaderException extends RuntimeException {
+        public ReaderException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private final Survey survey;
+    private final ICsvMapReader reader;
+    private final String[] header;
+    private final CellProcessor[] cellProcessors;
+    private Map<String, Object> pendingRow;
+    private SurveyResponse next;
+    private boolean done = false;
+
+    public SurveyResponseReader(
+            Survey survey,
+            Reader r)
+            throws IOException
+    {
+        this.survey = survey;
+        this.cellProcessors = survey.makeProcessorsForResponse();
+        this.reader = new CsvMapReader(r, CsvPreference.STANDARD_PREFERENCE);
+        String[] header = reader.getHeader(true);
+        this.header = header == null ? new String[0] : header;
+        if (header == null)
+            done = true;
+    }
+
+    /**
+     * @return the next response in the file, or null at the end of the file.
+     */
+    public SurveyResponse readNext()
+            throws SurveyException,
+            IOException
+    {
+        if (next != null) {
+            SurveyResponse sr = next;
+            next = null;
+            return sr;
+        }
+        if (done)
+            return null;
+        Map<String, Object> row = pendingRow == null ? reader.read(header, cellProcessors) : pendingRow;
+        pendingRow = null;
+        if (row == null) {
+            done = true;
+            return null;
+        }
+        String srid = (String) row.get("responseid");
+        SurveyResponse sr = SurveyResponse.fromResults(survey, (String) row.get("workerid"), srid);
+        Map<String, QuestionResponse> questionResponses = new LinkedHashMap<String, QuestionResponse>();
+        do {
+            addRow(row, questionResponses);
+            row = reader.read(header, cellProcessors);
+        } while (row != null && srid != null && srid.equals(row.get("responseid")));
+        if (row == null)
+            done = true;
+        else pendingRow = row;
+        sr.setResponses(new ArrayList<IQuestionResponse>(questionResponses.values()));
+        return sr;
+    }
+
+    private void addRow(
+            Map<String, Object> row,
+            Map<String, QuestionResponse> questionResponses)
+            throws SurveyException
+    {
+        String quid = (String) row.get("questionid");
+        QuestionResponse questionResponse = questionResponses.get(quid);
+        if (questionResponse == null) {
+            questionResponse = new QuestionResponse(survey, quid, (Integer) row.get("questionpos"));
+            questionResponses.put(quid, questionResponse);
+        }
+        SurveyDatum c;
+        String optionId = (String) row.get("optionid");
+        if (!Question.customQuestion(quid))
+            c = questionResponse.getQuestion().getOptById(optionId);
+        else c = new StringDatum(optionId, -1, -1, -1);
+        questionResponse.getOpts().add(new OptTuple(c, (Integer) row.get("optionpos")));
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null && !done) {
+            try {
+                next = readNext();
+            } catch (SurveyException se) {
+                throw new ReaderException(se);
+            } catch (IOException io) {
+                throw new ReaderException(io);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public SurveyResponse next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        SurveyResponse sr = next;
+        next = null;
+        return sr;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * Reads every response in a file.
+     */
+    public static List<SurveyResponse> readAll(
+            Survey survey,
+            File file)
+            throws SurveyException,
+            IOException
+    {
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+        SurveyResponseReader reader = new SurveyResponseReader(survey, new BufferedReader(new FileReader(file)));
+        try {
+            SurveyResponse sr;
+            while ((sr = reader.readNext()) != null)
+                responses.add(sr);
+        } finally {
+            reader.close();
+        }
+        return responses;
+    }
+
+    /**
+     * Reads every file in a directory, one file per thread, and returns their responses in file-name order. A file
+     * that can't be read is logged and skipped, as before; a file that doesn't match the survey is still an error.
+     */
+    public static List<SurveyResponse> readDirectory(
+            final Survey survey,
+            File directory,
+            int threads)
+            throws SurveyException,
+            IOException
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException(String.format("Cannot list %s", directory));
+        Arrays.sort(files);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.length)));
+        try {
+            List<Future<List<SurveyResponse>>> futures = new ArrayList<Future<List<SurveyResponse>>>();
+            List<File> readable = new ArrayList<File>();
+            for (final File file : files) {
+                if (!file.isFile())
+                    continue;
+                readable.add(file);
+                futures.add(pool.submit(new Callable<List<SurveyResponse>>() {
+                    @Override
+                    public List<SurveyResponse> call() throws Exception {
+                        return readAll(survey, file);
+                    }
+                }));
+            }
+            List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+            for (int i = 0 ; i < futures.size() ; i++) {
+                try {
+                    responses.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SurveyException)
+                        throw (SurveyException) e.getCause();
+                    if (e.getCause() instanceof IOException) {
+                        Runner.LOGGER.warn(String.format("Skipping %s: %s", readable.get(i), e.getCause()));
+                        continue;
+                    }
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw new ReaderException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+            return responses;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -14,6 +14,8 @@ import java.util.Properties;
 
 public abstract class AbstractLibrary implements Serializable {
 
+    // unchanged since record snapshots were written by Java serialization, so that those can still be read
+    private static final long serialVersionUID = -2141646929189672045L;
     public static Logger LOGGER = Runner.LOGGER;
     public Properties props;
     public static final String fileSep = File.separator;
@@ -36,6 +38,7 @@ public abstract class AbstractLibrary implements Serializable {
     // state/session/job information
     public static final String UNFINISHED_JOB_FILE = AbstractLibrary.LOCALDIR + AbstractLibrary.fileSep + "unfinished";
     public static final String BONUS_DATA = AbstractLibrary.LOCALDIR + AbstractLibrary.fileSep + "bonuses";
+    public static final String JOB_STORE = AbstractLibrary.LOCALDIR + AbstractLibrary.fileSep + "jobs.db";
     public static final String TIME = String.valueOf(System.currentTimeMillis());
     public static final String STATEDATADIR = String.format("%1$s%2$s.data", LOCALDIR, fileSep);
 
@@ -67,6 +70,25 @@ public abstract class AbstractLibrary implements Serializable {
     @Override
     public abstract boolean equals(Object o);
 
+    public int getIntProperty(String key, int defaultValue) {
+        String value = props == null ? null : props.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            LOGGER.warn(String.format("Property %s has non-integer value %s; using %d", key, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    public boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = props == null ? null : props.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
     public void updateProperties(String filename) throws IOException {
         String foo = Slurpie.slurp(filename);
         props.load(new StringReader(foo));
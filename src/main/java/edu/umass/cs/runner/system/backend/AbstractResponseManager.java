@@ -3,11 +3,13 @@ package edu.umass.cs.runner.system.backend;
 import edu.umass.cs.runner.Record;
 import edu.umass.cs.runner.system.backend.ITask;
 import edu.umass.cs.runner.system.exceptions.RecordNotFoundException;
+import edu.umass.cs.runner.system.pipeline.ResponsePipeline;
 import edu.umass.cs.surveyman.analyses.SurveyResponse;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -15,6 +17,7 @@ public abstract class AbstractResponseManager {
 
     final public static int maxwaittime = 60;
     private static ConcurrentHashMap<String, Record> manager = new ConcurrentHashMap<String, Record>();
+    private static ConcurrentHashMap<String, ResponsePipeline> pipelines = new ConcurrentHashMap<String, ResponsePipeline>();
 
     public static void chill(
             int seconds)
@@ -33,6 +36,37 @@ public abstract class AbstractResponseManager {
     public abstract SurveyResponse parseResponse (String workerId, String ansXML, Survey survey, Record r,
                                                   Map<String, String> otherValues) throws SurveyException;
 
+    /**
+     * Adds the responses for all of the given tasks. Backends that can fetch tasks concurrently override this;
+     * by default tasks are polled one at a time.
+     */
+    public int addResponses(
+            Survey survey,
+            ITask[] tasks)
+            throws SurveyException
+    {
+        int responsesAdded = 0;
+        for (ITask task : tasks)
+            responsesAdded += addResponses(survey, task);
+        return responsesAdded;
+    }
+
+    /**
+     * Blocks until any backend work started by earlier calls (e.g. approving assignments) has finished.
+     */
+    public void flush()
+    {
+
+    }
+
+    /**
+     * Releases the threads and other resources this manager holds. It must not be used afterwards.
+     */
+    public void close()
+    {
+
+    }
+
     public static Record getRecord(
             Survey survey)
             throws IOException,
@@ -52,9 +86,84 @@ public abstract class AbstractResponseManager {
         manager.put(survey.source, record);
     }
 
+    /**
+     * The records of every survey currently running in this JVM.
+     */
+    public static Collection<Record> getRecords()
+    {
+        return manager.values();
+    }
+
     public static void removeRecord(
             Record record)
     {
         manager.remove(record.survey.source);
     }
+
+    public static ResponsePipeline getPipeline(
+            Survey survey)
+    {
+        if (survey == null || survey.source == null)
+            return null;
+        return pipelines.get(survey.source);
+    }
+
+    public static Collection<ResponsePipeline> getPipelines()
+    {
+        return pipelines.values();
+    }
+
+    public static void putPipeline(
+            Survey survey,
+            ResponsePipeline pipeline)
+    {
+        if (survey.source == null)
+            survey.source = survey.sid;
+        pipelines.put(survey.source, pipeline);
+    }
+
+    public static void removePipeline(
+            Survey survey)
+    {
+        if (survey.source != null)
+            pipelines.remove(survey.source);
+    }
+
+    /**
+     * Hands a freshly parsed response to the survey's pipeline. If the survey never had a pipeline (e.g. when a
+     * response manager is driven directly), the response is classified and filed inline instead. A pipeline that has
+     * been closed drops the response, since nothing would write it out.
+     * @return false if the response was dropped.
+     */
+    protected static boolean ingest(
+            Record record,
+            edu.umass.cs.runner.system.SurveyResponse sr)
+            throws SurveyException
+    {
+        return ingest(record, sr, null);
+    }
+
+    /**
+     * As {@link #ingest(Record, edu.umass.cs.runner.system.SurveyResponse)}, calling the listener (if not null) once
+     * the response has been written out: by the pipeline's writer, or right away when the response was filed inline
+     * (and so checkpointed with the Record).
+     * @return false if the pipeline dropped the response, in which case the listener will not be called.
+     */
+    protected static boolean ingest(
+            Record record,
+            edu.umass.cs.runner.system.SurveyResponse sr,
+            ResponsePipeline.PersistListener listener)
+            throws SurveyException
+    {
+        ResponsePipeline pipeline = getPipeline(record.survey);
+        if (pipeline != null)
+            // a closed pipeline turns the response away; filing it inline would never journal it
+            return pipeline.submit(sr, listener);
+        if (record.classifier.classifyResponse(sr))
+            record.addValidResponse(sr);
+        else record.addBotResponse(sr);
+        if (listener != null)
+            listener.persisted(sr);
+        return true;
+    }
 }
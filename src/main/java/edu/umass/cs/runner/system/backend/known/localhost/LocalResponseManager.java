@@ -1,10 +1,13 @@
 package edu.umass.cs.runner.system.backend.known.localhost;
 
 import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.Parameters;
 import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.scheduling.RateLimiter;
 import edu.umass.cs.surveyman.input.csv.CSVLexer;
-import edu.umass.cs.surveyman.qc.QCMetrics;
-import edu.umass.cs.surveyman.qc.classifiers.AbstractClassifier;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import org.apache.commons.httpclient.HttpHost;
@@ -26,20 +29,66 @@ import edu.umass.cs.runner.Record;
 import edu.umass.cs.runner.system.backend.ITask;
 
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.*;
 
 public class LocalResponseManager extends AbstractResponseManager {
 
+    private static final Histogram getLatency = Metrics.histogram("local.get.nanos");
+    private final CloseableHttpClient httpclient = HttpClients.createDefault();
+    private final ResponseHandler<String> responseHandler = new ResponseHandler<String>() {
+        public String handleResponse(final HttpResponse response) throws IOException {
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 200 && status < 300) {
+                HttpEntity entity = response.getEntity();
+                return entity != null ? EntityUtils.toString(entity) : null;
+            } else throw new ClientProtocolException("Unexpected response status: " + status);
+        }
+    };
+    private final RateLimiter limiter;
+    private final boolean inProcess;
+    // sequence number of the next answer to fetch from /responses
+    private int cursor = 0;
+    // answers fetched while polling for another survey, by the page they were submitted from
+    private final Map<String, List<Server.IdResponseTuple>> unclaimed = new HashMap<String, List<Server.IdResponseTuple>>();
+
     public LocalResponseManager()
     {
+        this.limiter = RateLimiter.forBackend(KnownBackendType.LOCALHOST, null);
+        this.inProcess = false;
+    }
+
+    /**
+     * Unless the localinprocess property is false, answers are taken directly from the {@link Server} running in
+     * this JVM instead of being fetched over HTTP from its /responses endpoint. The server must then be started with
+     * in-process delivery; see {@link #isInProcess()}.
+     */
+    public LocalResponseManager(
+            LocalLibrary lib)
+    {
+        this.limiter = RateLimiter.forBackend(KnownBackendType.LOCALHOST, lib);
+        this.inProcess = lib.getBooleanProperty(Parameters.LOCAL_IN_PROCESS, true);
+    }
+
+    /**
+     * Whether this manager takes answers from the in-process {@link Server} rather than over HTTP.
+     */
+    public boolean isInProcess()
+    {
+        return inProcess;
     }
 
-    public List<Server.IdResponseTuple> getNewAnswers()
+    public synchronized List<Server.IdResponseTuple> getNewAnswers()
             throws IOException,
             URISyntaxException
     {
+        if (inProcess) {
+            List<Server.IdResponseTuple> responseTuples = new ArrayList<Server.IdResponseTuple>();
+            Server.drainDelivered(responseTuples);
+            return responseTuples;
+        }
         String responseBody = getRequest();
         ArrayList<Server.IdResponseTuple> responseTuples = new ArrayList<Server.IdResponseTuple>();
         if (responseBody==null || responseBody.trim().equals("") || responseBody.startsWith("<"))
@@ -50,39 +99,77 @@ public class LocalResponseManager extends AbstractResponseManager {
             String workerId = (String) obj.get("workerid");
             String xml = (String) obj.get("answer");
             Server.IdResponseTuple tuple = new Server.IdResponseTuple(workerId, CSVLexer.htmlChars2XML(xml));
+            if (obj.has("page"))
+                tuple.page = obj.getString("page");
             responseTuples.add(tuple);
+            cursor = Math.max(cursor, obj.getInt("seq") + 1);
         }
         return responseTuples;
     }
 
+    /**
+     * The new answers submitted from the record's survey page. When several surveys share the server, answers that
+     * belong to another running survey are held until that survey polls; answers that don't say which page they came
+     * from go to whichever survey asks first. Answers for pages no running survey serves are dropped.
+     */
+    public synchronized List<Server.IdResponseTuple> getNewAnswers(
+            Record r)
+            throws IOException,
+            URISyntaxException
+    {
+        String page = new File(r.getHtmlFileName()).getName();
+        List<Server.IdResponseTuple> answers = unclaimed.remove(page);
+        if (answers == null)
+            answers = new ArrayList<Server.IdResponseTuple>();
+        // only hold answers for surveys that can still claim them
+        Set<String> running = new HashSet<String>();
+        for (Record other : AbstractResponseManager.getRecords())
+            running.add(new File(other.getHtmlFileName()).getName());
+        unclaimed.keySet().retainAll(running);
+        for (Server.IdResponseTuple tupe : getNewAnswers()) {
+            if (tupe.page == null || tupe.page.equals(page)) {
+                answers.add(tupe);
+            } else if (!running.contains(tupe.page)) {
+                Runner.LOGGER.warn(String.format("Dropping answer from %s for page %s; no running survey serves it",
+                        tupe.id, tupe.page));
+            } else {
+                List<Server.IdResponseTuple> held = unclaimed.get(tupe.page);
+                if (held == null) {
+                    held = new ArrayList<Server.IdResponseTuple>();
+                    unclaimed.put(tupe.page, held);
+                }
+                held.add(tupe);
+            }
+        }
+        return answers;
+    }
+
     private String getRequest()
     {
 
         if (!Server.serving) return "";
 
-        CloseableHttpClient httpclient = HttpClients.createDefault();
         HttpHost host = new HttpHost("localhost", Server.frontPort, Protocol.getProtocol("http"));
-        HttpGet request = new HttpGet(host.toURI().concat("/" + Server.RESPONSES));
-        ResponseHandler<String> responseHandler = new ResponseHandler<String>() {
-            public String handleResponse(final HttpResponse response) throws IOException {
-                int status = response.getStatusLine().getStatusCode();
-                if (status >= 200 && status < 300) {
-                    HttpEntity entity = response.getEntity();
-                    return entity != null ? EntityUtils.toString(entity) : null;
-                } else throw new ClientProtocolException("Unexpected response status: " + status);
-            }
-        };
+        HttpGet request = new HttpGet(host.toURI().concat(
+                String.format("/%s?%s=%d", Server.RESPONSES, Server.SINCE, cursor)));
         String responseBody = null;
         try {
+            limiter.acquire();
+            long start = System.nanoTime();
             responseBody = httpclient.execute(request, responseHandler);
-        } catch (IOException e) { Runner.LOGGER.warn(e); }
+            getLatency.recordSince(start);
+        } catch (IOException e) {
+            Runner.LOGGER.warn(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
         return responseBody;
     }
 
     @Override
     public int addResponses(Survey survey, ITask task) throws SurveyException {
-        int botResponsesToAdd = 0, validResponsesToAdd = 0;
+        int responsesAdded = 0;
         Record r = null;
         try {
             r = AbstractResponseManager.getRecord(survey);
@@ -91,30 +178,21 @@ public class LocalResponseManager extends AbstractResponseManager {
         }
         if (r==null) return -1;
         try {
-            List<Server.IdResponseTuple> tuples = getNewAnswers();
+            List<Server.IdResponseTuple> tuples = getNewAnswers(r);
             for (Server.IdResponseTuple tupe : tuples) {
                 SurveyResponse sr = parseResponse(tupe.id, tupe.xml, survey, r, null);
                 assert sr!=null;
-		boolean valid = r.classifier.classifyResponse(sr);
-                if (valid) {
-                    r.addValidResponse(sr);
-                    r.removeBotResponse(sr);
-                    validResponsesToAdd++;
-                } else {
-                    r.addValidResponse(sr);
-                    r.removeBotResponse(sr);
-                    botResponsesToAdd++;
-                }
+                if (ingest(r, sr))
+                    responsesAdded++;
             }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
-        if (validResponsesToAdd>0 || botResponsesToAdd>0)
-            Runner.LOGGER.info(String.format("%d responses total. %d valid responses added. %d invalid responses added."
-                    , r.getNumValidResponses() + r.getNumBotResponses(), validResponsesToAdd, botResponsesToAdd));
-        return validResponsesToAdd;
+        if (responsesAdded>0)
+            Runner.LOGGER.info(String.format("%d new responses received.", responsesAdded));
+        return responsesAdded;
     }
 
     @Override
@@ -11,9 +11,15 @@ import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 public class LocalSurveyPoster implements ISurveyPoster {
 
+    // surveys that have been stopped but whose records are still registered
+    private static final Set<Record> stopped = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+
     @Override
     public void init(String configURL) {
 
@@ -43,7 +49,17 @@ public class LocalSurveyPoster implements ISurveyPoster {
     @Override
     public boolean stopSurvey(AbstractResponseManager responseManager, Record r, BoxedBool interrupt) {
        try {
-           boolean success = Server.endSurvey();
+           // the server is shared; only close it once every survey using it has stopped. The check runs under one
+           // lock, so that of several surveys stopping together exactly one closes it.
+           boolean success = true;
+           synchronized (stopped) {
+               stopped.add(r);
+               stopped.retainAll(AbstractResponseManager.getRecords());
+               if (stopped.containsAll(AbstractResponseManager.getRecords())) {
+                   stopped.clear();
+                   success = Server.endSurvey();
+               }
+           }
            interrupt.setInterrupt(true, "Call to stop survey.", new Exception(){}.getStackTrace()[1]);
            return success;
        } catch (WebServerException se) {
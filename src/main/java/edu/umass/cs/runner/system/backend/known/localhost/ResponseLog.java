@@ -0,0 +1,101 @@
+package edu.umass.cs.runner.system.backend.known.localhost;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Append-only log of the answers submitted to the local {@link Server}. Each answer gets the next sequence number,
+ * starting at 0. Answers are JSON-encoded once, when they are appended, into a single buffer; {@link #jsonSince(int)}
+ * returns every answer from a cursor onward by copying one slice of that buffer, so a reader pays only for the
+ * entries it hasn't seen.
+ */
+public class ResponseLog {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_ENTRY_SIZE = 512;
+
+    private final StringBuilder json;
+    private Server.IdResponseTuple[] entries;
+    // offsets[i] is where entry i starts in json; offsets[size] is the end of the buffer
+    private int[] offsets;
+    private int size = 0;
+
+    public ResponseLog()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ResponseLog(
+            int capacity)
+    {
+        capacity = Math.max(1, capacity);
+        this.json = new StringBuilder(capacity * DEFAULT_ENTRY_SIZE);
+        this.entries = new Server.IdResponseTuple[capacity];
+        this.offsets = new int[capacity + 1];
+    }
+
+    /**
+     * @return the sequence number of the appended answer.
+     */
+    public synchronized int append(
+            Server.IdResponseTuple tupe)
+    {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+        }
+        int seq = size;
+        if (seq > 0)
+            json.append(", ");
+        tupe.jsonize(seq, json);
+        entries[seq] = tupe;
+        offsets[++size] = json.length();
+        return seq;
+    }
+
+    /**
+     * The sequence number the next appended answer will get; a reader that has seen everything passes this as its
+     * cursor.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public synchronized Server.IdResponseTuple get(
+            int seq)
+    {
+        if (seq < 0 || seq >= size)
+            throw new IndexOutOfBoundsException(String.format("No response with sequence number %d", seq));
+        return entries[seq];
+    }
+
+    /**
+     * Adds the answers with sequence numbers from since onward to the given collection.
+     * @return the cursor to pass next time.
+     */
+    public synchronized int since(
+            int since,
+            Collection<Server.IdResponseTuple> into)
+    {
+        for (int i = Math.max(0, since) ; i < size ; i++)
+            into.add(entries[i]);
+        return size;
+    }
+
+    /**
+     * A JSON array of the answers with sequence numbers from since onward. Each element carries its sequence
+     * number under "seq".
+     */
+    public synchronized String jsonSince(
+            int since)
+    {
+        since = Math.max(0, since);
+        if (since >= size)
+            return "[]";
+        // skip the separator in front of every entry but the first
+        int start = offsets[since] + (since > 0 ? 2 : 0);
+        StringBuilder sb = new StringBuilder(json.length() - start + 2);
+        return sb.append('[').append(json, start, json.length()).append(']').toString();
+    }
+}
@@ -1,11 +1,17 @@
 package edu.umass.cs.runner.system.backend.known.localhost;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.Parameters;
 import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.known.localhost.server.StaticAssetCache;
 import edu.umass.cs.runner.system.backend.known.localhost.server.WebHandler;
 import edu.umass.cs.runner.system.backend.known.localhost.server.WebServer;
 import edu.umass.cs.runner.system.backend.known.localhost.server.WebServerException;
-import edu.umass.cs.runner.utils.Slurpie;
+import edu.umass.cs.runner.system.metrics.Gauge;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.output.Json;
 import edu.umass.cs.surveyman.input.AbstractLexer;
 import edu.umass.cs.surveyman.utils.Gensym;
 import org.apache.commons.lang3.StringUtils;
@@ -15,36 +21,102 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Server {
 
     public static final String RESPONSES = "responses";
+    public static final String SINCE = "since";
 
     public static class IdResponseTuple {
         public String id, xml;
+        // name of the survey page the answer was submitted from, when the browser said
+        public String page;
         public IdResponseTuple(String id, String xml) {
             this.id = id; this.xml = xml;
         }
-        protected String jsonize() {
-            return String.format("{\"workerid\" : \"%s\", \"answer\" : \"%s\"}", id, AbstractLexer.xmlChars2HTML(xml));
+        protected void jsonize(int seq, StringBuilder sb) {
+            try {
+                JsonGenerator generator = Json.generator(sb);
+                generator.writeStartObject();
+                generator.writeNumberField("seq", seq);
+                generator.writeStringField("workerid", id);
+                generator.writeStringField("answer", AbstractLexer.xmlChars2HTML(xml));
+                if (page != null)
+                    generator.writeStringField("page", page);
+                generator.writeEndObject();
+                generator.close();
+            } catch (IOException e) {
+                // a StringBuilder doesn't throw
+                throw new IllegalStateException(e);
+            }
         }
     }
 
     public static Gensym gensym = new Gensym("a");
     public static volatile int frontPort = 8000;
     public static boolean serving = false;
-    public final static List<IdResponseTuple> newXmlResponses = new ArrayList<IdResponseTuple>();
-    public final static List<IdResponseTuple> oldXmlResponses = new ArrayList<IdResponseTuple>();
-    public static int requests = 0;
+    public final static ResponseLog responseLog = new ResponseLog();
+    public final static AtomicInteger requests = new AtomicInteger();
+    public final static StaticAssetCache assets = new StaticAssetCache();
+    /**
+     * When set, POSTed answers are also handed straight to {@link LocalResponseManager} through
+     * {@link #drainDelivered(Collection)}, so the runner doesn't have to poll its own /responses endpoint. It is
+     * chosen when the server is started, to match the response manager that will read the answers.
+     */
+    public static volatile boolean deliverInProcess = false;
+    private final static Queue<IdResponseTuple> delivered = new ConcurrentLinkedQueue<IdResponseTuple>();
+    private final static Histogram postLatency = Metrics.histogram("server.post.nanos");
+
+    static {
+        Metrics.gauge("server.requests", new Gauge() {
+            @Override
+            public long value() {
+                return requests.get();
+            }
+        });
+        Metrics.gauge("server.answers", new Gauge() {
+            @Override
+            public long value() {
+                return responseLog.size();
+            }
+        });
+        Metrics.gauge("server.delivered.queued", new Gauge() {
+            @Override
+            public long value() {
+                return delivered.size();
+            }
+        });
+    }
 
     private static WebServer server;
 
     public static void startServe() throws WebServerException {
+        startServe(null);
+    }
+
+    /**
+     * Starts the server, delivering answers in-process unless the library's localinprocess property is false (as
+     * a {@link LocalResponseManager} made from the same library expects).
+     */
+    public static void startServe(AbstractLibrary library) throws WebServerException {
+        startServe(library, library != null && library.getBooleanProperty(Parameters.LOCAL_IN_PROCESS, true));
+    }
+
+    /**
+     * Starts the server, with a request thread pool sized by the library's localmaxthreads property.
+     * @param inProcess whether answers are also delivered through {@link #drainDelivered(Collection)}.
+     */
+    public static void startServe(AbstractLibrary library, boolean inProcess) throws WebServerException {
+        deliverInProcess = inProcess;
+        int maxThreads = library == null ? WebServer.DEFAULT_MAX_THREADS
+                : library.getIntProperty(Parameters.LOCAL_MAX_THREADS, WebServer.DEFAULT_MAX_THREADS);
         server = WebServer.start(frontPort, new WebHandler() {
             @Override
             public void handle(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
 
-                requests++;
+                requests.incrementAndGet();
                 httpResponse.addHeader("Access-Control-Allow-Origin:", "http://surveyman.github.io");
 
                 String method = httpRequest.getMethod();
@@ -55,28 +127,29 @@ public class Server {
                 String response = "";
                 if("GET".equals(method)) {
                     if (httpPath.endsWith(RESPONSES))
-                        response = getJsonizedNewResponses();
+                        response = getJsonizedNewResponses(httpRequest.getParameter(SINCE));
                     else if (httpPath.endsWith("assignmentId"))
                         response = gensym.next();
                     else {
                         String path = httpPath.replace("/", AbstractLibrary.fileSep).substring(1);
                         try {
-                            response = Slurpie.slurp(path);
+                            assets.serve(path, httpRequest, httpResponse);
                         } catch (IOException e) {
                             httpResponse.sendError(404, "Not Found");
                             Runner.LOGGER.warn(e);
-                            return;
                         }
+                        return;
                     }
                 } else if("POST".equals(method)) {
+                    long start = System.nanoTime();
                     Map<String,String[]> formParams = (Map<String,String[]>) httpRequest.getParameterMap();
-                    IdResponseTuple xml = convertToXML(formParams);
-
-                    synchronized (newXmlResponses) {
-                        newXmlResponses.add(xml);
-                    }
+                    IdResponseTuple tupe = convertToXML(formParams);
+                    tupe.page = pageOf(httpRequest.getHeader("Referer"));
+                    receive(tupe);
+                    postLatency.recordSince(start);
 
-                    response = Slurpie.slurp("thanks.html");
+                    StaticAssetCache.write(assets.get("thanks.html"), httpRequest, httpResponse);
+                    return;
                 } else {
                     httpResponse.sendError(400, "Bad Request");
                     return;
@@ -89,35 +162,75 @@ public class Server {
                 out.println(response);
                 out.close();
             }
-        });
+        }, maxThreads);
         serving = true;
     }
 
     public static void endServe() throws WebServerException {
         serving = false;
+        deliverInProcess = false;
         server.stop();
     }
 
-    private static String getJsonizedNewResponses() {
-        synchronized (newXmlResponses) {
-            Iterator<IdResponseTuple> tupes = newXmlResponses.iterator();
-            StringBuilder sb = new StringBuilder();
-            if (tupes.hasNext()) {
-                IdResponseTuple tupe = tupes.next();
-                sb.append(tupe.jsonize());
-                tupes.remove();
-                oldXmlResponses.add(tupe);
-            } else return "";
-            while (tupes.hasNext()) {
-                IdResponseTuple tupe = tupes.next();
-                sb.append(String.format(", %s", tupe.jsonize()));
-            }
-            for (IdResponseTuple tupe : oldXmlResponses) {
-                if (newXmlResponses.contains(tupe))
-                    newXmlResponses.remove(tupe);
+    /**
+     * The answers from the given cursor onward; with no cursor, every answer received so far.
+     */
+    private static String getJsonizedNewResponses(String since) {
+        int cursor = 0;
+        if (since != null) {
+            try {
+                cursor = Integer.parseInt(since.trim());
+            } catch (NumberFormatException nfe) {
+                Runner.LOGGER.warn(String.format("Bad %s cursor %s", SINCE, since));
             }
-            return String.format("[%s]", sb.toString());
         }
+        return responseLog.jsonSince(cursor);
+    }
+
+    /**
+     * Records a submitted answer for the /responses endpoint and, in in-process mode, for the response manager.
+     */
+    public static void receive(
+            IdResponseTuple tupe)
+    {
+        responseLog.append(tupe);
+        if (deliverInProcess)
+            delivered.offer(tupe);
+    }
+
+    /**
+     * Moves every answer delivered in-process since the last call into the given collection.
+     * @return the number of answers moved.
+     */
+    public static int drainDelivered(
+            Collection<IdResponseTuple> into)
+    {
+        int n = 0;
+        IdResponseTuple tupe;
+        while ((tupe = delivered.poll()) != null) {
+            into.add(tupe);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The file name at the end of a referring URL, which for a submitted answer is its survey's HTML page.
+     */
+    static String pageOf(
+            String referer)
+    {
+        if (referer == null)
+            return null;
+        int end = referer.length();
+        for (char c : new char[]{ '?', '#' }) {
+            int i = referer.indexOf(c);
+            if (i >= 0)
+                end = Math.min(end, i);
+        }
+        String path = referer.substring(0, end);
+        String page = path.substring(path.lastIndexOf('/') + 1);
+        return page.isEmpty() ? null : page;
     }
 
     public static IdResponseTuple convertToXML(Map<String,String[]> postParams) {
@@ -143,9 +256,7 @@ public class Server {
         server = WebServer.start(frontPort, new WebHandler() {
             @Override
             public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
-                PrintWriter writer = response.getWriter();
-                writer.println(Slurpie.slurp("survey_closed.html"));
-                writer.close();
+                StaticAssetCache.write(assets.get("survey_closed.html"), request, response);
             }
         });
         return true;
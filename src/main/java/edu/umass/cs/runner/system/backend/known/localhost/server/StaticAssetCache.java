@@ -0,0 +1,200 @@
+package edu.umass.cs.runner.system.backend.known.localhost.server;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Static files for the local server, held in memory. Each asset is read once, from the classpath or else the
+ * working directory, along with a gzipped copy and an ETag; files on disk are checked for changes at most once
+ * every {@link #RECHECK_MILLIS}. {@link #serve(String, HttpServletRequest, HttpServletResponse)} answers conditional
+ * requests with 304 and sends the gzipped copy to clients that accept it.
+ */
+public class StaticAssetCache {
+
+    public static final long RECHECK_MILLIS = 1000;
+    public static final int MAX_ASSET_BYTES = 8 * 1024 * 1024;
+    public static final int MIN_GZIP_BYTES = 256;
+
+    public static class Asset {
+        public final byte[] body;
+        public final byte[] gzipped;
+        public final String etag;
+        public final String contentType;
+        final File file;
+        final long lastModified;
+        volatile long checked;
+
+        Asset(byte[] body, String contentType, File file, long lastModified) throws IOException {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = "\"" + DigestUtils.md5Hex(body) + "\"";
+            this.gzipped = body.length >= MIN_GZIP_BYTES && isText(contentType) ? gzip(body) : null;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.checked = System.currentTimeMillis();
+        }
+
+        public String text() {
+            try {
+                return new String(body, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Asset> assets = new ConcurrentHashMap<String, Asset>();
+
+    static boolean isText(
+            String contentType)
+    {
+        return contentType.startsWith("text/") || contentType.endsWith("javascript") || contentType.endsWith("json")
+                || contentType.endsWith("xml") || contentType.endsWith("svg+xml");
+    }
+
+    static String contentType(
+            String path)
+    {
+        String p = path.toLowerCase();
+        if (p.endsWith(".html") || p.endsWith(".htm")) return "text/html; charset=UTF-8";
+        if (p.endsWith(".js")) return "application/javascript; charset=UTF-8";
+        if (p.endsWith(".css")) return "text/css; charset=UTF-8";
+        if (p.endsWith(".json")) return "application/json; charset=UTF-8";
+        if (p.endsWith(".xml")) return "application/xml; charset=UTF-8";
+        if (p.endsWith(".svg")) return "image/svg+xml";
+        if (p.endsWith(".png")) return "image/png";
+        if (p.endsWith(".jpg") || p.endsWith(".jpeg")) return "image/jpeg";
+        if (p.endsWith(".gif")) return "image/gif";
+        if (p.endsWith(".csv")) return "text/csv; charset=UTF-8";
+        if (p.endsWith(".txt") || p.endsWith(".log")) return "text/plain; charset=UTF-8";
+        // the server has always answered with HTML, e.g. for the survey pages under logs/
+        return "text/html; charset=UTF-8";
+    }
+
+    static byte[] gzip(
+            byte[] body)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream gz = new GZIPOutputStream(bytes);
+        gz.write(body);
+        gz.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] read(
+            InputStream in)
+            throws IOException
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+                if (bytes.size() > MAX_ASSET_BYTES)
+                    throw new IOException("Static asset is too large to serve");
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The asset at the given relative path.
+     * @throws FileNotFoundException if there is no such file.
+     */
+    public Asset get(
+            String path)
+            throws IOException
+    {
+        Asset asset = assets.get(path);
+        long now = System.currentTimeMillis();
+        if (asset != null) {
+            if (asset.file == null || now - asset.checked < RECHECK_MILLIS)
+                return asset;
+            if (asset.file.lastModified() == asset.lastModified && asset.file.exists()) {
+                asset.checked = now;
+                return asset;
+            }
+        }
+        asset = load(path);
+        assets.put(path, asset);
+        return asset;
+    }
+
+    private Asset load(
+            String path)
+            throws IOException
+    {
+        URL resource = StaticAssetCache.class.getClassLoader().getResource(path);
+        if (resource != null)
+            return new Asset(read(resource.openStream()), contentType(path), null, 0);
+        File file = new File(path);
+        if (!file.isFile())
+            throw new FileNotFoundException(path);
+        long lastModified = file.lastModified();
+        return new Asset(read(new FileInputStream(file)), contentType(path), file, lastModified);
+    }
+
+    public void clear()
+    {
+        assets.clear();
+    }
+
+    /**
+     * Writes the asset at path as the response.
+     */
+    public void serve(
+            String path,
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws IOException
+    {
+        Asset asset;
+        try {
+            asset = get(path);
+        } catch (FileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Not Found");
+            return;
+        }
+        write(asset, request, response);
+    }
+
+    public static void write(
+            Asset asset,
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws IOException
+    {
+        response.setHeader("ETag", asset.etag);
+        response.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(asset.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(asset.contentType);
+        byte[] body = asset.body;
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (asset.gzipped != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                response.setHeader("Content-Encoding", "gzip");
+                body = asset.gzipped;
+            }
+        }
+        response.setContentLength(body.length);
+        OutputStream out = response.getOutputStream();
+        out.write(body);
+        out.close();
+    }
+}
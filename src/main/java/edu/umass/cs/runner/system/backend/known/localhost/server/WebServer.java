@@ -5,6 +5,8 @@ import edu.umass.cs.runner.system.backend.known.localhost.LocalResponseManager;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -53,18 +55,45 @@ public class WebServer {
         return String.format("http://%s:%d", getHostName(), getPort());
     }
 
+    public static final int DEFAULT_MAX_THREADS = 200;
+    public static final int MIN_THREADS = 8;
+    public static final int ACCEPT_QUEUE_SIZE = 1024;
+
     public static WebServer start(int port, WebHandler handler) throws WebServerException {
+        return start(port, handler, DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * Starts a server on the first free port from port onward. Connections are multiplexed by a non-blocking
+     * connector, so idle keep-alive connections don't hold threads; requests run on a pool of at most maxThreads.
+     */
+    public static WebServer start(int port, WebHandler handler, int maxThreads) throws WebServerException {
         int currentPort = port;
         Server server;
         BindException e;
 
         do {
-            server = new Server(currentPort);
+            server = new Server();
+            QueuedThreadPool threadPool = new QueuedThreadPool(Math.max(MIN_THREADS, maxThreads));
+            threadPool.setMinThreads(MIN_THREADS);
+            threadPool.setName("local-server");
+            threadPool.setDaemon(true);
+            server.setThreadPool(threadPool);
+            SelectChannelConnector connector = new SelectChannelConnector();
+            connector.setPort(currentPort);
+            connector.setAcceptQueueSize(ACCEPT_QUEUE_SIZE);
+            connector.setAcceptors(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            server.addConnector(connector);
             server.setHandler(new JettyHandler(handler));
             try {
                 server.start();
                 e = null;
             } catch (BindException exception) {
+                try {
+                    server.stop();
+                } catch (Exception ignored) {
+                    // nothing was started
+                }
                 LocalResponseManager.chill(5);
                 currentPort++;
                 e = exception;
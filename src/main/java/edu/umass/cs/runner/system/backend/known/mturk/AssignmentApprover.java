@@ -0,0 +1,179 @@
+package edu.umass.cs.runner.system.backend.known.mturk;
+
+import com.amazonaws.mturk.service.exception.InternalServiceException;
+import com.amazonaws.mturk.service.exception.ObjectDoesNotExistException;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
+import edu.umass.cs.runner.system.scheduling.Backoff;
+import edu.umass.cs.runner.system.scheduling.TaskScope;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approves assignments off the polling path. Callers {@link #approve(String)} an assignment and return immediately;
+ * a dispatcher thread drains whatever has accumulated into a batch and issues the approvals concurrently on the
+ * response manager's worker pool. Each approval is retried with exponential backoff on transient service errors.
+ */
+public class AssignmentApprover {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_MAX_RETRIES = 6;
+    public static final int MAX_BATCH_SIZE = 64;
+    private static final String FEEDBACK = "Thank you.";
+
+    private final IRequesterService service;
+    private final ExecutorService workers;
+    private final int maxRetries;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<String>();
+    private final AtomicLong approved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private int outstanding = 0;
+    private final Thread dispatcher;
+
+    public AssignmentApprover(
+            IRequesterService service,
+            ExecutorService workers,
+            int maxRetries)
+    {
+        this.service = service;
+        this.workers = workers;
+        this.maxRetries = maxRetries;
+        this.dispatcher = new Thread("approver") {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher. Approvals that have not been dispatched yet are abandoned; {@link #flush(long)} first to
+     * wait for them.
+     */
+    public void close()
+    {
+        dispatcher.interrupt();
+    }
+
+    public void approve(
+            String assignmentId)
+    {
+        synchronized (this) {
+            outstanding++;
+        }
+        pending.add(assignmentId);
+    }
+
+    /**
+     * Blocks until every approval requested so far has either succeeded or exhausted its retries, or until
+     * millis milliseconds have elapsed.
+     * @return true if there are no outstanding approvals.
+     */
+    public synchronized boolean flush(
+            long millis)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (outstanding > 0 && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return outstanding == 0;
+    }
+
+    public long getApproved()
+    {
+        return approved.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    public synchronized int getOutstanding()
+    {
+        return outstanding;
+    }
+
+    private synchronized void done(
+            int n)
+    {
+        outstanding -= n;
+        this.notifyAll();
+    }
+
+    private void dispatch()
+    {
+        List<String> batch = new ArrayList<String>();
+        while (true) {
+            TaskScope scope = new TaskScope(workers);
+            try {
+                batch.add(pending.take());
+                pending.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (final String assignmentId : batch) {
+                    scope.fork(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (approveWithRetry(assignmentId))
+                                    approved.incrementAndGet();
+                                else failed.incrementAndGet();
+                            } finally {
+                                done(1);
+                            }
+                        }
+                    });
+                }
+                scope.join();
+                LOGGER.debug(String.format("Approved batch of %d assignments", batch.size()));
+            } catch (InterruptedException e) {
+                LOGGER.warn(e);
+                return;
+            } catch (RuntimeException e) {
+                // e.g. the worker pool rejected the batch; don't leave flush() waiting on it
+                LOGGER.warn(e);
+                done(batch.size() - scope.size());
+                try {
+                    scope.join();
+                } catch (InterruptedException ie) {
+                    LOGGER.warn(ie);
+                    return;
+                }
+            } finally {
+                scope.close();
+                batch.clear();
+            }
+        }
+    }
+
+    private boolean approveWithRetry(
+            String assignmentId)
+    {
+        Backoff backoff = new Backoff(1000, AbstractResponseManager.maxwaittime * 1000L);
+        for (int attempt = 0 ; attempt <= maxRetries ; attempt++) {
+            try {
+                service.approveAssignment(assignmentId, FEEDBACK);
+                return true;
+            } catch (InternalServiceException ise) {
+                LOGGER.warn(String.format("approveAssignment %s (attempt %d): %s", assignmentId, attempt + 1, ise));
+                if (!backoff.pause())
+                    return false;
+            } catch (ObjectDoesNotExistException odne) {
+                LOGGER.warn(String.format("approveAssignment %s: %s", assignmentId, odne));
+                return false;
+            }
+        }
+        LOGGER.error(String.format("Giving up on approving assignment %s after %d attempts", assignmentId, maxRetries + 1));
+        return false;
+    }
+}
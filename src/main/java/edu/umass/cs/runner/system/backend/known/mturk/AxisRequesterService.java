@@ -0,0 +1,127 @@
+package edu.umass.cs.runner.system.backend.known.mturk;
+
+import com.amazonaws.mturk.requester.Assignment;
+import com.amazonaws.mturk.requester.GetAssignmentsForHITResult;
+import com.amazonaws.mturk.requester.GetAssignmentsForHITSortProperty;
+import com.amazonaws.mturk.requester.HIT;
+import com.amazonaws.mturk.requester.SortDirection;
+import com.amazonaws.mturk.service.axis.RequesterService;
+import com.amazonaws.mturk.util.PropertiesClientConfig;
+
+/**
+ * {@link IRequesterService} backed by the AWS SDK's RequesterService, which is itself thread-safe.
+ */
+public class AxisRequesterService implements IRequesterService {
+
+    private final RequesterService service;
+
+    public AxisRequesterService(
+            MturkLibrary lib)
+    {
+        PropertiesClientConfig config = new PropertiesClientConfig(lib.CONFIG);
+        config.setServiceURL(lib.MTURK_URL);
+        this.service = new RequesterService(config);
+    }
+
+    @Override
+    public HIT getHIT(
+            String hitId)
+    {
+        return service.getHIT(hitId);
+    }
+
+    @Override
+    public Assignment[] getAllAssignmentsForHIT(
+            String hitId)
+    {
+        return service.getAllAssignmentsForHIT(hitId);
+    }
+
+    @Override
+    public Assignment[] getAssignmentsForHIT(
+            String hitId,
+            int pageSize,
+            int pageNumber)
+    {
+        GetAssignmentsForHITResult result = service.getAssignmentsForHIT(hitId
+                , SortDirection.Ascending
+                , null // all statuses, so that pages don't shift as assignments are approved
+                , GetAssignmentsForHITSortProperty.SubmitTime
+                , pageNumber
+                , pageSize
+                , null
+        );
+        Assignment[] assignments = result.getAssignment();
+        return assignments == null ? new Assignment[0] : assignments;
+    }
+
+    @Override
+    public void extendHIT(
+            String hitId,
+            Integer maxAssignmentsIncrement,
+            Long expirationIncrementInSeconds)
+    {
+        service.extendHIT(hitId, maxAssignmentsIncrement, expirationIncrementInSeconds);
+    }
+
+    @Override
+    public void grantBonus(
+            String workerId,
+            double bonusAmount,
+            String assignmentId,
+            String reason)
+    {
+        service.grantBonus(workerId, bonusAmount, assignmentId, reason);
+    }
+
+    @Override
+    public void forceExpireHIT(
+            String hitId)
+    {
+        service.forceExpireHIT(hitId);
+    }
+
+    @Override
+    public String getWebsiteURL()
+    {
+        return service.getWebsiteURL();
+    }
+
+    @Override
+    public HIT createHIT(
+            String hitTypeId,
+            String title,
+            String description,
+            String keywords,
+            String question,
+            Double reward,
+            Long assignmentDurationInSeconds,
+            Long autoApprovalDelayInSeconds,
+            Long lifetimeInSeconds,
+            Integer maxAssignments,
+            String requesterAnnotation)
+    {
+        return service.createHIT(hitTypeId
+                , title
+                , description
+                , keywords
+                , question
+                , reward
+                , assignmentDurationInSeconds
+                , autoApprovalDelayInSeconds
+                , lifetimeInSeconds
+                , maxAssignments
+                , requesterAnnotation
+                , null // Qualification requirements
+                , null
+        );
+    }
+
+    @Override
+    public void approveAssignment(
+            String assignmentId,
+            String requesterFeedback)
+    {
+        service.approveAssignment(assignmentId, requesterFeedback);
+    }
+}
@@ -0,0 +1,199 @@
+package edu.umass.cs.runner.system.backend.known.mturk;
+
+import com.amazonaws.mturk.requester.Assignment;
+import com.amazonaws.mturk.service.exception.InternalServiceException;
+import com.amazonaws.mturk.service.exception.ObjectDoesNotExistException;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
+import edu.umass.cs.runner.system.job.JobManager;
+import edu.umass.cs.runner.system.scheduling.Backoff;
+import edu.umass.cs.runner.system.scheduling.TaskScope;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pays a batch of bonuses for one survey. The worker-to-assignment index is built with one pass over the survey's
+ * HITs, and at most concurrency grants are in flight at a time; rate limiting is left to the service, which in
+ * {@link MturkResponseManager} is a {@link RateLimitedRequesterService}.
+ *
+ * Every payment goes through {@link JobManager}: a pending marker is recorded before the grant and replaced by the
+ * paid bonus once it succeeds, so running the same batch again pays no one twice. A marker left behind by a crash
+ * means the grant may or may not have gone through; such workers are reported as unresolved and skipped until the
+ * marker is cleared with {@link JobManager#clearPendingBonus(String, String)}. The same goes for a grant that only
+ * ever failed with an internal service error, which does not say whether the bonus was paid; only a refusal
+ * (the assignment does not exist) clears the marker.
+ */
+public class BonusPayer {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private enum Grant { PAID, REFUSED, UNKNOWN }
+    public static final String REASON = "For partial work completed.";
+
+    public static class Result {
+        public final List<String> paid = Collections.synchronizedList(new ArrayList<String>());
+        public final List<String> alreadyPaid = Collections.synchronizedList(new ArrayList<String>());
+        public final List<String> unresolved = Collections.synchronizedList(new ArrayList<String>());
+        public final List<String> noAssignment = Collections.synchronizedList(new ArrayList<String>());
+        public final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public String toString()
+        {
+            return String.format("paid %d, already paid %d, unresolved %d, no assignment %d, failed %d",
+                    paid.size(), alreadyPaid.size(), unresolved.size(), noAssignment.size(), failed.size());
+        }
+    }
+
+    private final IRequesterService service;
+    private final ExecutorService workers;
+    private final int concurrency;
+    private final int maxRetries;
+
+    public BonusPayer(
+            IRequesterService service,
+            ExecutorService workers,
+            int concurrency,
+            int maxRetries)
+    {
+        this.service = service;
+        this.workers = workers;
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Maps each worker to an assignment they submitted to one of the HITs.
+     */
+    public Map<String, String> indexAssignments(
+            String[] hitIds)
+    {
+        Map<String, String> index = new HashMap<String, String>();
+        for (String hitId : hitIds) {
+            for (Assignment a : service.getAllAssignmentsForHIT(hitId)) {
+                if (!index.containsKey(a.getWorkerId()))
+                    index.put(a.getWorkerId(), a.getAssignmentId());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Pays each worker in bonuses the given amount, blocking until every payment has been settled.
+     */
+    public Result pay(
+            final String sourceName,
+            Map<String, Double> bonuses,
+            String[] hitIds)
+            throws InterruptedException
+    {
+        final Result result = new Result();
+        final Map<String, String> index = indexAssignments(hitIds);
+        final Semaphore permits = new Semaphore(concurrency);
+        TaskScope scope = new TaskScope(workers);
+        try {
+            for (Map.Entry<String, Double> bonus : bonuses.entrySet()) {
+                final String workerId = bonus.getKey();
+                final double amount = bonus.getValue();
+                permits.acquire();
+                try {
+                    scope.fork(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                payOne(sourceName, workerId, amount, index.get(workerId), result);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            scope.join();
+        } finally {
+            // payments not yet started when we were interrupted are dropped; nothing was marked pending for them
+            scope.close();
+        }
+        LOGGER.info(String.format("Bonuses for %s: %s", sourceName, result));
+        return result;
+    }
+
+    private void payOne(
+            String sourceName,
+            String workerId,
+            double amount,
+            String assignmentId,
+            Result result)
+    {
+        try {
+            if (JobManager.bonusPaid(workerId, sourceName)) {
+                result.alreadyPaid.add(workerId);
+                return;
+            }
+            if (JobManager.bonusPending(workerId, sourceName)) {
+                LOGGER.warn(String.format("A bonus to worker %s for %s was interrupted; check it before paying again",
+                        workerId, sourceName));
+                result.unresolved.add(workerId);
+                return;
+            }
+            if (assignmentId == null) {
+                LOGGER.warn(String.format("No assignment by worker %s in %s", workerId, sourceName));
+                result.noAssignment.add(workerId);
+                return;
+            }
+            JobManager.recordPendingBonus(amount, workerId, sourceName);
+            switch (grantWithRetry(workerId, amount, assignmentId)) {
+                case PAID:
+                    JobManager.recordBonus(amount, workerId, sourceName);
+                    LOGGER.info(String.format("Granted worker %s bonus %f for assignment %s in survey %s",
+                            workerId, amount, assignmentId, sourceName));
+                    result.paid.add(workerId);
+                    break;
+                case REFUSED:
+                    // the service turned the grant down, so nothing was paid
+                    JobManager.clearPendingBonus(workerId, sourceName);
+                    result.failed.add(workerId);
+                    break;
+                default:
+                    // any of the failed attempts may have gone through; keep the marker so no one pays twice
+                    LOGGER.warn(String.format("Bonus to worker %s for %s may or may not have been granted; check it "
+                            + "before paying again", workerId, sourceName));
+                    result.unresolved.add(workerId);
+            }
+        } catch (IOException io) {
+            LOGGER.error(String.format("Could not record bonus for worker %s: %s", workerId, io));
+            result.failed.add(workerId);
+        }
+    }
+
+    private Grant grantWithRetry(
+            String workerId,
+            double amount,
+            String assignmentId)
+    {
+        Backoff backoff = new Backoff(1000, AbstractResponseManager.maxwaittime * 1000L);
+        for (int attempt = 0 ; attempt <= maxRetries ; attempt++) {
+            try {
+                service.grantBonus(workerId, amount, assignmentId, REASON);
+                return Grant.PAID;
+            } catch (InternalServiceException ise) {
+                LOGGER.warn(String.format("grantBonus %s (attempt %d): %s", workerId, attempt + 1, ise));
+                if (!backoff.pause())
+                    return Grant.UNKNOWN;
+            } catch (ObjectDoesNotExistException odne) {
+                LOGGER.warn(String.format("grantBonus %s: %s", workerId, odne));
+                return Grant.REFUSED;
+            }
+        }
+        LOGGER.error(String.format("Giving up on bonus for worker %s after %d attempts", workerId, maxRetries + 1));
+        return Grant.UNKNOWN;
+    }
+}
@@ -0,0 +1,44 @@
+package edu.umass.cs.runner.system.backend.known.mturk;
+
+import com.amazonaws.mturk.requester.Assignment;
+import com.amazonaws.mturk.requester.HIT;
+
+/**
+ * The subset of the MTurk requester API that the runner uses. Implementations must be safe to call from several
+ * threads at once.
+ */
+public interface IRequesterService {
+
+    public HIT getHIT(String hitId);
+
+    public Assignment[] getAllAssignmentsForHIT(String hitId);
+
+    /**
+     * Returns one page of a HIT's submitted, approved and rejected assignments, oldest submission first. Pages are
+     * numbered from 1; a page shorter than pageSize is the last one.
+     */
+    public Assignment[] getAssignmentsForHIT(String hitId, int pageSize, int pageNumber);
+
+    public void extendHIT(String hitId, Integer maxAssignmentsIncrement, Long expirationIncrementInSeconds);
+
+    public void grantBonus(String workerId, double bonusAmount, String assignmentId, String reason);
+
+    public void forceExpireHIT(String hitId);
+
+    public String getWebsiteURL();
+
+    public HIT createHIT(
+            String hitTypeId,
+            String title,
+            String description,
+            String keywords,
+            String question,
+            Double reward,
+            Long assignmentDurationInSeconds,
+            Long autoApprovalDelayInSeconds,
+            Long lifetimeInSeconds,
+            Integer maxAssignments,
+            String requesterAnnotation);
+
+    public void approveAssignment(String assignmentId, String requesterFeedback);
+}
@@ -3,20 +3,26 @@ package edu.umass.cs.runner.system.backend.known.mturk;
 import com.amazonaws.mturk.requester.Assignment;
 import com.amazonaws.mturk.requester.AssignmentStatus;
 import com.amazonaws.mturk.requester.HIT;
-import com.amazonaws.mturk.service.axis.RequesterService;
 import com.amazonaws.mturk.service.exception.InternalServiceException;
 import com.amazonaws.mturk.service.exception.ObjectAlreadyExistsException;
 import com.amazonaws.mturk.service.exception.ObjectDoesNotExistException;
-import com.amazonaws.mturk.util.PropertiesClientConfig;
+import edu.umass.cs.runner.IngestionIndex;
 import edu.umass.cs.runner.system.backend.AbstractResponseManager;
 import edu.umass.cs.runner.Record;
 import edu.umass.cs.runner.Runner;
 import edu.umass.cs.runner.system.backend.ITask;
 import edu.umass.cs.runner.system.Parameters;
 import edu.umass.cs.runner.system.SurveyResponse;
-import edu.umass.cs.surveyman.qc.QCMetrics;
-import edu.umass.cs.surveyman.qc.classifiers.EntropyClassifier;
-import edu.umass.cs.surveyman.qc.classifiers.LogLikelihoodClassifier;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.metrics.Counter;
+import edu.umass.cs.runner.system.metrics.Gauge;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.pipeline.ResponsePipeline;
+import edu.umass.cs.runner.system.scheduling.Backoff;
+import edu.umass.cs.runner.system.scheduling.RateLimiter;
+import edu.umass.cs.runner.system.scheduling.TaskScope;
+import edu.umass.cs.runner.system.scheduling.Workers;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import org.apache.logging.log4j.Logger;
@@ -25,6 +31,7 @@ import org.xml.sax.SAXException;
 import java.io.IOException;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.parsers.ParserConfigurationException;
 import static java.text.MessageFormat.*;
@@ -38,8 +45,32 @@ public class MturkResponseManager extends AbstractResponseManager {
     }
 
     private static final Logger LOGGER = Runner.LOGGER;
-    protected final PropertiesClientConfig config;
-    protected final RequesterService service;
+    private static final Histogram pageLatency = Metrics.histogram("mturk.getassignments.nanos");
+    private static final Counter assignmentsFetched = Metrics.counter("mturk.assignments.fetched");
+    private static final Set<MturkResponseManager> open
+            = Collections.newSetFromMap(new ConcurrentHashMap<MturkResponseManager, Boolean>());
+
+    static {
+        Metrics.gauge("mturk.approvals.outstanding", new Gauge() {
+            @Override
+            public long value() {
+                long outstanding = 0;
+                for (MturkResponseManager manager : open)
+                    outstanding += manager.approver.getOutstanding();
+                return outstanding;
+            }
+        });
+    }
+    public static final int DEFAULT_WORKERS = 8;
+    protected final IRequesterService service;
+    protected final ExecutorService workers;
+    protected final AssignmentApprover approver;
+    protected final BonusPayer bonusPayer;
+    public static final int PAGE_SIZE = 100;
+    /** Assignments being parsed or waiting to be written; they join the survey's ingestion index once written. */
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** The first page of each HIT's assignments that was not full on the last poll. Earlier pages hold no new work. */
+    private final ConcurrentHashMap<String, Integer> pageCursors = new ConcurrentHashMap<String, Integer>();
     final protected static long maxAutoApproveDelay = 2592000l;
     final protected static long minExpirationIncrementInSeconds = 60l;
     final protected static long maxExpirationIncrementInSeconds = 31536000l;
@@ -48,16 +79,36 @@ public class MturkResponseManager extends AbstractResponseManager {
     public MturkResponseManager(
             MturkLibrary lib)
     {
-        this.config = new PropertiesClientConfig(lib.CONFIG);
-        this.config.setServiceURL(lib.MTURK_URL);
-        this.service = new RequesterService(config);
+        this(lib, new AxisRequesterService(lib));
+    }
+
+    public MturkResponseManager(
+            MturkLibrary lib,
+            IRequesterService service)
+    {
+        this.service = new RateLimitedRequesterService(service, RateLimiter.forBackend(KnownBackendType.MTURK, lib));
+        this.workers = Workers.newExecutor("mturk-worker",
+                lib.getIntProperty(Parameters.MTURK_WORKERS, DEFAULT_WORKERS),
+                lib.getBooleanProperty(Parameters.VIRTUAL_THREADS, false));
+        this.approver = new AssignmentApprover(this.service, workers,
+                lib.getIntProperty(Parameters.APPROVAL_RETRIES, AssignmentApprover.DEFAULT_MAX_RETRIES));
+        this.bonusPayer = new BonusPayer(this.service, workers,
+                lib.getIntProperty(Parameters.BONUS_CONCURRENCY, BonusPayer.DEFAULT_CONCURRENCY),
+                lib.getIntProperty(Parameters.APPROVAL_RETRIES, AssignmentApprover.DEFAULT_MAX_RETRIES));
+        open.add(this);
+    }
+
+    private static Backoff newBackoff(
+            int initialSeconds)
+    {
+        return new Backoff(initialSeconds * 1000L, maxwaittime * 1000L);
     }
 
     private static boolean overTime(
             String name,
-            int waittime)
+            Backoff backoff)
     {
-        if (waittime > MturkResponseManager.maxwaittime){
+        if (backoff.exceeded()){
           LOGGER.warn(String.format("Wait time in %s has exceeded max wait time. Cancelling request.", name));
           return true;
         } else return false;
@@ -67,61 +118,85 @@ public class MturkResponseManager extends AbstractResponseManager {
             String taskId)
     {
         String name = "getTask";
-        int waittime = 2;
+        Backoff backoff = newBackoff(2);
         while (true) {
-            synchronized (service) {
-                try {
-                    HIT hit = service.getHIT(taskId);
-                    LOGGER.info(String.format("Retrieved HIT %s", hit.getHITId()));
-                    return new MturkTask(hit);
-                } catch (InternalServiceException ise) {
-                    if (overTime(name, waittime)) {
-                        LOGGER.error(String.format("%s ran over time", name));
-                        return null;
-                    }
-                    LOGGER.warn(format("{0} {1}", name, ise));
-                    chill(waittime);
-                    waittime *= 2;
-                } catch (ObjectDoesNotExistException odnee) {
-                    LOGGER.warn(format("{0} {1}", name, odnee));
+            try {
+                HIT hit = service.getHIT(taskId);
+                LOGGER.info(String.format("Retrieved HIT %s", hit.getHITId()));
+                return new MturkTask(hit);
+            } catch (InternalServiceException ise) {
+                if (overTime(name, backoff)) {
+                    LOGGER.error(String.format("%s ran over time", name));
+                    return null;
                 }
+                LOGGER.warn(format("{0} {1}", name, ise));
+                if (!backoff.pause())
+                    return null;
+            } catch (ObjectDoesNotExistException odnee) {
+                // asking again won't bring it into existence
+                LOGGER.warn(format("{0} {1}", name, odnee));
+                return null;
             }
         }
     }
 
-    private List<Assignment> getAllAssignmentsForHIT(
-            HIT hit)
+    private Assignment[] getAssignmentsPage(
+            String hitId,
+            int pageNumber)
     {
-        String name = "getAllAssignmentsForHIT";
-        int waittime = 2;
+        String name = "getAssignmentsForHIT";
+        Backoff backoff = newBackoff(2);
         while (true) {
-            synchronized (service) {
-                try {
-                    Assignment[] hitAssignments = service.getAllAssignmentsForHIT(hit.getHITId());
-                    List<Assignment> assignments = new LinkedList<Assignment>();
-                    boolean addAll = assignments.addAll(Arrays.asList(hitAssignments));
-                    if (addAll)
-                        LOGGER.info(String.format("Retrieved %d assignments for HIT %s", hitAssignments.length, hit.getHITId()));
-                    return assignments;
-                } catch (InternalServiceException ise) {
-                  LOGGER.warn(format("{0} {1}", name, ise));
-                  chill(waittime);
-                  waittime *= 2;
-                }
+            long start = System.nanoTime();
+            try {
+                Assignment[] assignments = service.getAssignmentsForHIT(hitId, PAGE_SIZE, pageNumber);
+                pageLatency.recordSince(start);
+                return assignments;
+            } catch (InternalServiceException ise) {
+              LOGGER.warn(format("{0} {1}", name, ise));
+              if (!backoff.pause())
+                  return new Assignment[0];
             }
         }
     }
 
+    /**
+     * Fetches the assignments on the pages of this HIT that may hold new submissions. Assignments are listed in
+     * submission order, so pages before the HIT's cursor are full and have already been seen.
+     */
+    private List<Assignment> getNewAssignmentsForHIT(
+            HIT hit)
+    {
+        String hitId = hit.getHITId();
+        Integer cursor = pageCursors.get(hitId);
+        int page = cursor == null ? 1 : cursor;
+        List<Assignment> assignments = new ArrayList<Assignment>();
+        while (true) {
+            Assignment[] pageAssignments = getAssignmentsPage(hitId, page);
+            assignments.addAll(Arrays.asList(pageAssignments));
+            if (pageAssignments.length < PAGE_SIZE)
+                break;
+            page++;
+        }
+        pageCursors.put(hitId, page);
+        assignmentsFetched.add(assignments.size());
+        LOGGER.debug(String.format("Retrieved %d assignments for HIT %s from page %d on", assignments.size(), hitId,
+                cursor == null ? 1 : cursor));
+        return assignments;
+    }
+
     @Override
     public boolean makeTaskAvailable(
             String taskId,
             Record record)
     {
         String name = "makeTaskAvailable";
-        int waitTime = 1;
+        Backoff backoff = newBackoff(1);
         while (true){
             try {
                 MturkTask task = (MturkTask) getTask(taskId);
+                if (task == null)
+                    return false;
                 int currentMaxAssignments = service.getAllAssignmentsForHIT(task.getTaskId()).length;
                 int maxAssignmentsIncrement = Integer.parseInt(record.library.props.getProperty(Parameters.NUM_PARTICIPANTS)) - currentMaxAssignments;
                 long expirationIncrementMillis = task.hit.getExpiration().getTimeInMillis() - System.currentTimeMillis();
@@ -129,10 +204,8 @@ public class MturkResponseManager extends AbstractResponseManager {
                 return true;
             } catch (InternalServiceException ise) {
                 LOGGER.warn(format("{0} {1}", name, ise));
-                if (overTime(name, waitTime))
+                if (overTime(name, backoff) || !backoff.pause())
                     return false;
-                chill(waitTime);
-                waitTime = 2 * waitTime;
             }
         }
     }
@@ -143,42 +216,37 @@ public class MturkResponseManager extends AbstractResponseManager {
             edu.umass.cs.surveyman.analyses.SurveyResponse sr,
             Survey survey)
     {
-        String name = "awardBonus";
-        int waitTime = 1;
-        while (true){
-            try {
-                Record r = getRecord(survey);
-                Runner.LOGGER.info("All tasks for this record:" + r.getAllTasks().length);
-                if (r.getAllTasks().length==0){
-                    Runner.LOGGER.info("No tasks for record " + r.rid);
-                    return;
-                }
-                for (ITask task : r.getAllTasks()) {
-                    Assignment[] assignments = service.getAllAssignmentsForHIT(task.getTaskId());
-                    Runner.LOGGER.info("all assignments for this record:" + assignments.length);
-                    String assignmentId = "";
-                    for (Assignment a : assignments) {
-                        if (a.getWorkerId().equals(sr.getSrid())) {
-                            service.grantBonus(sr.getSrid(), amount, assignmentId, "For partial work completed.");
-                            Runner.LOGGER.info(String.format("Granted worker %s bonus %f for assignment %s in survey %s"
-                                    , sr.getSrid(), amount, assignmentId, survey.sourceName));
-                        }
-                    }
-                }
-            } catch (InternalServiceException ise) {
-                LOGGER.warn(format("{0} {1}", name, ise));
-                if (overTime(name, waitTime)){
+        String workerId = sr instanceof SurveyResponse ? ((SurveyResponse) sr).getWorkerId() : sr.getSrid();
+        payBonuses(survey, Collections.singletonMap(workerId, amount));
+    }
 
-                    return;
-                }
-                chill(waitTime);
-                waitTime = 2 * waitTime;
-            } catch (SurveyException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Pays each worker the given bonus for an assignment they submitted to one of the survey's HITs. Workers already
+     * paid are skipped, so a batch can be rerun after a failure.
+     */
+    public BonusPayer.Result payBonuses(
+            Survey survey,
+            Map<String, Double> bonuses)
+    {
+        try {
+            Record r = getRecord(survey);
+            ITask[] tasks = r.getAllTasks();
+            if (tasks.length == 0) {
+                LOGGER.info("No tasks for record " + r.rid);
+                return new BonusPayer.Result();
             }
+            String[] hitIds = new String[tasks.length];
+            for (int i = 0 ; i < tasks.length ; i++)
+                hitIds[i] = tasks[i].getTaskId();
+            return bonusPayer.pay(survey.sourceName, bonuses, hitIds);
+        } catch (SurveyException e) {
+            LOGGER.error(e);
+        } catch (IOException e) {
+            LOGGER.error(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return new BonusPayer.Result();
     }
 
     @Override
@@ -220,18 +288,18 @@ public class MturkResponseManager extends AbstractResponseManager {
             ITask task)
     {
         String name = "expireHIT";
+        Backoff backoff = newBackoff(1);
         while (true){
-            synchronized (service) {
-                try{
-                    service.forceExpireHIT(task.getTaskId());
-                    return true;
-                }catch(InternalServiceException ise){
-                  LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
-                  chill(1);
-                }catch(ObjectDoesNotExistException odne) {
-                  LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
+            try{
+                service.forceExpireHIT(task.getTaskId());
+                return true;
+            }catch(InternalServiceException ise){
+              LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
+              if (!backoff.pause())
                   return false;
-                }
+            }catch(ObjectDoesNotExistException odne) {
+              LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
+              return false;
             }
         }
     }
@@ -239,14 +307,14 @@ public class MturkResponseManager extends AbstractResponseManager {
     protected String getWebsiteURL()
     {
         String name = "getWebsiteURL";
-        synchronized (service) {
-            while(true) {
-                try {
-                    return service.getWebsiteURL();
-                } catch (InternalServiceException ise) {
-                    LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
-                  chill(3);
-                }
+        Backoff backoff = newBackoff(3);
+        while(true) {
+            try {
+                return service.getWebsiteURL();
+            } catch (InternalServiceException ise) {
+                LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
+                if (!backoff.pause())
+                    return null;
             }
         }
     }
@@ -268,45 +336,42 @@ public class MturkResponseManager extends AbstractResponseManager {
         Runner.LOGGER.info("WebsiteURL:\t"+getWebsiteURL());
         System.out.println(getWebsiteURL());
         String name = "createHIT";
-        int waittime = 1;
-        synchronized (service) {
-            while(true) {
-                try {
-                    HIT hitid = service.createHIT(hitTypeId
-                            , title
-                            , description
-                            , keywords
-                            , xml
-                            , reward
-                            , assignmentDuration
-                            , maxAutoApproveDelay
-                            , lifetime
-                            , assignments
-                            , ""
-                            , null // Qualification requirements
-                            , null
-                        );
-                    return hitid.getHITId();
-                } catch (InternalServiceException ise) {
-                    String info = MessageFormat.format("{0} {1}", name, ise);
-                    LOGGER.info(info);
-                    System.out.println(info);
-                    if (overTime(name, waittime)) {
-                      throw new CreateHITException(title);
-                    }
-                    chill(waittime);
-                    waittime *= 2;
-                } catch (ObjectAlreadyExistsException e) {
-                    LOGGER.info(MessageFormat.format("{0} {1}", name, e));
-                    chill(waittime);
-                    waittime *= 2;
+        Backoff backoff = newBackoff(1);
+        while(true) {
+            try {
+                HIT hitid = service.createHIT(hitTypeId
+                        , title
+                        , description
+                        , keywords
+                        , xml
+                        , reward
+                        , assignmentDuration
+                        , maxAutoApproveDelay
+                        , lifetime
+                        , assignments
+                        , ""
+                    );
+                return hitid.getHITId();
+            } catch (InternalServiceException ise) {
+                String info = MessageFormat.format("{0} {1}", name, ise);
+                LOGGER.info(info);
+                System.out.println(info);
+                if (overTime(name, backoff) || !backoff.pause()) {
+                  throw new CreateHITException(title);
                 }
+            } catch (ObjectAlreadyExistsException e) {
+                LOGGER.info(MessageFormat.format("{0} {1}", name, e));
+                if (!backoff.pause())
+                    throw new CreateHITException(title);
             }
         }
     }
 
     public boolean renewIfExpired(String hitId, Survey survey) throws SurveyException {
-        HIT hit = ((MturkTask) getTask(hitId)).hit;
+        MturkTask task = (MturkTask) getTask(hitId);
+        if (task == null)
+            return false;
+        HIT hit = task.hit;
         Record record;
         try {
             record = getRecord(survey);
@@ -322,138 +387,221 @@ public class MturkResponseManager extends AbstractResponseManager {
 
     public int numAvailableAssignments(ITask task) {
         String name = "availableAssignments";
+        Backoff backoff = newBackoff(1);
         while (true){
-            synchronized (service) {
-                try{
-                    HIT hit = service.getHIT(task.getTaskId());
-                    return hit.getNumberOfAssignmentsAvailable();
-                }catch(InternalServiceException ise){
-                    LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
-                    chill(1);
-                }catch(ObjectDoesNotExistException odne) {
-                    LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
+            try{
+                HIT hit = service.getHIT(task.getTaskId());
+                return hit.getNumberOfAssignmentsAvailable();
+            }catch(InternalServiceException ise){
+                LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
+                if (!backoff.pause())
                     return 0;
-                }
+            }catch(ObjectDoesNotExistException odne) {
+                LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
+                return 0;
             }
         }
     }
 
     public ITask addAssignments(ITask task, int n) {
         Class name = new Object(){}.getClass();
-        int waittime = 1;
+        Backoff backoff = newBackoff(1);
         while (true){
-            synchronized (service) {
-                try{
-                    String id = task.getTaskId();
-                    service.extendHIT(id, n, minExpirationIncrementInSeconds);
-                    return task;
-                }catch(InternalServiceException ise){
-                    LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
-                    if (waittime > maxWaitTimeInSeconds) {
-                        String msg = String.format("WARNING: Exceeded max wait time in %s.%s..."
-                                , name.getEnclosingClass().getName()
-                                , name.getEnclosingMethod().getName());
-                        LOGGER.warn(msg);
-                        System.err.println(msg);
-                    }
-                    chill(waittime);
-                    waittime *= 2;
-                }catch(ObjectDoesNotExistException odne) {
-                    LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
-                    return null;
-                }
-            }
-        }
-    }
-
-    private boolean approveAssignment(String assignmentId) {
-        Class clz = new Object(){}.getClass();
-        int waittime = 1;
-        while (true) {
-            synchronized (service) {
-                try {
-                    service.approveAssignment(assignmentId, "Thank you.");
-                    return true;
-                } catch (InternalServiceException ise) {
-                    if (waittime > maxWaitTimeInSeconds) {
-                        String msg = String.format("WARNING: Exceeded max wait time in %s.%s..."
-                                , clz.getEnclosingClass().getName()
-                                , clz.getEnclosingMethod().getName());
-                        LOGGER.warn(msg);
-                        System.err.println(msg);
-                    }
-                    chill(waittime);
-                    waittime *= 2;
-                } catch(ObjectDoesNotExistException odne) {
-                    LOGGER.warn(MessageFormat.format("{0} {1}", clz, odne));
-                    return false;
+            try{
+                String id = task.getTaskId();
+                service.extendHIT(id, n, minExpirationIncrementInSeconds);
+                return task;
+            }catch(InternalServiceException ise){
+                LOGGER.warn(MessageFormat.format("{0} {1}", name, ise));
+                if (backoff.exceeded()) {
+                    String msg = String.format("WARNING: Exceeded max wait time in %s.%s..."
+                            , name.getEnclosingClass().getName()
+                            , name.getEnclosingMethod().getName());
+                    LOGGER.warn(msg);
+                    System.err.println(msg);
                 }
+                if (!backoff.pause())
+                    return null;
+            }catch(ObjectDoesNotExistException odne) {
+                LOGGER.warn(MessageFormat.format("{0} {1}", name, odne));
+                return null;
             }
         }
     }
 
-    private boolean isValid(
-            SurveyResponse surveyResponse,
-            Record record)
+    @Override
+    public int addResponses(
+            Survey survey,
+            ITask task)
             throws SurveyException
     {
-        String classname = record.classifier.getClass().getName();
-        if (classname.equals(LogLikelihoodClassifier.class.getName()))
-                return record.classifier.classifyResponse(surveyResponse);
-        else if (classname.equals(EntropyClassifier.class.getName()))
-                return record.classifier.classifyResponse(surveyResponse);
-        else throw new RuntimeException("Unknown classifier: "+classname);
+        return addResponses(survey, new ITask[]{ task });
     }
 
+    /**
+     * Fetches the assignments for every task concurrently on the worker pool, then parses and ingests each newly
+     * submitted assignment on its own worker. The fetches and ingests belong to one {@link TaskScope}, so none of
+     * them outlives the poll. Approvals are queued with the {@link AssignmentApprover} and do not hold up polling.
+     */
+    @Override
     public int addResponses(
-            Survey survey,
-            ITask task)
+            final Survey survey,
+            ITask[] tasks)
             throws SurveyException
     {
-        boolean success = false;
-        Record record = null;
+        final Record record;
         try {
             record = AbstractResponseManager.getRecord(survey);
         } catch (IOException e) {
             e.printStackTrace();
+            return -1;
         }
         if (record == null) return -1;
-        // local vars
-        SimpleDateFormat format = new SimpleDateFormat(SurveyResponse.dateFormat);
-        int validResponsesToAdd = 0, botResponsesToAdd = 0;
-
-        while (!success) {
-            HIT hit = ((MturkTask) task).hit;
-            List<Assignment> assignments = getAllAssignmentsForHIT(hit);
-            for (Assignment a : assignments) {
-                synchronized (record) {
-                    if (a.getAssignmentStatus().equals(AssignmentStatus.Submitted)) {
-                        Map<String, String> otherValues = new HashMap<String, String>();
-                        otherValues.put("acceptTime", String.format("%s", format.format(a.getAcceptTime().getTime())));
-                        otherValues.put("submitTime", String.format("%s", format.format(a.getSubmitTime().getTime())));
-                        SurveyResponse sr = parseResponse(a.getWorkerId(), a.getAnswer(), survey, record, otherValues);
-                        assert !sr.otherValues.isEmpty();
-                        boolean valid = isValid(sr, record);
-                        LOGGER.debug(String.format("Response %s valid: %b", sr.getSrid(), valid));
-                        assert valid == (sr.getScore() >= sr.getThreshold());
-                        if (valid) {
-                            record.addValidResponse(sr);
-                            record.removeBotResponse(sr);
-                            validResponsesToAdd++;
-                        } else {
-                            record.addBotResponse(sr);
-                            record.removeValidResponse(sr);
-                            botResponsesToAdd++;
-                        }
-                        approveAssignment(a.getAssignmentId());
+
+        TaskScope scope = new TaskScope(workers);
+        List<Future<Boolean>> ingests = new ArrayList<Future<Boolean>>();
+        List<String> ingesting = new ArrayList<String>();
+        try {
+            List<Future<List<Assignment>>> fetches = new ArrayList<Future<List<Assignment>>>();
+            for (final ITask task : tasks) {
+                fetches.add(scope.fork(new Callable<List<Assignment>>() {
+                    @Override
+                    public List<Assignment> call() {
+                        return getNewAssignmentsForHIT(((MturkTask) task).hit);
                     }
+                }));
+            }
+
+            final IngestionIndex index;
+            try {
+                index = record.getIngestionIndex();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            }
+            for (int i = 0 ; i < tasks.length ; i++) {
+                int submitted = 0;
+                for (final Assignment a : await(fetches.get(i), Collections.<Assignment>emptyList())) {
+                    if (!a.getAssignmentStatus().equals(AssignmentStatus.Submitted)
+                            || index.contains(a.getAssignmentId())
+                            || !inFlight.add(a.getAssignmentId()))
+                        continue;
+                    submitted++;
+                    ingests.add(scope.fork(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws SurveyException, IOException {
+                            boolean queued = false;
+                            try {
+                                queued = ingestAssignment(a, survey, record, index);
+                                return queued;
+                            } finally {
+                                // otherwise the assignment stays in flight until its response has been written
+                                if (!queued)
+                                    inFlight.remove(a.getAssignmentId());
+                            }
+                        }
+                    }));
+                    ingesting.add(a.getAssignmentId());
                 }
+                if (submitted > 0)
+                    LOGGER.info(String.format("%d new responses received for HIT %s.", submitted, tasks[i].getTaskId()));
             }
-            success=true;
+
+            int responsesAdded = 0;
+            for (Future<Boolean> ingest : ingests)
+                if (await(ingest, false))
+                    responsesAdded++;
+            return responsesAdded;
+        } finally {
+            scope.close();
+            // an ingest that never started never cleared its assignment; let the next poll retry it
+            for (int i = 0 ; i < ingests.size() ; i++)
+                if (ingests.get(i).isCancelled())
+                    inFlight.remove(ingesting.get(i));
+        }
+    }
+
+    /**
+     * Parses the assignment and hands its response to the pipeline. Once the response has been written out, the
+     * assignment is added to the index and approved; if ingesting fails, neither happens and a later poll retries it.
+     * @return true if the response was queued.
+     */
+    private boolean ingestAssignment(
+            final Assignment a,
+            Survey survey,
+            Record record,
+            final IngestionIndex index)
+            throws SurveyException,
+            IOException
+    {
+        SimpleDateFormat format = new SimpleDateFormat(SurveyResponse.dateFormat);
+        Map<String, String> otherValues = new HashMap<String, String>();
+        otherValues.put("acceptTime", String.format("%s", format.format(a.getAcceptTime().getTime())));
+        otherValues.put("submitTime", String.format("%s", format.format(a.getSubmitTime().getTime())));
+        // a worker may submit more than one assignment, so the assignment identifies the response
+        SurveyResponse sr = parseResponse(a.getAssignmentId(), a.getAnswer(), survey, record, otherValues);
+        if (sr == null) {
+            LOGGER.warn(String.format("Could not parse assignment %s; it will not be approved", a.getAssignmentId()));
+            // it will never parse, so don't fetch it again on every poll
+            index.add(a.getAssignmentId());
+            return false;
+        }
+        sr.setWorkerId(a.getWorkerId());
+        assert !sr.otherValues.isEmpty();
+        return ingest(record, sr, new ResponsePipeline.PersistListener() {
+            @Override
+            public void persisted(SurveyResponse surveyResponse) {
+                try {
+                    index.add(a.getAssignmentId());
+                } catch (IOException io) {
+                    LOGGER.warn(String.format("Could not index assignment %s: %s", a.getAssignmentId(), io));
+                }
+                inFlight.remove(a.getAssignmentId());
+                approver.approve(a.getAssignmentId());
+            }
+        });
+    }
+
+    private static <T> T await(
+            Future<T> future,
+            T otherwise)
+            throws SurveyException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return otherwise;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SurveyException)
+                throw (SurveyException) e.getCause();
+            LOGGER.warn(e.getCause());
+            return otherwise;
+        }
+    }
+
+    /**
+     * Waits for outstanding approvals, as {@link #flush()} does, then stops the approver and the worker pool.
+     */
+    @Override
+    public void close()
+    {
+        if (!open.remove(this))
+            return;
+        flush();
+        approver.close();
+        workers.shutdown();
+    }
+
+    @Override
+    public void flush()
+    {
+        try {
+            if (!approver.flush(maxWaitTimeInSeconds * 1000))
+                LOGGER.warn(String.format("%d assignments still awaiting approval", approver.getOutstanding()));
+        } catch (InterruptedException e) {
+            LOGGER.warn(e);
         }
-        if (validResponsesToAdd>0 || botResponsesToAdd> 0)
-            LOGGER.info(String.format("%d responses total. %d valid responses added. %d invalid responses added."
-                    , record.getNumValidResponses()+record.getNumBotResponses(), validResponsesToAdd, botResponsesToAdd));
-        return validResponsesToAdd;
     }
 }
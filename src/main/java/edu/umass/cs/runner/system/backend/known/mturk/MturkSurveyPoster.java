@@ -54,7 +54,7 @@ public class MturkSurveyPoster implements ISurveyPoster {
                     props.getProperty(Parameters.TITLE)
                     , props.getProperty(Parameters.DESCRIPTION)
                     , props.getProperty(Parameters.KEYWORDS)
-                    , MturkXML.getXMLString(record.qcMetrics)
+                    , MturkXML.getXMLString(record)
                     , Double.parseDouble(props.getProperty(Parameters.REWARD))
                     , Long.parseLong(props.getProperty(Parameters.ASSIGNMENT_DURATION))
                     , MturkResponseManager.maxAutoApproveDelay
@@ -63,6 +63,8 @@ public class MturkSurveyPoster implements ISurveyPoster {
                     , null //hitTypeId
             );
             MturkTask task = (MturkTask) responseManager.getTask(hitid);
+            if (task == null)
+                return null;
             return new MturkTask(task.hit, record);
         } catch (ParseException e) {
             e.printStackTrace();
@@ -0,0 +1,122 @@
+package edu.umass.cs.runner.system.backend.known.mturk;
+
+import com.amazonaws.mturk.requester.Assignment;
+import com.amazonaws.mturk.requester.HIT;
+import edu.umass.cs.runner.system.scheduling.RateLimiter;
+
+/**
+ * Takes a permit from a {@link RateLimiter} before every call to the wrapped service.
+ */
+public class RateLimitedRequesterService implements IRequesterService {
+
+    private final IRequesterService service;
+    private final RateLimiter limiter;
+
+    public RateLimitedRequesterService(
+            IRequesterService service,
+            RateLimiter limiter)
+    {
+        this.service = service;
+        this.limiter = limiter;
+    }
+
+    private void acquire()
+    {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            // we're shutting down; let the call through rather than fail it
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public HIT getHIT(
+            String hitId)
+    {
+        acquire();
+        return service.getHIT(hitId);
+    }
+
+    @Override
+    public Assignment[] getAllAssignmentsForHIT(
+            String hitId)
+    {
+        acquire();
+        return service.getAllAssignmentsForHIT(hitId);
+    }
+
+    @Override
+    public Assignment[] getAssignmentsForHIT(
+            String hitId,
+            int pageSize,
+            int pageNumber)
+    {
+        acquire();
+        return service.getAssignmentsForHIT(hitId, pageSize, pageNumber);
+    }
+
+    @Override
+    public void extendHIT(
+            String hitId,
+            Integer maxAssignmentsIncrement,
+            Long expirationIncrementInSeconds)
+    {
+        acquire();
+        service.extendHIT(hitId, maxAssignmentsIncrement, expirationIncrementInSeconds);
+    }
+
+    @Override
+    public void grantBonus(
+            String workerId,
+            double bonusAmount,
+            String assignmentId,
+            String reason)
+    {
+        acquire();
+        service.grantBonus(workerId, bonusAmount, assignmentId, reason);
+    }
+
+    @Override
+    public void forceExpireHIT(
+            String hitId)
+    {
+        acquire();
+        service.forceExpireHIT(hitId);
+    }
+
+    @Override
+    public String getWebsiteURL()
+    {
+        return service.getWebsiteURL();
+    }
+
+    @Override
+    public HIT createHIT(
+            String hitTypeId,
+            String title,
+            String description,
+            String keywords,
+            String question,
+            Double reward,
+            Long assignmentDurationInSeconds,
+            Long autoApprovalDelayInSeconds,
+            Long lifetimeInSeconds,
+            Integer maxAssignments,
+            String requesterAnnotation)
+    {
+        acquire();
+        return service.createHIT(hitTypeId, title, description, keywords, question, reward,
+                assignmentDurationInSeconds, autoApprovalDelayInSeconds, lifetimeInSeconds, maxAssignments,
+                requesterAnnotation);
+    }
+
+    @Override
+    public void approveAssignment(
+            String assignmentId,
+            String requesterFeedback)
+    {
+        acquire();
+        service.approveAssignment(assignmentId, requesterFeedback);
+    }
+}
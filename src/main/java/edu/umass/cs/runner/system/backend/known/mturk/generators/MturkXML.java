@@ -1,10 +1,12 @@
 package edu.umass.cs.runner.system.backend.known.mturk.generators;
 
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
 import edu.umass.cs.runner.system.backend.KnownBackendType;
 import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.system.generators.ArtifactCache;
 import edu.umass.cs.runner.system.generators.HTML;
 import edu.umass.cs.runner.system.backend.known.mturk.MturkLibrary;
-import edu.umass.cs.runner.utils.Slurpie;
 import edu.umass.cs.surveyman.qc.QCMetrics;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
@@ -15,11 +17,19 @@ public class MturkXML {
 
     public static final int maxQuestionXMLLength = 131072;
 
-    public static String getXMLString(QCMetrics qcMetrics) throws SurveyException {
+    /**
+     * Renders the survey of an existing record; the record's library supplies the properties.
+     */
+    public static String getXMLString(Record record) throws SurveyException {
         String retval;
         try {
-            Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
-            retval = String.format(Slurpie.slurp(MturkLibrary.XMLSKELETON), HTML.getHTMLString(record, new MturkHTML()));
+            String html = HTML.getHTMLString(record, new MturkHTML());
+            String key = ArtifactCache.key("xml", ArtifactCache.mtime(MturkLibrary.XMLSKELETON), html);
+            retval = ArtifactCache.get(key);
+            if (retval == null) {
+                retval = ArtifactCache.template(MturkLibrary.XMLSKELETON).render(html);
+                ArtifactCache.put(key, retval);
+            }
             if (retval.length() > maxQuestionXMLLength)
                 throw new MaxXMLLengthException(retval.length());
         } catch (FileNotFoundException e1) {
@@ -30,6 +40,23 @@ public class MturkXML {
         return retval;
     }
 
+    /**
+     * Renders the survey using its registered record if there is one, so that no new record (with its output
+     * files and directories) is created just to render.
+     */
+    public static String getXMLString(QCMetrics qcMetrics) throws SurveyException {
+        Record record = null;
+        try {
+            if (qcMetrics.survey.source != null)
+                record = AbstractResponseManager.getRecord(qcMetrics.survey);
+        } catch (IOException e) {
+            Runner.LOGGER.debug(e);
+        }
+        if (record == null || record.backendType != KnownBackendType.MTURK)
+            record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        return getXMLString(record);
+    }
+
 
     public static class MaxXMLLengthException extends SurveyException {
         public MaxXMLLengthException(int stringLength){
@@ -0,0 +1,10 @@
+package edu.umass.cs.runner.system.exceptions;
+
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+public class PipelineFailedException extends SurveyException {
+    public PipelineFailedException(String rid, Throwable cause) {
+        super(String.format("Response pipeline for record %s failed: %s", rid, cause.getMessage()));
+        initCause(cause);
+    }
+}
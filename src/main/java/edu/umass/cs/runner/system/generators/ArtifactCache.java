@@ -0,0 +1,192 @@
+package edu.umass.cs.runner.system.generators;
+
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.utils.Slurpie;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory cache for the rendered survey artifacts (HTML, JS and MTurk XML). Artifacts are content-addressed: the
+ * key is a digest of everything the artifact is rendered from, including the survey's JSON and the modification
+ * times of the templates, so editing custom.js or custom.css is picked up on the next render. Templates are read
+ * and compiled once per modification, and {@link #writeIfChanged(String, String)} only touches the disk when a
+ * file's contents would change.
+ */
+public class ArtifactCache {
+
+    public static final int MAX_ARTIFACTS = 64;
+
+    private static class Source {
+        final long mtime;
+        final String text;
+        Template template;
+        Source(long mtime, String text) {
+            this.mtime = mtime;
+            this.text = text;
+        }
+    }
+
+    private static class SurveyJson {
+        final String json, digest;
+        SurveyJson(String json) {
+            this.json = json;
+            this.digest = DigestUtils.shaHex(json);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Source> sources = new ConcurrentHashMap<String, Source>();
+    private static final Map<Survey, SurveyJson> surveys =
+            Collections.synchronizedMap(new WeakHashMap<Survey, SurveyJson>());
+    private static final Map<String, String> artifacts = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_ARTIFACTS;
+                }
+            });
+    private static final ConcurrentHashMap<String, String> written = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The last modification time of a file or classpath resource, or 0 if it can't be found.
+     */
+    public static long mtime(
+            String name)
+    {
+        URL resource = ArtifactCache.class.getClassLoader().getResource(name);
+        try {
+            if (resource == null)
+                return new File(name).lastModified();
+            else if ("file".equals(resource.getProtocol()))
+                return new File(resource.toURI()).lastModified();
+            else return resource.openConnection().getLastModified();
+        } catch (Exception e) {
+            Runner.LOGGER.debug(String.format("Can't stat %s: %s", name, e));
+            return 0;
+        }
+    }
+
+    private static Source source(
+            String name,
+            boolean ignoreErr)
+            throws IOException
+    {
+        long mtime = mtime(name);
+        Source source = sources.get(name);
+        if (source == null || source.mtime != mtime) {
+            source = new Source(mtime, Slurpie.slurp(name, ignoreErr));
+            sources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * The contents of a file or resource, re-read only when it changes. Missing files read as the empty string.
+     */
+    public static String text(
+            String name)
+            throws IOException
+    {
+        return source(name, true).text;
+    }
+
+    /**
+     * The compiled format template held in a file or resource, recompiled only when it changes.
+     */
+    public static Template template(
+            String name)
+            throws IOException
+    {
+        Source source = source(name, false);
+        if (source.template == null)
+            source.template = new Template(source.text);
+        return source.template;
+    }
+
+    public static String surveyJson(
+            Survey survey)
+            throws SurveyException
+    {
+        return surveyJsonFor(survey).json;
+    }
+
+    public static String surveyDigest(
+            Survey survey)
+            throws SurveyException
+    {
+        return surveyJsonFor(survey).digest;
+    }
+
+    private static SurveyJson surveyJsonFor(
+            Survey survey)
+            throws SurveyException
+    {
+        SurveyJson json = surveys.get(survey);
+        if (json == null) {
+            json = new SurveyJson(survey.jsonize());
+            surveys.put(survey, json);
+        }
+        return json;
+    }
+
+    /**
+     * A content address for an artifact rendered from the given parts.
+     */
+    public static String key(
+            Object... parts)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts)
+            sb.append(part).append('\u0000');
+        return DigestUtils.shaHex(sb.toString());
+    }
+
+    public static String get(
+            String key)
+    {
+        return artifacts.get(key);
+    }
+
+    public static void put(
+            String key,
+            String artifact)
+    {
+        artifacts.put(key, artifact);
+    }
+
+    /**
+     * Writes contents to filename unless this is exactly what was last written there and the file is still present.
+     * @return true if the file was written.
+     */
+    public static boolean writeIfChanged(
+            String filename,
+            String contents)
+            throws IOException
+    {
+        String digest = DigestUtils.shaHex(contents);
+        File file = new File(filename);
+        if (digest.equals(written.get(filename)) && file.exists())
+            return false;
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            bw.write(contents);
+        } finally {
+            bw.close();
+        }
+        written.put(filename, digest);
+        return true;
+    }
+
+    public static void clear()
+    {
+        sources.clear();
+        surveys.clear();
+        artifacts.clear();
+        written.clear();
+    }
+}
@@ -17,7 +17,7 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import edu.umass.cs.runner.Record;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.MalformedURLException;
 
 public class HTML {
@@ -55,16 +55,13 @@ public class HTML {
             IllegalAccessException
     {
         String htmlFileName = Record.getHtmlFileName(survey);
-        Runner.LOGGER.info(String.format("Source html found at %s", htmlFileName));
-        BufferedWriter bw = new BufferedWriter(new FileWriter(htmlFileName));
-        bw.write(html);
-        bw.close();
+        if (ArtifactCache.writeIfChanged(htmlFileName, html))
+            Runner.LOGGER.info(String.format("Source html found at %s", htmlFileName));
     }
 
     private static String cleanedPreview(
-            Record record)
+            String preview)
     {
-        String preview = record.library.props.getProperty("splashpage", "");
         Document doc = Jsoup.parse(preview);
         Element body = doc.body();
         return body.html();
@@ -80,22 +77,34 @@ public class HTML {
             assert record!=null;
             assert(record.library!=null);
             assert(record.library.props!=null);
-            String strPreview = cleanedPreview(record);
+            String splashPage = record.library.props.getProperty("splashpage", "");
             String breakoffMessage = record.breakoffMessage;
-            SurveyDatum preview = AbstractParser.parseComponent(
-                    HTMLDatum.isHTMLComponent(strPreview) ? AbstractLexer.xmlChars2HTML(strPreview) : strPreview,
-                    -1, -1, -1);
-            html = String.format(Slurpie.slurp(AbstractLibrary.HTMLSKELETON)
-                    , record.survey.encoding
-                    , JS.getJSString(record.backendType, record.survey, preview, breakoffMessage)
-                    , stringifyPreview(preview)
-                    , stringify()
-                    , backendHTML.getActionForm(record)
-                    , record.survey.source
-                    , record.outputFileName
-                    , backendHTML.getHTMLString()
-                    , Slurpie.slurp(AbstractLibrary.CUSTOMCSS, true)
-            );
+            String actionForm = backendHTML.getActionForm(record);
+            String backendReferences = backendHTML.getHTMLString();
+            String customCSS = ArtifactCache.text(AbstractLibrary.CUSTOMCSS);
+            String key = ArtifactCache.key("html", record.backendType, ArtifactCache.surveyDigest(record.survey)
+                    , record.survey.encoding, splashPage, breakoffMessage, actionForm, record.survey.source
+                    , record.outputFileName, backendReferences, customCSS
+                    , ArtifactCache.mtime(AbstractLibrary.HTMLSKELETON), ArtifactCache.mtime(AbstractLibrary.JSSKELETON));
+            html = ArtifactCache.get(key);
+            if (html == null) {
+                String strPreview = cleanedPreview(splashPage);
+                SurveyDatum preview = AbstractParser.parseComponent(
+                        HTMLDatum.isHTMLComponent(strPreview) ? AbstractLexer.xmlChars2HTML(strPreview) : strPreview,
+                        -1, -1, -1);
+                html = ArtifactCache.template(AbstractLibrary.HTMLSKELETON).render(
+                        record.survey.encoding
+                        , JS.getJSString(record.backendType, record.survey, preview, breakoffMessage)
+                        , stringifyPreview(preview)
+                        , stringify()
+                        , actionForm
+                        , record.survey.source
+                        , record.outputFileName
+                        , backendReferences
+                        , customCSS
+                );
+                ArtifactCache.put(key, html);
+            }
         } catch (IOException ex) {
             Runner.LOGGER.fatal(ex);
             System.exit(-1);
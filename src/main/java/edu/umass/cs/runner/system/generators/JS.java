@@ -15,6 +15,13 @@ import org.apache.log4j.Logger;
 public class JS {
     
     private static final Logger LOGGER = Logger.getLogger("system.generators");
+    private static final Template READY = new Template("SurveyMan.display.ready(" +
+            "%b, " +
+            "%s, " +
+            "function() { %s }, " +
+            "function() { %s }, " +
+            "%s" +
+            ");");
 
     private static String makePreview(
             SurveyDatum preview)
@@ -39,19 +46,16 @@ public class JS {
     {
         String js = "";
         try {
-            js = String.format("SurveyMan.display.ready(" +
-                            "%b, " +
-                            "%s, " +
-                            "function() { %s }, " +
-                            "function() { %s }, " +
-                            "%s" +
-                            ");",
-                    knownBackendType.equals(KnownBackendType.MTURK),
-                    survey.jsonize(),
-                    makePreview(preview),
-                    Slurpie.slurp(AbstractLibrary.JSSKELETON, true),
-                    breakoffMessage
-            );
+            boolean mturk = knownBackendType.equals(KnownBackendType.MTURK);
+            String loadPreview = makePreview(preview);
+            String customJS = ArtifactCache.text(AbstractLibrary.JSSKELETON);
+            String key = ArtifactCache.key("js", mturk, ArtifactCache.surveyDigest(survey), loadPreview, customJS,
+                    breakoffMessage);
+            js = ArtifactCache.get(key);
+            if (js == null) {
+                js = READY.render(mturk, ArtifactCache.surveyJson(survey), loadPreview, customJS, breakoffMessage);
+                ArtifactCache.put(key, js);
+            }
         } catch (IOException ex) {
             LOGGER.fatal(ex);
             ex.printStackTrace();
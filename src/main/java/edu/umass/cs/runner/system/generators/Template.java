@@ -0,0 +1,100 @@
+package edu.umass.cs.runner.system.generators;
+
+import java.util.ArrayList;
+import java.util.IllegalFormatException;
+import java.util.List;
+
+/**
+ * A format string compiled once into literal segments and argument slots, so that rendering is a single pass of
+ * appends instead of a {@link String#format} parse per call. Only the conversions our skeletons use are compiled:
+ * %s, %b, positional %N$s, %% and %n; %b must be given a Boolean. Any other conversion makes the template fall back
+ * to {@link String#format}.
+ */
+public class Template {
+
+    private final String format;
+    // literals.get(i) is written before the argument in slots[i]; the last literal has no slot after it
+    private final List<String> literals = new ArrayList<String>();
+    private final int[] slots;
+    private final int literalLength;
+    private final boolean compiled;
+
+    public Template(
+            String format)
+    {
+        this.format = format;
+        List<Integer> slotList = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+        int nextArg = 0, length = 0;
+        boolean ok = true;
+        for (int i = 0 ; i < format.length() && ok ; i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i + 1 == format.length()) {
+                ok = false;
+                break;
+            }
+            char next = format.charAt(i + 1);
+            if (next == '%') {
+                literal.append('%');
+                i++;
+            } else if (next == 'n') {
+                literal.append(System.getProperty("line.separator"));
+                i++;
+            } else if (next == 's' || next == 'b') {
+                slotList.add(nextArg++);
+                length += literal.length();
+                literals.add(literal.toString());
+                literal.setLength(0);
+                i++;
+            } else {
+                int j = i + 1;
+                while (j < format.length() && Character.isDigit(format.charAt(j)))
+                    j++;
+                if (j > i + 1 && j + 1 < format.length() && format.charAt(j) == '$' && format.charAt(j + 1) == 's') {
+                    slotList.add(Integer.parseInt(format.substring(i + 1, j)) - 1);
+                    length += literal.length();
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    i = j + 1;
+                } else ok = false;
+            }
+        }
+        length += literal.length();
+        literals.add(literal.toString());
+        this.compiled = ok;
+        this.literalLength = length;
+        this.slots = new int[slotList.size()];
+        for (int i = 0 ; i < slots.length ; i++)
+            slots[i] = slotList.get(i);
+    }
+
+    public String render(
+            Object... args)
+            throws IllegalFormatException
+    {
+        if (!compiled)
+            return String.format(format, args);
+        String[] strings = new String[args.length];
+        int length = literalLength;
+        for (int i = 0 ; i < args.length ; i++) {
+            strings[i] = String.valueOf(args[i]);
+            length += strings[i].length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0 ; i < slots.length ; i++) {
+            if (slots[i] < 0 || slots[i] >= strings.length)
+                return String.format(format, args);
+            sb.append(literals.get(i)).append(strings[slots[i]]);
+        }
+        return sb.append(literals.get(slots.length)).toString();
+    }
+
+    public boolean isCompiled()
+    {
+        return compiled;
+    }
+}
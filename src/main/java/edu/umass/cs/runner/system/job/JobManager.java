@@ -1,6 +1,7 @@
 package edu.umass.cs.runner.system.job;
 
 import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.SurveyResponseReader;
 import edu.umass.cs.runner.system.backend.AbstractLibrary;
 import edu.umass.cs.runner.system.backend.KnownBackendType;
 import edu.umass.cs.runner.Record;
@@ -17,6 +18,7 @@ import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 
 import java.io.*;
+import java.util.Collections;
 
 public class JobManager {
 
@@ -32,8 +34,50 @@ public class JobManager {
             Survey survey)
             throws IOException
     {
-        String entry = String.format("%s,%s,%f\n", sr.getSrid(), survey.sourceName, bonus);
-        dump(AbstractLibrary.BONUS_DATA, entry, true);
+        recordBonus(bonus, sr.getWorkerId(), survey.sourceName);
+    }
+
+    /**
+     * Records that the worker has been paid the bonus for the survey, clearing any pending marker for the payment.
+     */
+    public static void recordBonus(
+            double bonus,
+            String workerId,
+            String sourceName)
+            throws IOException
+    {
+        JobStore.getDefault().update(
+                Collections.singletonMap(JobStore.bonusKey(workerId, sourceName), String.format("%f", bonus)),
+                Collections.singletonList(JobStore.pendingBonusKey(workerId, sourceName)));
+    }
+
+    /**
+     * Records that a bonus payment is about to be attempted, so that a payment cut off by a crash is not repeated
+     * blindly on restart.
+     */
+    public static void recordPendingBonus(
+            double bonus,
+            String workerId,
+            String sourceName)
+            throws IOException
+    {
+        JobStore.getDefault().put(JobStore.pendingBonusKey(workerId, sourceName), String.format("%f", bonus));
+    }
+
+    public static void clearPendingBonus(
+            String workerId,
+            String sourceName)
+            throws IOException
+    {
+        JobStore.getDefault().delete(JobStore.pendingBonusKey(workerId, sourceName));
+    }
+
+    public static boolean bonusPending(
+            String workerId,
+            String sourceName)
+            throws IOException
+    {
+        return JobStore.getDefault().contains(JobStore.pendingBonusKey(workerId, sourceName));
     }
 
     public static boolean bonusPaid(
@@ -41,13 +85,17 @@ public class JobManager {
             Survey survey)
             throws IOException
     {
-        String data = Slurpie.slurp(AbstractLibrary.BONUS_DATA);
-        for (String line : data.split("\n")){
-            String[] pieces = line.split(",");
-            if (pieces[0].equals(sr.getSrid()) && pieces[1].equals(survey.sourceName)) {
-                Runner.LOGGER.info("BONUS PAID for response with id " + sr.getSrid());
-                return true;
-            }
+        return bonusPaid(sr.getWorkerId(), survey.sourceName);
+    }
+
+    public static boolean bonusPaid(
+            String workerId,
+            String sourceName)
+            throws IOException
+    {
+        if (JobStore.getDefault().contains(JobStore.bonusKey(workerId, sourceName))) {
+            Runner.LOGGER.info("BONUS PAID for response with id " + workerId);
+            return true;
         }
         return false;
     }
@@ -83,13 +131,12 @@ public class JobManager {
             KnownBackendType backendType)
     {
         StringBuilder data = new StringBuilder();
-        data.append(makeJobID(survey)).append(",").append(backendType.name());
+        data.append(backendType.name());
         for (ITask task : record.getAllTasks())
             data.append(",").append(task.getTaskId());
-        data.append("\n");
 
         try {
-            dump(AbstractLibrary.UNFINISHED_JOB_FILE, data.toString());
+            JobStore.getDefault().put(JobStore.jobKey(makeJobID(survey)), data.toString());
             return true;
         } catch (IOException ex) {
             Runner.LOGGER.warn(ex);
@@ -126,12 +173,9 @@ public class JobManager {
             throws SystemException
     {
         try {
-            String unfinished = Slurpie.slurp(AbstractLibrary.UNFINISHED_JOB_FILE);
-            for (String line : unfinished.split("\n")) {
-                String[] data = line.split(",");
-                if (data[0].equals(jobId))
-                    return KnownBackendType.valueOf(data[1]);
-            }
+            String job = JobStore.getDefault().get(JobStore.jobKey(jobId));
+            if (job != null)
+                return KnownBackendType.valueOf(job.split(",")[0]);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -145,10 +189,17 @@ public class JobManager {
     {
         record.outputFileName = AbstractLibrary.OUTDIR + AbstractLibrary.fileSep + jobId + ".csv";
         try {
-            String[] responses = Slurpie.slurp(record.outputFileName).split("\n");
             Runner.LOGGER.info(record.outputFileName);
-            SurveyResponse sr = new SurveyResponse(record.survey, "");
-            sr.readSurveyResponses(record.survey, new FileReader(record.outputFileName));
+            SurveyResponseReader reader = new SurveyResponseReader(record.survey,
+                    new BufferedReader(new FileReader(record.outputFileName)));
+            int n = 0;
+            try {
+                while (reader.readNext() != null)
+                    n++;
+            } finally {
+                reader.close();
+            }
+            Runner.LOGGER.info(String.format("Read %d old responses from %s", n, record.outputFileName));
         } catch (IOException io) {
             Runner.LOGGER.info(io);
         }
@@ -161,30 +212,43 @@ public class JobManager {
             throws SystemException,
             SurveyException
     {
+        // one manager looks up every task in the job
+        MturkResponseManager mturkResponseManager = null;
+        LocalResponseManager localResponseManager = null;
         try {
-            String unfinished = Slurpie.slurp(AbstractLibrary.UNFINISHED_JOB_FILE);
-            for (String line : unfinished.split("\n")) {
-                String[] data = line.split(",");
-                if (data[0].equals(jobId)) {
-                    for (int i = 2 ; i < data.length ; i++) {
-                        switch (backendType) {
-                            case MTURK:
-                                MturkTask mturkTask = (MturkTask) new MturkResponseManager(new MturkLibrary()).getTask(data[i]);
-                                mturkTask.setRecord(r);
-                                break;
-                            case LOCALHOST:
-                                LocalTask localTask = (LocalTask) new LocalResponseManager().getTask(data[i]);
-                                localTask.setRecord(r);
+            String job = JobStore.getDefault().get(JobStore.jobKey(jobId));
+            if (job == null)
+                throw new JobSynchronizationException(jobId);
+            String[] data = job.split(",");
+            for (int i = 1 ; i < data.length ; i++) {
+                switch (backendType) {
+                    case MTURK:
+                        if (mturkResponseManager == null)
+                            mturkResponseManager = new MturkResponseManager(new MturkLibrary());
+                        MturkTask mturkTask = (MturkTask) mturkResponseManager.getTask(data[i]);
+                        if (mturkTask == null) {
+                            Runner.LOGGER.warn(String.format("Could not retrieve HIT %s for job %s", data[i], jobId));
+                            break;
                         }
-                    }
-                    // update record
-                    addOldResponses(jobId, r);
-                    return data.length - 2;
+                        mturkTask.setRecord(r);
+                        break;
+                    case LOCALHOST:
+                        if (localResponseManager == null)
+                            localResponseManager = new LocalResponseManager();
+                        LocalTask localTask = (LocalTask) localResponseManager.getTask(data[i]);
+                        localTask.setRecord(r);
                 }
             }
-            throw new JobSynchronizationException(jobId);
+            // update record
+            addOldResponses(jobId, r);
+            return data.length - 1;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (mturkResponseManager != null)
+                mturkResponseManager.close();
+            if (localResponseManager != null)
+                localResponseManager.close();
         }
         return 0;
     }
@@ -193,15 +257,7 @@ public class JobManager {
             String jobId)
     {
         try {
-            String unfinished = Slurpie.slurp(AbstractLibrary.UNFINISHED_JOB_FILE);
-
-            StringBuilder writeMe = new StringBuilder();
-            for (String line : unfinished.split("\n")) {
-                String thisJobId = line.split(",")[0];
-                if (! thisJobId.equals(jobId))
-                    writeMe.append(line).append('\n');
-            }
-            JobManager.dump(AbstractLibrary.UNFINISHED_JOB_FILE, writeMe.toString(), false);
+            JobStore.getDefault().delete(JobStore.jobKey(jobId));
         } catch (IOException ex) {
             Runner.LOGGER.warn(ex);
         }
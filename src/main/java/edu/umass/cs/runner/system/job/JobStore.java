@@ -0,0 +1,325 @@
+package edu.umass.cs.runner.system.job;
+
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.utils.Slurpie;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe key-value store for job state: unfinished jobs, their tasks and paid bonuses. Every update is one
+ * entry appended to a log and forced to disk before {@link #update(Map, Collection)} returns; the live keys are
+ * held in a hash index in memory, so lookups never touch the disk. A log entry is
+ *
+ * <pre>
+ *     length (int) | crc32 of payload (int) | payload: n (int) | n x (op (byte) | key (string) | [value (string)])
+ * </pre>
+ *
+ * where op is PUT or DELETE, so an entry that changes several keys is applied all-or-nothing. On open the log is
+ * replayed; a torn or corrupt entry at the tail (from a crash mid-write) ends the replay, and the store is compacted
+ * into a fresh log holding only the live keys. The first time a store is opened it imports the unfinished jobs and
+ * bonuses from the old flat files.
+ */
+public class JobStore implements Closeable {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    public static final String JOB_PREFIX = "job/";
+    public static final String BONUS_PREFIX = "bonus/";
+    public static final String PENDING_BONUS_PREFIX = "pendingbonus/";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static JobStore defaultStore;
+
+    private final File file;
+    private final Map<String, String> index = new HashMap<String, String>();
+    private FileOutputStream log;
+    private DataOutputStream out;
+
+    public JobStore(
+            File file)
+            throws IOException
+    {
+        this(file, AbstractLibrary.UNFINISHED_JOB_FILE, AbstractLibrary.BONUS_DATA);
+    }
+
+    /**
+     * Opens the store in the given file, importing the old flat files if the store does not exist yet.
+     */
+    public JobStore(
+            File file,
+            String unfinishedJobFile,
+            String bonusFile)
+            throws IOException
+    {
+        this.file = file;
+        boolean existed = file.exists();
+        if (existed)
+            replay();
+        compact();
+        if (!existed)
+            migrate(unfinishedJobFile, bonusFile);
+    }
+
+    /**
+     * The store at {@link AbstractLibrary#JOB_STORE}, opened on first use.
+     */
+    public static synchronized JobStore getDefault()
+            throws IOException
+    {
+        if (defaultStore == null)
+            defaultStore = new JobStore(new File(AbstractLibrary.JOB_STORE));
+        return defaultStore;
+    }
+
+    public static String jobKey(
+            String jobId)
+    {
+        return JOB_PREFIX + jobId;
+    }
+
+    public static String bonusKey(
+            String srid,
+            String sourceName)
+    {
+        return BONUS_PREFIX + srid + "/" + sourceName;
+    }
+
+    public static String pendingBonusKey(
+            String srid,
+            String sourceName)
+    {
+        return PENDING_BONUS_PREFIX + srid + "/" + sourceName;
+    }
+
+    public synchronized String get(
+            String key)
+    {
+        return index.get(key);
+    }
+
+    public synchronized boolean contains(
+            String key)
+    {
+        return index.containsKey(key);
+    }
+
+    /**
+     * The live keys starting with the given prefix.
+     */
+    public synchronized List<String> keys(
+            String prefix)
+    {
+        List<String> keys = new ArrayList<String>();
+        for (String key : index.keySet())
+            if (key.startsWith(prefix))
+                keys.add(key);
+        return keys;
+    }
+
+    public void put(
+            String key,
+            String value)
+            throws IOException
+    {
+        update(Collections.singletonMap(key, value), Collections.<String>emptyList());
+    }
+
+    public void delete(
+            String key)
+            throws IOException
+    {
+        update(Collections.<String, String>emptyMap(), Collections.singletonList(key));
+    }
+
+    /**
+     * Applies the puts and then the deletes as one durable entry.
+     */
+    public synchronized void update(
+            Map<String, String> puts,
+            Collection<String> deletes)
+            throws IOException
+    {
+        if (puts.isEmpty() && deletes.isEmpty())
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(puts.size() + deletes.size());
+        for (Map.Entry<String, String> entry : puts.entrySet()) {
+            payload.writeByte(PUT);
+            writeString(payload, entry.getKey());
+            writeString(payload, entry.getValue());
+        }
+        for (String key : deletes) {
+            payload.writeByte(DELETE);
+            writeString(payload, key);
+        }
+        payload.flush();
+        writeEntry(out, bytes.toByteArray());
+        out.flush();
+        log.getFD().sync();
+        index.putAll(puts);
+        for (String key : deletes)
+            index.remove(key);
+    }
+
+    private static void writeEntry(
+            DataOutputStream stream,
+            byte[] payload)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        stream.writeInt(payload.length);
+        stream.writeInt((int) crc.getValue());
+        stream.write(payload);
+    }
+
+    private void replay()
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int entries = 0;
+        try {
+            while (true) {
+                int length, checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                if (length < 0 || length > file.length()) {
+                    LOGGER.warn(String.format("Corrupt entry %d in %s; ignoring the rest", entries, file));
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException eof) {
+                    LOGGER.warn(String.format("Torn entry %d at the end of %s; ignoring it", entries, file));
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.warn(String.format("Checksum mismatch in entry %d of %s; ignoring the rest", entries, file));
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                entries++;
+            }
+        } finally {
+            in.close();
+        }
+        LOGGER.debug(String.format("Replayed %d entries from %s", entries, file));
+    }
+
+    private void apply(
+            DataInputStream payload)
+            throws IOException
+    {
+        int n = payload.readInt();
+        for (int i = 0 ; i < n ; i++) {
+            byte op = payload.readByte();
+            String key = readString(payload);
+            if (op == PUT)
+                index.put(key, readString(payload));
+            else index.remove(key);
+        }
+    }
+
+    /**
+     * Rewrites the log with one PUT per live key and reopens it for appending.
+     */
+    private synchronized void compact()
+            throws IOException
+    {
+        if (out != null)
+            out.close();
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream tmpStream = new FileOutputStream(tmp);
+        DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(tmpStream));
+        try {
+            if (!index.isEmpty()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream payload = new DataOutputStream(bytes);
+                payload.writeInt(index.size());
+                for (Map.Entry<String, String> entry : index.entrySet()) {
+                    payload.writeByte(PUT);
+                    writeString(payload, entry.getKey());
+                    writeString(payload, entry.getValue());
+                }
+                payload.flush();
+                writeEntry(compacted, bytes.toByteArray());
+            }
+            compacted.flush();
+            tmpStream.getFD().sync();
+        } finally {
+            compacted.close();
+        }
+        if (!tmp.renameTo(file)) {
+            if (!file.delete() || !tmp.renameTo(file))
+                throw new IOException(String.format("Could not replace %s", file));
+        }
+        log = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(log));
+    }
+
+    /**
+     * Imports the unfinished-jobs file (jobid,backend,taskid...) and the bonus file (srid,sourcename,amount).
+     */
+    private void migrate(
+            String unfinishedJobFile,
+            String bonusFile)
+            throws IOException
+    {
+        Map<String, String> puts = new HashMap<String, String>();
+        for (String line : Slurpie.slurp(unfinishedJobFile, true).split("\n")) {
+            int comma = line.indexOf(',');
+            if (comma > 0)
+                puts.put(jobKey(line.substring(0, comma)), line.substring(comma + 1).trim());
+        }
+        int jobs = puts.size();
+        for (String line : Slurpie.slurp(bonusFile, true).split("\n")) {
+            String[] pieces = line.split(",");
+            if (pieces.length >= 3)
+                puts.put(bonusKey(pieces[0], pieces[1]), pieces[2].trim());
+        }
+        update(puts, Collections.<String>emptyList());
+        if (!puts.isEmpty())
+            LOGGER.info(String.format("Imported %d unfinished jobs and %d bonuses into %s",
+                    jobs, puts.size() - jobs, file));
+    }
+
+    private static void writeString(
+            DataOutputStream stream,
+            String s)
+            throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    private static String readString(
+            DataInputStream stream)
+            throws IOException
+    {
+        byte[] bytes = new byte[stream.readInt()];
+        stream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        out.close();
+    }
+}
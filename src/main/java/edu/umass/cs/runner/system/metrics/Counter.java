@@ -0,0 +1,27 @@
+package edu.umass.cs.runner.system.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count.
+ */
+public class Counter {
+
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment()
+    {
+        count.incrementAndGet();
+    }
+
+    public void add(
+            long n)
+    {
+        count.addAndGet(n);
+    }
+
+    public long get()
+    {
+        return count.get();
+    }
+}
@@ -0,0 +1,8 @@
+package edu.umass.cs.runner.system.metrics;
+
+/**
+ * A value read when the metrics are reported, such as a queue depth.
+ */
+public interface Gauge {
+    public long value();
+}
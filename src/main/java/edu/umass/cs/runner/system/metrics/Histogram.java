@@ -0,0 +1,103 @@
+package edu.umass.cs.runner.system.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative longs (latencies in nanoseconds, sizes in bytes), bucketed the way HDR
+ * histograms are: values below 32 get a bucket each, and every power of two above that is split into 16 buckets, so
+ * any recorded value is known to within 1/16 of itself. The 960 buckets cover the whole range of long. Recording
+ * is an index computation and a few atomic increments; it never allocates or blocks.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(
+            long value)
+    {
+        if (value < LINEAR)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * The largest value that falls into the bucket.
+     */
+    static long upperBound(
+            int bucket)
+    {
+        if (bucket < LINEAR)
+            return bucket;
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long mantissa = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void record(
+            long value)
+    {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value))
+            m = max.get();
+    }
+
+    /**
+     * Records the nanoseconds elapsed since start, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(
+            long start)
+    {
+        record(System.nanoTime() - start);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0.0 : sum.get() / (double) n;
+    }
+
+    /**
+     * The smallest bucket bound at or below which the given fraction of the recorded values fall; 0 if nothing has
+     * been recorded. Taken while values are being recorded, the result is approximate.
+     */
+    public long getPercentile(
+            double fraction)
+    {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0 ; i < BUCKETS ; i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+}
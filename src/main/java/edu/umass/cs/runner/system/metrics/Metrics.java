@@ -0,0 +1,157 @@
+package edu.umass.cs.runner.system.metrics;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.output.Json;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The runner's metrics, by name. Code on a hot path looks its counters and histograms up once, into a static field,
+ * and records into them directly; only registration touches the registry. Latency histograms are in nanoseconds and
+ * named *.nanos; size histograms are named *.bytes.
+ *
+ * The metrics are reported as JSON by {@link #toJson()} (the dashboard's ?metrics query) and, once
+ * {@link #registerMBean()} has been called, as attributes of the {@link #OBJECT_NAME} MBean.
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final String OBJECT_NAME = "edu.umass.cs.runner:type=Metrics";
+    static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+    static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99" };
+
+    private static final ConcurrentSkipListMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private static final ConcurrentSkipListMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private static final ConcurrentSkipListMap<String, Histogram> histograms =
+            new ConcurrentSkipListMap<String, Histogram>();
+    private static boolean registered = false;
+
+    public static Counter counter(
+            String name)
+    {
+        Counter counter = counters.get(name);
+        if (counter != null)
+            return counter;
+        counter = new Counter();
+        Counter existing = counters.putIfAbsent(name, counter);
+        return existing == null ? counter : existing;
+    }
+
+    public static Histogram histogram(
+            String name)
+    {
+        Histogram histogram = histograms.get(name);
+        if (histogram != null)
+            return histogram;
+        histogram = new Histogram();
+        Histogram existing = histograms.putIfAbsent(name, histogram);
+        return existing == null ? histogram : existing;
+    }
+
+    /**
+     * Registers the gauge under the name, replacing any gauge already there.
+     */
+    public static void gauge(
+            String name,
+            Gauge gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    static Map<String, Counter> getCounters()
+    {
+        return counters;
+    }
+
+    static Map<String, Gauge> getGauges()
+    {
+        return gauges;
+    }
+
+    static Map<String, Histogram> getHistograms()
+    {
+        return histograms;
+    }
+
+    static long gaugeValue(
+            Gauge gauge)
+    {
+        try {
+            return gauge.value();
+        } catch (RuntimeException e) {
+            LOGGER.debug(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Writes every metric as a JSON object with "counters", "gauges" and "histograms" members.
+     */
+    public static void writeJson(
+            JsonGenerator generator)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("counters");
+        for (Map.Entry<String, Counter> entry : counters.entrySet())
+            generator.writeNumberField(entry.getKey(), entry.getValue().get());
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("gauges");
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet())
+            generator.writeNumberField(entry.getKey(), gaugeValue(entry.getValue()));
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("histograms");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            generator.writeObjectFieldStart(entry.getKey());
+            generator.writeNumberField("count", histogram.getCount());
+            generator.writeNumberField("mean", histogram.getMean());
+            for (int i = 0 ; i < PERCENTILES.length ; i++)
+                generator.writeNumberField(PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]));
+            generator.writeNumberField("max", histogram.getMax());
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    public static String toJson()
+    {
+        StringBuilder sb = new StringBuilder();
+        try {
+            JsonGenerator generator = Json.generator(sb);
+            writeJson(generator);
+            generator.close();
+        } catch (IOException e) {
+            // a StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Exposes the metrics through the platform MBean server. Calling this more than once does nothing.
+     */
+    public static synchronized void registerMBean()
+    {
+        if (registered)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+            registered = true;
+        } catch (JMException e) {
+            LOGGER.warn(String.format("Could not register %s: %s", OBJECT_NAME, e));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package edu.umass.cs.runner.system.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registry as a read-only MBean. Metrics register lazily, so the attribute list is rebuilt each time it is asked
+ * for. Counters and gauges are attributes under their own names; a histogram h contributes h.count, h.mean, h.p50,
+ * h.p90, h.p99 and h.max.
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_FIELDS = { "count", "mean", "p50", "p90", "p99", "max" };
+
+    @Override
+    public Object getAttribute(
+            String attribute)
+            throws AttributeNotFoundException
+    {
+        Counter counter = Metrics.getCounters().get(attribute);
+        if (counter != null)
+            return counter.get();
+        Gauge gauge = Metrics.getGauges().get(attribute);
+        if (gauge != null)
+            return Metrics.gaugeValue(gauge);
+        int dot = attribute.lastIndexOf('.');
+        if (dot > 0) {
+            Histogram histogram = Metrics.getHistograms().get(attribute.substring(0, dot));
+            if (histogram != null) {
+                String field = attribute.substring(dot + 1);
+                if (field.equals("count"))
+                    return histogram.getCount();
+                if (field.equals("mean"))
+                    return histogram.getMean();
+                if (field.equals("max"))
+                    return histogram.getMax();
+                for (int i = 0 ; i < Metrics.PERCENTILE_NAMES.length ; i++)
+                    if (field.equals(Metrics.PERCENTILE_NAMES[i]))
+                        return histogram.getPercentile(Metrics.PERCENTILES[i]);
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(
+            String[] attributes)
+    {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // JMX leaves unknown attributes out of the list
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(
+            Attribute attribute)
+            throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(
+            AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(
+            String actionName,
+            Object[] params,
+            String[] signature)
+            throws MBeanException, ReflectionException
+    {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String name : Metrics.getCounters().keySet())
+            attributes.add(new MBeanAttributeInfo(name, "long", "counter", true, false, false));
+        for (String name : Metrics.getGauges().keySet())
+            attributes.add(new MBeanAttributeInfo(name, "long", "gauge", true, false, false));
+        for (Map.Entry<String, Histogram> entry : Metrics.getHistograms().entrySet())
+            for (String field : HISTOGRAM_FIELDS)
+                attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + field,
+                        field.equals("mean") ? "double" : "long", "histogram " + field, true, false, false));
+        return new MBeanInfo(Metrics.class.getName(), "Runner metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+    }
+}
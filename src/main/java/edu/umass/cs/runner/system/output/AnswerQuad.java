@@ -1,6 +1,10 @@
 package edu.umass.cs.runner.system.output;
 
-public class AnswerQuad {
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+public class AnswerQuad implements JsonWritable {
     public final String quid;
     public final String oid;
     public final int qindexseen;
@@ -18,14 +22,22 @@ public class AnswerQuad {
         this.quid = quid;
     }
 
+    @Override
+    public void writeJson(
+            JsonGenerator generator)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField("quid", this.quid);
+        generator.writeStringField("oid", this.oid);
+        generator.writeNumberField("qindexseen", this.qindexseen);
+        generator.writeNumberField("oindexseen", this.oindexseen);
+        generator.writeEndObject();
+    }
+
     public String jsonize()
     {
-        return String.format("{ \"quid\" : \"%s\", \"oid\" : \"%s\", \"qindexseen\" : %d, \"oindexseen\" : %d}",
-                this.quid,
-                this.oid,
-                this.qindexseen,
-                this.oindexseen
-                );
+        return Json.toString(this);
     }
 
 }
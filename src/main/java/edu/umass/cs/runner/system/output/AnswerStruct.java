@@ -1,22 +1,30 @@
 package edu.umass.cs.runner.system.output;
 
-import org.apache.commons.lang3.StringUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 
-public class AnswerStruct {
+public class AnswerStruct implements JsonWritable {
     public final List<AnswerQuad> answerQuads;
 
     public AnswerStruct(List<AnswerQuad> answerQuads) {
         this.answerQuads = answerQuads;
     }
 
+    @Override
+    public void writeJson(
+            JsonGenerator generator)
+            throws IOException
+    {
+        generator.writeStartArray();
+        for (AnswerQuad answerQuad : this.answerQuads)
+            answerQuad.writeJson(generator);
+        generator.writeEndArray();
+    }
+
     public String jsonize()
     {
-        List<String> strings = new ArrayList<String>();
-        for (AnswerQuad answerQuad: this.answerQuads)
-            strings.add(answerQuad.jsonize());
-        return String.format("[ %s ]", StringUtils.join(strings, ", "));
+        return Json.toString(this);
     }
 }
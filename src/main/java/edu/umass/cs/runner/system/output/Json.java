@@ -0,0 +1,64 @@
+package edu.umass.cs.runner.system.output;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.io.output.StringBuilderWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The shared JSON writer for the output structs. Generators come from one {@link JsonFactory}, which recycles their
+ * internal buffers between uses, and escape every string they write.
+ */
+public class Json {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private Json() {}
+
+    public static JsonGenerator generator(
+            StringBuilder sb)
+            throws IOException
+    {
+        return factory.createGenerator(new StringBuilderWriter(sb));
+    }
+
+    /**
+     * A generator that writes UTF-8 to the stream. Closing it flushes but does not close the stream.
+     */
+    public static JsonGenerator generator(
+            OutputStream out)
+            throws IOException
+    {
+        JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    /**
+     * Appends the struct's JSON to the builder.
+     */
+    public static void write(
+            JsonWritable struct,
+            StringBuilder sb)
+    {
+        try {
+            JsonGenerator generator = generator(sb);
+            struct.writeJson(generator);
+            generator.close();
+        } catch (IOException e) {
+            // a StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toString(
+            JsonWritable struct)
+    {
+        StringBuilder sb = new StringBuilder();
+        write(struct, sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package edu.umass.cs.runner.system.output;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * A struct that can write itself into a JSON stream.
+ */
+public interface JsonWritable {
+
+    public void writeJson(JsonGenerator generator) throws IOException;
+}
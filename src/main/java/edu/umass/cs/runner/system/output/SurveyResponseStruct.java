@@ -1,14 +1,14 @@
 package edu.umass.cs.runner.system.output;
 
-import org.apache.commons.lang3.StringUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class SurveyResponseStruct {
+public class SurveyResponseStruct implements JsonWritable {
     public final String primaryResponseId;
+    public final String workerId;
     public final AnswerStruct answerStruct;
     public final double score;
     public final double threshold;
@@ -17,6 +17,7 @@ public class SurveyResponseStruct {
 
     public SurveyResponseStruct(
             String primaryResponseId,
+            String workerId,
             AnswerStruct answerStruct,
             double score,
             double threshold,
@@ -25,6 +26,7 @@ public class SurveyResponseStruct {
             )
     {
         this.primaryResponseId = primaryResponseId;
+        this.workerId = workerId;
         this.answerStruct = answerStruct;
         this.score = score;
         this.threshold = threshold;
@@ -37,34 +39,63 @@ public class SurveyResponseStruct {
             AnswerStruct answerStruct,
             double score,
             double threshold,
+            boolean classification,
+            Map<String, String> otherValues
+            )
+    {
+        this(primaryResponseId, null, answerStruct, score, threshold, classification, otherValues);
+    }
+
+    public SurveyResponseStruct(
+            String primaryResponseId,
+            String workerId,
+            AnswerStruct answerStruct,
+            double score,
+            double threshold,
             boolean classification)
     {
-        this(primaryResponseId, answerStruct, score, threshold, classification, new HashMap<String, String>());
+        this(primaryResponseId, workerId, answerStruct, score, threshold, classification, new HashMap<String, String>());
     }
 
-    public String jsonize()
+    public SurveyResponseStruct(
+            String primaryResponseId,
+            AnswerStruct answerStruct,
+            double score,
+            double threshold,
+            boolean classification)
+    {
+        this(primaryResponseId, null, answerStruct, score, threshold, classification);
+    }
+
+    /**
+     * Writes the response as an object with srid, workerid (when known), answers, score, threshold and classification,
+     * and otherValues when the backend returned any.
+     */
+    @Override
+    public void writeJson(
+            JsonGenerator generator)
+            throws IOException
     {
-        List<String> strings = new ArrayList<String>();
-        for (Map.Entry<String, String> entry : this.otherValues.entrySet()) {
-            strings.add(String.format("\"%s\" : \"%s\"", entry.getKey(), entry.getValue()));
+        generator.writeStartObject();
+        generator.writeStringField("srid", this.primaryResponseId);
+        if (this.workerId != null)
+            generator.writeStringField("workerid", this.workerId);
+        generator.writeFieldName("answers");
+        this.answerStruct.writeJson(generator);
+        generator.writeNumberField("score", this.score);
+        generator.writeNumberField("threshold", this.threshold);
+        generator.writeBooleanField("classification", this.classification);
+        if (!this.otherValues.isEmpty()) {
+            generator.writeObjectFieldStart("otherValues");
+            for (Map.Entry<String, String> entry : this.otherValues.entrySet())
+                generator.writeStringField(entry.getKey(), entry.getValue());
+            generator.writeEndObject();
         }
-        String other = "";
-        if (!strings.isEmpty())
-            other = ", { " + StringUtils.join(strings, ", ") + "}";
-        return String.format("{ " +
-                "\"srid\" : \"%s\", " +
-                "\"answers\"  : %s, " +
-                "\"score\" : %f, " +
-                "\"threshold\" : %f, " +
-                "\"classification\" : %b" +
-                " %s" +
-                "}",
-                this.primaryResponseId,
-                this.answerStruct.jsonize(),
-                this.score,
-                this.threshold,
-                this.classification,
-                other
-                );
+        generator.writeEndObject();
+    }
+
+    public String jsonize()
+    {
+        return Json.toString(this);
     }
 }
@@ -0,0 +1,183 @@
+package edu.umass.cs.runner.system.pipeline;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.ResponseRowEncoder;
+import edu.umass.cs.runner.ResponseWriter;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.metrics.Counter;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Append-only journal of a Record's responses. The journal keeps a single channel open on the Record's output file
+ * for its lifetime. Each call to {@link #append(List)} encodes only the responses it is given, through the survey's
+ * {@link ResponseRowEncoder}, into a reusable buffer and writes them in one pass, so the cost of a write is
+ * proportional to the number of new responses.
+ *
+ * The channel is forced to disk once syncEveryRecords responses have been appended since the last sync, or once
+ * syncEveryMillis milliseconds have passed with unsynced data, whichever comes first.
+ */
+public class ResponseJournal implements Closeable {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_SYNC_RECORDS = 64;
+    public static final int DEFAULT_SYNC_MILLIS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Histogram appendLatency = Metrics.histogram("journal.append.nanos");
+    private static final Histogram syncLatency = Metrics.histogram("journal.sync.nanos");
+    private static final Counter rowsWritten = Metrics.counter("journal.rows");
+
+    private final Record record;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ResponseRowEncoder rowEncoder;
+    private final StringBuilder rows = new StringBuilder(BUFFER_SIZE);
+    private final int syncEveryRecords;
+    private final long syncEveryMillis;
+    private int unsyncedRecords = 0;
+    private long lastSync = System.currentTimeMillis();
+    private long recordsWritten = 0;
+
+    public ResponseJournal(
+            Record record,
+            int syncEveryRecords,
+            long syncEveryMillis)
+            throws IOException
+    {
+        this.record = record;
+        this.rowEncoder = ResponseRowEncoder.forSurvey(record.survey);
+        this.syncEveryRecords = syncEveryRecords;
+        this.syncEveryMillis = syncEveryMillis;
+        this.channel = FileChannel.open(new File(record.outputFileName).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (this.channel.size() == 0) {
+            put(ResponseWriter.outputHeaders(record.survey, record.library.getBackendHeaders()));
+            drain();
+        }
+    }
+
+    public ResponseJournal(
+            Record record)
+            throws IOException
+    {
+        this(record,
+                record.library.getIntProperty(Parameters.JOURNAL_SYNC_RECORDS, DEFAULT_SYNC_RECORDS),
+                record.library.getIntProperty(Parameters.JOURNAL_SYNC_MILLIS, DEFAULT_SYNC_MILLIS));
+    }
+
+    /**
+     * Appends the given responses to the output file and marks them as recorded.
+     */
+    public synchronized void append(
+            List<SurveyResponse> surveyResponses)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        for (SurveyResponse sr : surveyResponses) {
+            assert sr.resultsAsMap().size() > 0 : String.format(
+                    "Respondent %s should have answered at least 1 question.",
+                    sr.getSrid());
+            rows.setLength(0);
+            rowEncoder.encode(sr, rows);
+            put(rows);
+        }
+        drain();
+        appendLatency.recordSince(start);
+        rowsWritten.add(surveyResponses.size());
+        for (SurveyResponse sr : surveyResponses)
+            sr.setRecorded(true);
+        recordsWritten += surveyResponses.size();
+        unsyncedRecords += surveyResponses.size();
+        LOGGER.debug(String.format("Journaled %d responses for record %s (%d total)",
+                surveyResponses.size(), record.rid, recordsWritten));
+        if (unsyncedRecords >= syncEveryRecords)
+            sync();
+        else maybeSync();
+    }
+
+    /**
+     * Forces the channel if there is unsynced data older than the sync interval. The writer calls this while idle,
+     * so that the time bound holds even when no new responses arrive.
+     */
+    public synchronized void maybeSync()
+            throws IOException
+    {
+        if (unsyncedRecords > 0 && System.currentTimeMillis() - lastSync >= syncEveryMillis)
+            sync();
+    }
+
+    public synchronized void sync()
+            throws IOException
+    {
+        long start = System.nanoTime();
+        drain();
+        channel.force(false);
+        syncLatency.recordSince(start);
+        unsyncedRecords = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    public synchronized long getRecordsWritten()
+    {
+        return recordsWritten;
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        if (!channel.isOpen())
+            return;
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void put(
+            CharSequence s)
+            throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(s);
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isError())
+                result.throwException();
+            if (result.isOverflow())
+                drain();
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            if (result.isOverflow())
+                drain();
+        } while (result.isOverflow());
+    }
+
+    private void drain()
+            throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,339 @@
+package edu.umass.cs.runner.system.pipeline;
+
+import edu.umass.cs.runner.ColumnarExport;
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
+import edu.umass.cs.runner.system.exceptions.PipelineFailedException;
+import edu.umass.cs.runner.system.metrics.Gauge;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves responses from the backend to disk in two stages. Response managers {@link #submit(SurveyResponse)} parsed
+ * responses onto a bounded queue; the classifier stage classifies them and files them in the Record; the writer
+ * stage appends the classified responses to the Record's {@link ResponseJournal}. Both stages block while their
+ * queues are empty. Once {@link #close()} is called no more responses are accepted, and the stages exit after
+ * draining whatever is still queued; the writer then saves a {@link ColumnarExport} next to the CSV unless the
+ * columnarexport property is false.
+ *
+ * A response can be submitted with a {@link PersistListener}, which the writer calls once the response has been
+ * appended to the journal; backends use it to acknowledge a response only after it is on disk.
+ *
+ * A response the classifier throws on is filed as a bot. If the writer cannot write to the journal, or the classifier
+ * stage dies, the pipeline fails: both stages stop, the responses still queued are dropped (their listeners are never
+ * called), and {@link #submit(SurveyResponse)} and {@link #join()} throw a {@link PipelineFailedException}.
+ */
+public class ResponsePipeline {
+
+    /**
+     * Told when a response has been appended to the journal. Called on the writer's thread.
+     */
+    public interface PersistListener {
+        void persisted(SurveyResponse surveyResponse);
+    }
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final long STAGE_POLL_MILLIS = 250;
+    private static final Histogram classifyLatency = Metrics.histogram("pipeline.classify.nanos");
+
+    static {
+        Metrics.gauge("pipeline.unclassified", new Gauge() {
+            @Override
+            public long value() {
+                long depth = 0;
+                for (ResponsePipeline pipeline : AbstractResponseManager.getPipelines())
+                    depth += pipeline.getUnclassifiedDepth();
+                return depth;
+            }
+        });
+        Metrics.gauge("pipeline.classified", new Gauge() {
+            @Override
+            public long value() {
+                long depth = 0;
+                for (ResponsePipeline pipeline : AbstractResponseManager.getPipelines())
+                    depth += pipeline.getClassifiedDepth();
+                return depth;
+            }
+        });
+    }
+
+    private final Record record;
+    private final BlockingQueue<SurveyResponse> unclassified;
+    private final BlockingQueue<SurveyResponse> classified;
+    private final Thread classifierStage;
+    private final Thread writerStage;
+    private volatile boolean started = false;
+    private volatile boolean closed = false;
+    private volatile Exception failure = null;
+    private final ConcurrentHashMap<String, PersistListener> persistListeners
+            = new ConcurrentHashMap<String, PersistListener>();
+
+    public ResponsePipeline(
+            Record record,
+            int capacity)
+    {
+        this.record = record;
+        this.unclassified = new ArrayBlockingQueue<SurveyResponse>(capacity);
+        this.classified = new ArrayBlockingQueue<SurveyResponse>(capacity);
+        this.classifierStage = makeClassifierStage();
+        this.writerStage = makeWriterStage();
+    }
+
+    public ResponsePipeline(
+            Record record)
+    {
+        this(record, record.library.getIntProperty(Parameters.PIPELINE_CAPACITY, DEFAULT_CAPACITY));
+    }
+
+    public void start()
+    {
+        started = true;
+        classifierStage.start();
+        writerStage.start();
+    }
+
+    /**
+     * Enqueues a parsed response for classification, blocking while the pipeline is full.
+     * @return false if the pipeline has been closed or the caller was interrupted while waiting.
+     * @throws PipelineFailedException if the pipeline has failed, so the response could not be written.
+     */
+    public boolean submit(
+            SurveyResponse surveyResponse)
+            throws PipelineFailedException
+    {
+        return submit(surveyResponse, null);
+    }
+
+    /**
+     * Enqueues a parsed response, as {@link #submit(SurveyResponse)} does. If the response is accepted, the listener
+     * (if not null) is called once it has been written to the journal.
+     */
+    public boolean submit(
+            SurveyResponse surveyResponse,
+            PersistListener listener)
+            throws PipelineFailedException
+    {
+        checkFailure();
+        if (closed) {
+            LOGGER.warn(String.format("Pipeline for record %s is closed; dropping response %s",
+                    record.rid, surveyResponse.getSrid()));
+            return false;
+        }
+        if (listener != null)
+            persistListeners.put(surveyResponse.getSrid(), listener);
+        boolean queued = false;
+        try {
+            // a failed pipeline no longer drains its queue, so don't wait on it indefinitely
+            while (!unclassified.offer(surveyResponse, STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkClassifierStage();
+                checkFailure();
+            }
+            // the pipeline may have failed, and dropped the response, while it was being queued
+            checkFailure();
+            queued = true;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (!queued && listener != null)
+                persistListeners.remove(surveyResponse.getSrid());
+        }
+    }
+
+    /**
+     * Stops accepting responses. The stages drain their queues before exiting.
+     */
+    public void close()
+    {
+        closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Waits for both stages to exit.
+     * @throws PipelineFailedException if the pipeline failed before all its responses were written.
+     */
+    public void join()
+            throws InterruptedException,
+            PipelineFailedException
+    {
+        classifierStage.join();
+        writerStage.join();
+        checkFailure();
+    }
+
+    public boolean hasFailed()
+    {
+        return failure != null;
+    }
+
+    private void checkFailure()
+            throws PipelineFailedException
+    {
+        if (failure != null)
+            throw new PipelineFailedException(record.rid, failure);
+    }
+
+    /**
+     * Fails the pipeline if its classifier stage has exited while it is still accepting responses, which only
+     * happens when the stage died; nothing would ever drain the queue again.
+     */
+    private void checkClassifierStage()
+    {
+        if (started && !closed && failure == null && !classifierStage.isAlive())
+            fail(String.format("Classifier stage for record %s exited", record.rid),
+                    new IllegalStateException(String.format("%s is not running", classifierStage.getName())));
+    }
+
+    private void fail(
+            String reason,
+            Exception e)
+    {
+        failure = e;
+        int dropped = unclassified.size() + classified.size();
+        unclassified.clear();
+        classified.clear();
+        persistListeners.clear();
+        LOGGER.fatal(String.format("%s; dropping %d queued responses", reason, dropped));
+        LOGGER.fatal(e);
+    }
+
+    public int getUnclassifiedDepth()
+    {
+        return unclassified.size();
+    }
+
+    public int getClassifiedDepth()
+    {
+        return classified.size();
+    }
+
+    private void classify(
+            SurveyResponse sr)
+    {
+        try {
+            long start = System.nanoTime();
+            boolean valid = record.classifier.classifyResponse(sr);
+            classifyLatency.recordSince(start);
+            LOGGER.debug(String.format("Response %s valid: %b", sr.getSrid(), valid));
+            if (valid)
+                record.addValidResponse(sr);
+            else record.addBotResponse(sr);
+            LOGGER.info(String.format("%d responses total. %d valid."
+                    , record.getNumValidResponses() + record.getNumBotResponses()
+                    , record.getNumValidResponses()));
+        } catch (SurveyException | RuntimeException e) {
+            // a response the classifier can't handle is not evidence of a valid respondent
+            LOGGER.warn(String.format("Could not classify response %s; filing it as a bot", sr.getSrid()));
+            LOGGER.warn(e);
+            record.addBotResponse(sr);
+        }
+    }
+
+    private Thread makeClassifierStage()
+    {
+        return new Thread(String.format("classifier-%s", record.rid)) {
+            @Override
+            public void run() {
+                try {
+                    while ((!closed || !unclassified.isEmpty()) && failure == null) {
+                        SurveyResponse sr = unclassified.poll(STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (sr == null)
+                            continue;
+                        classify(sr);
+                        while (!classified.offer(sr, STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS))
+                            if (failure != null)
+                                return;
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.warn(e);
+                } catch (RuntimeException e) {
+                    fail(String.format("Classifier stage for record %s failed", record.rid), e);
+                }
+            }
+        };
+    }
+
+    private void persisted(
+            List<SurveyResponse> batch)
+    {
+        for (SurveyResponse sr : batch) {
+            PersistListener listener = persistListeners.remove(sr.getSrid());
+            if (listener == null)
+                continue;
+            try {
+                listener.persisted(sr);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e);
+            }
+        }
+    }
+
+    private void exportColumns()
+    {
+        if (record.library != null && !record.library.getBooleanProperty(Parameters.COLUMNAR_EXPORT, true))
+            return;
+        try {
+            ColumnarExport.write(record);
+        } catch (IOException io) {
+            LOGGER.warn(String.format("Could not export columns for %s", record.outputFileName));
+            LOGGER.warn(io);
+        }
+    }
+
+    private Thread makeWriterStage()
+    {
+        return new Thread(String.format("writer-%s", record.rid)) {
+            @Override
+            public void run() {
+                List<SurveyResponse> batch = new ArrayList<SurveyResponse>();
+                ResponseJournal journal = null;
+                try {
+                    journal = new ResponseJournal(record);
+                    while (classifierStage.isAlive() || !classified.isEmpty()) {
+                        SurveyResponse sr = classified.poll(STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (sr == null) {
+                            journal.maybeSync();
+                            continue;
+                        }
+                        batch.add(sr);
+                        classified.drainTo(batch);
+                        journal.append(batch);
+                        persisted(batch);
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.warn(e);
+                } catch (IOException io) {
+                    fail(String.format("Could not write responses to %s", record.outputFileName), io);
+                } finally {
+                    try {
+                        if (journal != null) journal.close();
+                    } catch (IOException io) {
+                        LOGGER.warn(io);
+                    }
+                    exportColumns();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package edu.umass.cs.runner.system.scheduling;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for retrying backend calls. Each {@link #pause()} sleeps for a random time between
+ * half of and the full current delay, then doubles the delay. Sleeps are capped at the maximum delay; once the
+ * uncapped delay has passed the maximum, {@link #exceeded()} reports that the caller has waited long enough, and the
+ * delay stops growing.
+ */
+public class Backoff {
+
+    private final long maxMillis;
+    private long delayMillis;
+    private long totalWaitMillis = 0;
+    private int attempts = 0;
+
+    public Backoff(
+            long initialMillis,
+            long maxMillis)
+    {
+        this.delayMillis = initialMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return false if the thread was interrupted while sleeping, in which case its interrupt status is restored and
+     * the caller should stop retrying.
+     */
+    public boolean pause()
+    {
+        long cap = Math.min(delayMillis, maxMillis);
+        long sleep = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        attempts++;
+        // past the maximum, doubling would only head for overflow
+        if (delayMillis <= maxMillis)
+            delayMillis *= 2;
+        try {
+            Thread.sleep(sleep);
+            totalWaitMillis += sleep;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public boolean exceeded()
+    {
+        return delayMillis > maxMillis;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public long getTotalWaitMillis()
+    {
+        return totalWaitMillis;
+    }
+}
@@ -0,0 +1,196 @@
+package edu.umass.cs.runner.system.scheduling;
+
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.system.BoxedBool;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a survey's polling loop. The interval between polls adapts to the traffic: it is halved (down to the minimum)
+ * after a poll that brought in responses, and grows by half (up to the maximum) after an empty poll, so that an idle
+ * survey is polled rarely and a busy one promptly. Failed polls double the interval. Each wait is jittered so that
+ * surveys started together don't poll in lockstep. Polls take no {@link RateLimiter} permits of their own; the
+ * response managers take one for each backend call a poll makes. Poll latencies go to the backend's
+ * poll.&lt;backend&gt;.nanos histogram.
+ */
+public class PollScheduler {
+
+    /**
+     * One round of polling.
+     */
+    public interface Poll {
+        /**
+         * @return the number of responses added, or a negative number if the poll failed.
+         */
+        public int poll() throws Exception;
+    }
+
+    private static final Logger LOGGER = Runner.LOGGER;
+    public static final int DEFAULT_MIN_INTERVAL = 2000;
+    public static final int DEFAULT_MAX_INTERVAL = 30000;
+    public static final double DEFAULT_JITTER = 0.2;
+    private static final double SMOOTHING = 0.3;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final double jitter;
+    private final Histogram latency;
+    private volatile long interval;
+    private volatile double pollRate = 0;
+    private volatile double responseRate = 0;
+    private volatile long lastPollDurationMillis = 0;
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong failedPolls = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private long lastPollStart = 0;
+
+    public PollScheduler(
+            long minInterval,
+            long maxInterval,
+            double jitter)
+    {
+        this(minInterval, maxInterval, jitter, Metrics.histogram("poll.nanos"));
+    }
+
+    PollScheduler(
+            long minInterval,
+            long maxInterval,
+            double jitter,
+            Histogram latency)
+    {
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.jitter = jitter;
+        this.latency = latency;
+        this.interval = minInterval;
+    }
+
+    public static PollScheduler forBackend(
+            KnownBackendType backendType,
+            AbstractLibrary library)
+    {
+        long min = DEFAULT_MIN_INTERVAL, max = DEFAULT_MAX_INTERVAL;
+        if (library != null) {
+            min = library.getIntProperty(Parameters.POLL_INTERVAL, DEFAULT_MIN_INTERVAL);
+            max = library.getIntProperty(Parameters.POLL_INTERVAL_MAX, DEFAULT_MAX_INTERVAL);
+        }
+        String metric = String.format("poll.%s.nanos", String.valueOf(backendType).toLowerCase());
+        return new PollScheduler(min, max, DEFAULT_JITTER, Metrics.histogram(metric));
+    }
+
+    /**
+     * Polls until the interrupt is set. The interrupt also cuts short the wait between polls.
+     */
+    public void run(
+            Poll poll,
+            BoxedBool interrupt)
+            throws InterruptedException
+    {
+        while (!interrupt.awaitInterrupt(pollOnce(poll)));
+    }
+
+    /**
+     * Runs a single round of polling, for callers that schedule the rounds themselves.
+     * @return how long to wait before the next round, in milliseconds.
+     */
+    public long pollOnce(
+            Poll poll)
+            throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        int added;
+        try {
+            added = poll.poll();
+        } catch (Exception e) {
+            LOGGER.warn(e);
+            added = -1;
+        }
+        latency.recordSince(startNanos);
+        record(start, added);
+        return nextDelay();
+    }
+
+    private void record(
+            long start,
+            int added)
+    {
+        long now = System.currentTimeMillis();
+        lastPollDurationMillis = now - start;
+        polls.incrementAndGet();
+        if (lastPollStart > 0) {
+            double seconds = Math.max(1, start - lastPollStart) / 1000.0;
+            pollRate = SMOOTHING / seconds + (1 - SMOOTHING) * pollRate;
+            responseRate = SMOOTHING * Math.max(0, added) / seconds + (1 - SMOOTHING) * responseRate;
+        }
+        lastPollStart = start;
+        if (added > 0) {
+            responses.addAndGet(added);
+            interval = Math.max(minInterval, interval / 2);
+        } else if (added == 0) {
+            emptyPolls.incrementAndGet();
+            interval = Math.min(maxInterval, interval + interval / 2);
+        } else {
+            failedPolls.incrementAndGet();
+            interval = Math.min(maxInterval, interval * 2);
+        }
+        LOGGER.debug(String.format("Poll added %d responses in %d ms; next poll in about %d ms",
+                added, lastPollDurationMillis, interval));
+    }
+
+    long nextDelay()
+    {
+        double spread = jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (interval * (1 + spread)));
+    }
+
+    public long getIntervalMillis()
+    {
+        return interval;
+    }
+
+    /** Smoothed polls per second. */
+    public double getPollRate()
+    {
+        return pollRate;
+    }
+
+    /** Smoothed responses added per second. */
+    public double getResponseRate()
+    {
+        return responseRate;
+    }
+
+    public long getLastPollDurationMillis()
+    {
+        return lastPollDurationMillis;
+    }
+
+    public long getPolls()
+    {
+        return polls.get();
+    }
+
+    public long getEmptyPolls()
+    {
+        return emptyPolls.get();
+    }
+
+    public long getFailedPolls()
+    {
+        return failedPolls.get();
+    }
+
+    public long getResponses()
+    {
+        return responses.get();
+    }
+}
@@ -0,0 +1,108 @@
+package edu.umass.cs.runner.system.scheduling;
+
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting how often a backend is called. Permits accrue at a fixed rate up to a burst size;
+ * {@link #acquire()} blocks until a permit is available.
+ */
+public class RateLimiter {
+
+    public static final int DEFAULT_MTURK_RATE = 5;
+    public static final int DEFAULT_LOCALHOST_RATE = 100;
+
+    private static final ConcurrentHashMap<KnownBackendType, RateLimiter> limiters =
+            new ConcurrentHashMap<KnownBackendType, RateLimiter>();
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private double permits;
+    private long lastRefill = System.nanoTime();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    public RateLimiter(
+            double permitsPerSecond,
+            double burst)
+    {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.permits = burst;
+    }
+
+    /**
+     * The limiter shared by every caller of the given backend. The rate is read from the ratelimit property of the
+     * first library to ask for it.
+     */
+    public static RateLimiter forBackend(
+            KnownBackendType backendType,
+            AbstractLibrary library)
+    {
+        RateLimiter limiter = limiters.get(backendType);
+        if (limiter != null)
+            return limiter;
+        int defaultRate = backendType == KnownBackendType.MTURK ? DEFAULT_MTURK_RATE : DEFAULT_LOCALHOST_RATE;
+        int rate = library == null ? defaultRate : library.getIntProperty(Parameters.RATE_LIMIT, defaultRate);
+        limiter = new RateLimiter(rate, Math.max(1, rate));
+        RateLimiter existing = limiters.putIfAbsent(backendType, limiter);
+        return existing == null ? limiter : existing;
+    }
+
+    public void acquire()
+            throws InterruptedException
+    {
+        long waited = 0;
+        while (true) {
+            long sleepNanos;
+            synchronized (this) {
+                refill();
+                if (permits >= 1) {
+                    permits -= 1;
+                    break;
+                }
+                sleepNanos = (long) ((1 - permits) / permitsPerSecond * 1e9);
+            }
+            Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            waited += sleepNanos;
+        }
+        acquired.incrementAndGet();
+        waitedNanos.addAndGet(waited);
+    }
+
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+        if (permits < 1)
+            return false;
+        permits -= 1;
+        acquired.incrementAndGet();
+        return true;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefill) / 1e9 * permitsPerSecond);
+        lastRefill = now;
+    }
+
+    public double getPermitsPerSecond()
+    {
+        return permitsPerSecond;
+    }
+
+    public long getAcquired()
+    {
+        return acquired.get();
+    }
+
+    public long getWaitedMillis()
+    {
+        return waitedNanos.get() / 1000000;
+    }
+}
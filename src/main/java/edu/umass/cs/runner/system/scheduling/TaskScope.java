@@ -0,0 +1,127 @@
+package edu.umass.cs.runner.system.scheduling;
+
+import edu.umass.cs.runner.Runner;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A group of tasks forked onto an executor that do not outlive the block that forked them. {@link #join()} waits for
+ * every task; {@link #close()}, called in a finally block, cancels the tasks that have not started and waits for the
+ * ones that have. So when the caller leaves the block -- normally, by an exception, or because it was interrupted --
+ * each of its tasks has either finished or never run. Running tasks are not interrupted, since a backend call cut off
+ * halfway leaves us not knowing whether it took effect. Tasks should be forked from the owning thread.
+ */
+public class TaskScope implements AutoCloseable {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    private final ExecutorService executor;
+    private final List<Future<?>> forks = new ArrayList<Future<?>>();
+    private int active = 0;
+    private boolean closed = false;
+
+    public TaskScope(
+            ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    public <T> Future<T> fork(
+            final Callable<T> task)
+    {
+        Future<T> future = executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (!enter())
+                    throw new CancellationException("Task scope closed");
+                try {
+                    return task.call();
+                } finally {
+                    exit();
+                }
+            }
+        });
+        forks.add(future);
+        return future;
+    }
+
+    public Future<?> fork(
+            Runnable task)
+    {
+        return fork(Executors.callable(task));
+    }
+
+    private synchronized boolean enter()
+    {
+        if (closed)
+            return false;
+        active++;
+        return true;
+    }
+
+    private synchronized void exit()
+    {
+        active--;
+        this.notifyAll();
+    }
+
+    /**
+     * The number of tasks forked so far.
+     */
+    public int size()
+    {
+        return forks.size();
+    }
+
+    /**
+     * Waits for every task forked so far. A task that failed is logged; its future still reports the failure.
+     * @return the number of tasks that failed or were cancelled.
+     */
+    public int join()
+            throws InterruptedException
+    {
+        int failed = 0;
+        for (Future<?> future : forks) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOGGER.warn(e.getCause());
+                failed++;
+            } catch (CancellationException e) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Cancels every task that has not started, then waits for the running ones to finish.
+     */
+    @Override
+    public void close()
+    {
+        boolean interrupted = false;
+        synchronized (this) {
+            closed = true;
+            for (Future<?> future : forks)
+                future.cancel(false);
+            while (active > 0) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,74 @@
+package edu.umass.cs.runner.system.scheduling;
+
+import edu.umass.cs.runner.Runner;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking backend calls. By default tasks share a fixed pool of daemon threads. In virtual-thread
+ * mode (the virtualthreads property) each task gets its own virtual thread instead, so that thousands of calls can
+ * block at once without sizing a pool; concurrency is then bounded only by the backend's {@link RateLimiter} and
+ * whatever limits the caller sets. Virtual threads are looked up at run time, so the runner still builds for older
+ * JVMs; where they are missing the fixed pool is used.
+ */
+public class Workers {
+
+    private static final Logger LOGGER = Runner.LOGGER;
+
+    /**
+     * @param name prefix for the names of pooled threads.
+     * @param threads size of the pool, when there is one.
+     * @param virtual whether to use a virtual thread per task if the JVM has them.
+     */
+    public static ExecutorService newExecutor(
+            final String name,
+            int threads,
+            boolean virtual)
+    {
+        if (virtual) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null)
+                return executor;
+            LOGGER.warn(String.format("Virtual threads need Java 21 or later; %s will use %d pooled threads",
+                    name, threads));
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, String.format("%s-%d", name, count.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static boolean virtualThreadsAvailable()
+    {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warn(e);
+            return null;
+        }
+    }
+}
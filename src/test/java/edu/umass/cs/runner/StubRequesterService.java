@@ -0,0 +1,200 @@
+package edu.umass.cs.runner;
+
+import com.amazonaws.mturk.requester.Assignment;
+import com.amazonaws.mturk.requester.AssignmentStatus;
+import com.amazonaws.mturk.requester.HIT;
+import com.amazonaws.mturk.service.exception.InternalServiceException;
+import com.amazonaws.mturk.service.exception.ObjectDoesNotExistException;
+import edu.umass.cs.runner.system.backend.known.mturk.IRequesterService;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for the MTurk requester API. HITs and assignments are created by the test; approving an
+ * assignment moves it to the Approved state and granted bonuses are remembered. Every failApprovalsEvery-th approval call fails with a transient
+ * service error, so that retries can be exercised.
+ */
+public class StubRequesterService implements IRequesterService {
+
+    private final Map<String, HIT> hits = new ConcurrentHashMap<String, HIT>();
+    private final Map<String, List<Assignment>> assignments = new ConcurrentHashMap<String, List<Assignment>>();
+    private final Map<String, Assignment> assignmentsById = new ConcurrentHashMap<String, Assignment>();
+    private final List<String> bonuses = new CopyOnWriteArrayList<String>();
+    private final AtomicInteger approvalCalls = new AtomicInteger();
+    private final AtomicInteger approved = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger pagesFetched = new AtomicInteger();
+    private final int failApprovalsEvery;
+
+    public StubRequesterService(int failApprovalsEvery) {
+        this.failApprovalsEvery = failApprovalsEvery;
+    }
+
+    public StubRequesterService() {
+        this(0);
+    }
+
+    public HIT addHIT() {
+        HIT hit = new HIT();
+        // HIT ids are unique across runs, as MTurk's are; ingestion indexes outlive a test
+        hit.setHITId(String.format("HIT%d-%s", hitCount.incrementAndGet(), UUID.randomUUID()));
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.DAY_OF_MONTH, 1);
+        hit.setExpiration(expiration);
+        hits.put(hit.getHITId(), hit);
+        assignments.put(hit.getHITId(), new CopyOnWriteArrayList<Assignment>());
+        return hit;
+    }
+
+    public Assignment addSubmittedAssignment(String hitId, String workerId, String answer) {
+        Assignment a = new Assignment();
+        a.setAssignmentId(String.format("%s-%s", hitId, workerId));
+        a.setHITId(hitId);
+        a.setWorkerId(workerId);
+        a.setAssignmentStatus(AssignmentStatus.Submitted);
+        a.setAcceptTime(Calendar.getInstance());
+        a.setSubmitTime(Calendar.getInstance());
+        a.setAnswer(answer);
+        assignments.get(hitId).add(a);
+        assignmentsById.put(a.getAssignmentId(), a);
+        return a;
+    }
+
+    public int getApproved() {
+        return approved.get();
+    }
+
+    /**
+     * Every bonus granted so far, as workerId:assignmentId.
+     */
+    public List<String> getBonuses() {
+        return bonuses;
+    }
+
+    public int getPagesFetched() {
+        return pagesFetched.get();
+    }
+
+    /**
+     * Generates a QuestionFormAnswers document answering every question with options chosen at random.
+     */
+    public static String makeAnswerDocument(Survey survey, Random random) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        xml.append("<QuestionFormAnswers xmlns=\"http://mechanicalturk.amazonaws.com/AWSMechanicalTurkDataSchemas/");
+        xml.append("2005-10-01/QuestionFormAnswers.xsd\">\n");
+        int qpos = 0;
+        for (Question q : survey.questions) {
+            if (q.freetext || q.options.isEmpty())
+                continue;
+            List<SurveyDatum> opts = new ArrayList<SurveyDatum>(q.options.values());
+            int answers = q.exclusive ? 1 : 1 + random.nextInt(opts.size());
+            StringBuilder freeText = new StringBuilder();
+            for (int i = 0 ; i < answers ; i++) {
+                int opos = random.nextInt(opts.size());
+                if (i > 0) freeText.append("|");
+                freeText.append(String.format("{\"quid\":\"%s\",\"oid\":\"%s\",\"qpos\":%d,\"opos\":%d}",
+                        q.id, opts.get(opos).getId(), qpos, opos));
+            }
+            appendAnswer(xml, q.id, freeText.toString());
+            qpos++;
+        }
+        appendAnswer(xml, "assignmentId", "ASSIGNMENT_ID_NOT_AVAILABLE");
+        appendAnswer(xml, "commit", "Submit");
+        xml.append("</QuestionFormAnswers>");
+        return xml.toString();
+    }
+
+    private static void appendAnswer(StringBuilder xml, String quid, String freeText) {
+        xml.append("<Answer>\n<QuestionIdentifier>").append(quid).append("</QuestionIdentifier>\n");
+        xml.append("<FreeText>").append(freeText).append("</FreeText>\n</Answer>\n");
+    }
+
+    @Override
+    public HIT getHIT(String hitId) {
+        HIT hit = hits.get(hitId);
+        if (hit == null)
+            throw new ObjectDoesNotExistException(hitId);
+        return hit;
+    }
+
+    @Override
+    public Assignment[] getAllAssignmentsForHIT(String hitId) {
+        List<Assignment> hitAssignments = assignments.get(hitId);
+        if (hitAssignments == null)
+            throw new ObjectDoesNotExistException(hitId);
+        return hitAssignments.toArray(new Assignment[hitAssignments.size()]);
+    }
+
+    @Override
+    public Assignment[] getAssignmentsForHIT(String hitId, int pageSize, int pageNumber) {
+        pagesFetched.incrementAndGet();
+        Assignment[] all = getAllAssignmentsForHIT(hitId);
+        int from = Math.min(all.length, (pageNumber - 1) * pageSize);
+        int to = Math.min(all.length, from + pageSize);
+        return Arrays.copyOfRange(all, from, to);
+    }
+
+    @Override
+    public void extendHIT(String hitId, Integer maxAssignmentsIncrement, Long expirationIncrementInSeconds) {
+        HIT hit = getHIT(hitId);
+        hit.getExpiration().add(Calendar.SECOND, expirationIncrementInSeconds.intValue());
+    }
+
+    @Override
+    public void grantBonus(String workerId, double bonusAmount, String assignmentId, String reason) {
+        Assignment a = assignmentsById.get(assignmentId);
+        if (a == null || !a.getWorkerId().equals(workerId))
+            throw new ObjectDoesNotExistException(assignmentId);
+        bonuses.add(String.format("%s:%s", workerId, assignmentId));
+    }
+
+    @Override
+    public void forceExpireHIT(String hitId) {
+        getHIT(hitId).setExpiration(Calendar.getInstance());
+    }
+
+    @Override
+    public String getWebsiteURL() {
+        return "http://localhost";
+    }
+
+    @Override
+    public HIT createHIT(String hitTypeId, String title, String description, String keywords, String question,
+                         Double reward, Long assignmentDurationInSeconds, Long autoApprovalDelayInSeconds,
+                         Long lifetimeInSeconds, Integer maxAssignments, String requesterAnnotation) {
+        HIT hit = addHIT();
+        hit.setTitle(title);
+        hit.setDescription(description);
+        hit.setQuestion(question);
+        return hit;
+    }
+
+    @Override
+    public void approveAssignment(String assignmentId, String requesterFeedback) {
+        int call = approvalCalls.incrementAndGet();
+        if (failApprovalsEvery > 0 && call % failApprovalsEvery == 0)
+            throw new InternalServiceException(String.format("Simulated failure approving %s", assignmentId));
+        Assignment a = assignmentsById.get(assignmentId);
+        if (a == null)
+            throw new ObjectDoesNotExistException(assignmentId);
+        synchronized (a) {
+            if (a.getAssignmentStatus().equals(AssignmentStatus.Submitted)) {
+                a.setAssignmentStatus(AssignmentStatus.Approved);
+                approved.incrementAndGet();
+            }
+        }
+    }
+}
@@ -1,28 +1,105 @@
 package edu.umass.cs.runner;
 
+import com.amazonaws.mturk.service.exception.InsufficientFundsException;
+import com.amazonaws.mturk.service.exception.InternalServiceException;
+import com.amazonaws.mturk.service.exception.ObjectDoesNotExistException;
+import edu.umass.cs.runner.dashboard.ResponseFeed;
+import edu.umass.cs.runner.system.BoxedBool;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.QuestionResponse;
 import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.SurveyResponseReader;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.AbstractResponseManager;
+import edu.umass.cs.runner.system.backend.ISurveyPoster;
+import edu.umass.cs.runner.system.backend.ITask;
 import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.backend.known.localhost.ResponseLog;
+import edu.umass.cs.runner.system.backend.known.localhost.Server;
+import edu.umass.cs.runner.system.backend.known.localhost.server.StaticAssetCache;
+import edu.umass.cs.runner.system.backend.known.mturk.BonusPayer;
 import edu.umass.cs.runner.system.backend.known.mturk.MturkLibrary;
+import edu.umass.cs.runner.system.backend.known.mturk.MturkResponseManager;
+import edu.umass.cs.runner.system.backend.known.mturk.MturkTask;
 import edu.umass.cs.runner.system.backend.known.mturk.generators.MturkHTML;
 import edu.umass.cs.runner.system.backend.known.mturk.generators.MturkXML;
+import edu.umass.cs.runner.system.exceptions.PipelineFailedException;
+import edu.umass.cs.runner.system.generators.ArtifactCache;
 import edu.umass.cs.runner.system.generators.HTML;
+import edu.umass.cs.runner.system.generators.Template;
+import edu.umass.cs.runner.system.job.JobManager;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.metrics.Metrics;
+import edu.umass.cs.runner.system.output.AnswerQuad;
+import edu.umass.cs.runner.system.output.AnswerStruct;
+import edu.umass.cs.runner.system.output.SurveyResponseStruct;
+import edu.umass.cs.runner.system.pipeline.ResponsePipeline;
+import edu.umass.cs.runner.system.job.JobStore;
+import edu.umass.cs.runner.system.scheduling.Backoff;
+import edu.umass.cs.runner.system.scheduling.PollScheduler;
+import edu.umass.cs.runner.system.scheduling.TaskScope;
+import edu.umass.cs.runner.system.scheduling.Workers;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
 import edu.umass.cs.surveyman.input.csv.CSVLexer;
 import edu.umass.cs.surveyman.input.csv.CSVParser;
 import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.classifiers.AbstractClassifier;
 import edu.umass.cs.surveyman.qc.classifiers.AllClassifier;
 import edu.umass.cs.surveyman.qc.exceptions.UnanalyzableException;
 import edu.umass.cs.surveyman.qc.respondents.RandomRespondent;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.StringDatum;
 import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import junit.framework.Assert;
+import org.dom4j.DocumentException;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.xml.sax.SAXException;
 
+import javax.management.ObjectName;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 @RunWith(JUnit4.class)
 public class SystemTest extends TestLog {
@@ -120,6 +197,1107 @@ public class SystemTest extends TestLog {
         }
     }
 
+    @Test
+    public void testCheckpointReplaysDeltas()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException, ClassNotFoundException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        RandomRespondent rr = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
+        record.addValidResponse(new SurveyResponse(rr.getResponse()));
+        record.addBotResponse(new SurveyResponse(survey, "bot"));
+        SurveyResponse removed = new SurveyResponse(
+                new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+        record.addValidResponse(removed);
+        record.removeValidResponse(removed);
+        Record restored = Record.deserializeLatestRecord(AbstractLibrary.RECORDDIR + AbstractLibrary.fileSep + record.rid);
+        Assert.assertTrue(record.equals(restored));
+        Assert.assertEquals(1, restored.getNumValidResponses());
+        Assert.assertEquals(1, restored.getNumBotResponses());
+        Assert.assertFalse(restored.isValidResponse(removed.getSrid()));
+    }
+
+    /**
+     * The fields of a Record as it was before checkpoints, when snapshots were written by Java serialization.
+     */
+    private static class LegacyRecord implements Serializable {
+        String outputFileName;
+        Survey survey;
+        AbstractLibrary library;
+        AbstractClassifier classifier;
+        QCMetrics qcMetrics;
+        double alpha;
+        String rid;
+        List<SurveyResponse> validResponses = new ArrayList<SurveyResponse>();
+        List<SurveyResponse> botResponses = new ArrayList<SurveyResponse>();
+        Deque<ITask> tasks = new ArrayDeque<ITask>();
+        String htmlFileName;
+        KnownBackendType backendType;
+        double expectedCost;
+        String breakoffMessage;
+        String RECORDDIR;
+    }
+
+    /**
+     * Writes a {@link LegacyRecord} the way the old Record class was written: under Record's name and UID.
+     */
+    private static class LegacySnapshotOutputStream extends ObjectOutputStream {
+        static final long LEGACY_RECORD_UID = -389011167908735557L;
+
+        LegacySnapshotOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            if (desc.forClass() != LegacyRecord.class) {
+                super.writeClassDescriptor(desc);
+                return;
+            }
+            writeUTF(Record.class.getName());
+            writeLong(LEGACY_RECORD_UID);
+            writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+            ObjectStreamField[] fields = desc.getFields();
+            writeShort(fields.length);
+            for (ObjectStreamField field : fields) {
+                writeByte(field.getTypeCode());
+                writeUTF(field.getName());
+                if (!field.isPrimitive())
+                    writeObject(field.getTypeString());
+            }
+        }
+    }
+
+    @Test
+    public void testLegacySnapshotRestoresAndIsKeptUntilCheckpointed()
+            throws SurveyException, IOException, ClassNotFoundException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record template = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        LegacyRecord legacy = new LegacyRecord();
+        legacy.outputFileName = template.outputFileName;
+        legacy.survey = survey;
+        legacy.library = template.library;
+        legacy.classifier = template.classifier;
+        legacy.qcMetrics = qcMetrics;
+        legacy.alpha = template.alpha;
+        legacy.rid = "rec_legacy_" + System.nanoTime();
+        legacy.htmlFileName = template.getHtmlFileName();
+        legacy.backendType = KnownBackendType.MTURK;
+        legacy.expectedCost = template.expectedCost;
+        legacy.breakoffMessage = template.breakoffMessage;
+        legacy.RECORDDIR = AbstractLibrary.RECORDDIR + AbstractLibrary.fileSep + legacy.rid;
+        for (int i = 0 ; i < 3 ; i++)
+            legacy.validResponses.add(new SurveyResponse(survey, "legacyvalid" + i));
+        for (int i = 0 ; i < 2 ; i++)
+            legacy.botResponses.add(new SurveyResponse(survey, "legacybot" + i));
+        legacy.tasks.push(new RecordCheckpoint.CheckpointedTask("legacytask", "MTURK", null));
+        File dir = new File(legacy.RECORDDIR);
+        Assert.assertTrue(dir.mkdirs());
+        File snapshot = new File(dir, String.valueOf(System.currentTimeMillis()));
+        ObjectOutputStream out = new LegacySnapshotOutputStream(new FileOutputStream(snapshot));
+        out.writeObject(legacy);
+        out.close();
+
+        Record restored = Record.deserializeLatestRecord(legacy.RECORDDIR);
+        Assert.assertEquals(legacy.rid, restored.rid);
+        Assert.assertEquals(3, restored.getNumValidResponses());
+        Assert.assertEquals(2, restored.getNumBotResponses());
+        Assert.assertEquals("legacyvalid0", restored.getAllResponses().get(0).getWorkerId());
+        Assert.assertEquals(1, restored.getAllTasks().length);
+        Assert.assertEquals("legacytask", restored.getAllTasks()[0].getTaskId());
+        Assert.assertTrue(snapshot.exists());
+        // the first checkpoint holds the snapshot's responses, so the snapshot can go
+        restored.addValidResponse(new SurveyResponse(survey, "new"));
+        Assert.assertFalse(snapshot.exists());
+        Record checkpointed = Record.deserializeLatestRecord(legacy.RECORDDIR);
+        Assert.assertEquals(4, checkpointed.getNumValidResponses());
+        Assert.assertEquals(2, checkpointed.getNumBotResponses());
+        Assert.assertEquals(1, checkpointed.getAllTasks().length);
+    }
+
+    @Test(timeout = 60000)
+    public void testCheckpointTasksAndCompactionDoNotDeadlock()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        final Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        final int rounds = 50;
+        Thread tasks = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0 ; i < rounds ; i++)
+                    record.addNewTask(new RecordCheckpoint.CheckpointedTask("task" + i, "MTURK", record));
+            }
+        };
+        Thread compactions = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0 ; i < rounds ; i++)
+                        record.serializeRecord();
+                } catch (IOException io) {
+                    throw new RuntimeException(io);
+                }
+            }
+        };
+        tasks.start();
+        compactions.start();
+        tasks.join();
+        compactions.join();
+        Assert.assertEquals(rounds, record.getAllTasks().length);
+    }
+
+    @Test
+    public void testConcurrentAddResponses()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary lib = new MturkLibrary();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, lib, KnownBackendType.MTURK);
+        StubRequesterService service = new StubRequesterService(7);
+        MturkResponseManager responseManager = new MturkResponseManager(lib, service);
+        MturkResponseManager.putRecord(survey, record);
+        Random random = new Random(0);
+        int hits = 4, assignmentsPerHIT = 10;
+        List<String> assignmentIds = new ArrayList<String>();
+        for (int i = 0 ; i < hits ; i++) {
+            String hitId = service.addHIT().getHITId();
+            for (int j = 0 ; j < assignmentsPerHIT ; j++)
+                assignmentIds.add(service.addSubmittedAssignment(hitId, String.format("W%d_%d", i, j),
+                        StubRequesterService.makeAnswerDocument(survey, random)).getAssignmentId());
+            new MturkTask(service.getHIT(hitId), record);
+        }
+        Assert.assertEquals(hits * assignmentsPerHIT, responseManager.addResponses(survey, record.getAllTasks()));
+        // assignments awaiting approval must not be added twice, and only each HIT's last page is re-fetched
+        Assert.assertEquals(0, responseManager.addResponses(survey, record.getAllTasks()));
+        Assert.assertEquals(2 * hits, service.getPagesFetched());
+        for (String assignmentId : assignmentIds)
+            Assert.assertTrue(record.getIngestionIndex().contains(assignmentId));
+        responseManager.flush();
+        Assert.assertEquals(hits * assignmentsPerHIT, service.getApproved());
+        Assert.assertEquals(hits * assignmentsPerHIT, record.getNumValidResponses() + record.getNumBotResponses());
+        MturkResponseManager.removeRecord(record);
+        responseManager.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testFailedIngestIsNotIndexed()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary lib = new MturkLibrary();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, lib, KnownBackendType.MTURK);
+        // the pipeline's writer cannot open its journal, so nothing is ever written
+        record.outputFileName = new File(new File(System.getProperty("java.io.tmpdir"), "missing-" + record.rid),
+                "out.csv").getPath();
+        StubRequesterService service = new StubRequesterService();
+        MturkResponseManager responseManager = new MturkResponseManager(lib, service);
+        MturkResponseManager.putRecord(survey, record);
+        ResponsePipeline pipeline = new ResponsePipeline(record, 1);
+        AbstractResponseManager.putPipeline(survey, pipeline);
+        pipeline.start();
+        Random random = new Random(0);
+        String hitId = service.addHIT().getHITId();
+        List<String> assignmentIds = new ArrayList<String>();
+        for (int j = 0 ; j < 4 ; j++)
+            assignmentIds.add(service.addSubmittedAssignment(hitId, "W" + j,
+                    StubRequesterService.makeAnswerDocument(survey, random)).getAssignmentId());
+        new MturkTask(service.getHIT(hitId), record);
+        try {
+            responseManager.addResponses(survey, record.getAllTasks());
+        } catch (PipelineFailedException expected) {
+        }
+        pipeline.close();
+        try {
+            pipeline.join();
+        } catch (PipelineFailedException expected) {
+        }
+        responseManager.flush();
+        for (String assignmentId : assignmentIds)
+            Assert.assertFalse(record.getIngestionIndex().contains(assignmentId));
+        Assert.assertEquals(0, service.getApproved());
+        AbstractResponseManager.removePipeline(survey);
+        MturkResponseManager.removeRecord(record);
+        responseManager.close();
+    }
+
+    @Test
+    public void testClosedPipelineDropsResponses()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary lib = new MturkLibrary();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, lib, KnownBackendType.MTURK);
+        StubRequesterService service = new StubRequesterService();
+        MturkResponseManager responseManager = new MturkResponseManager(lib, service);
+        MturkResponseManager.putRecord(survey, record);
+        ResponsePipeline pipeline = new ResponsePipeline(record, 1);
+        AbstractResponseManager.putPipeline(survey, pipeline);
+        pipeline.start();
+        pipeline.close();
+        pipeline.join();
+        Random random = new Random(0);
+        String hitId = service.addHIT().getHITId();
+        List<String> assignmentIds = new ArrayList<String>();
+        for (int j = 0 ; j < 4 ; j++)
+            assignmentIds.add(service.addSubmittedAssignment(hitId, "W" + j,
+                    StubRequesterService.makeAnswerDocument(survey, random)).getAssignmentId());
+        new MturkTask(service.getHIT(hitId), record);
+        responseManager.addResponses(survey, record.getAllTasks());
+        responseManager.flush();
+        // nothing is filed inline behind the closed pipeline's back
+        Assert.assertEquals(0, record.getNumResponses());
+        for (String assignmentId : assignmentIds)
+            Assert.assertFalse(record.getIngestionIndex().contains(assignmentId));
+        Assert.assertEquals(0, service.getApproved());
+        AbstractResponseManager.removePipeline(survey);
+        MturkResponseManager.removeRecord(record);
+        responseManager.close();
+    }
+
+    @Test
+    public void testWorkerWithTwoAssignmentsKeepsBoth()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary lib = new MturkLibrary();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, lib, KnownBackendType.MTURK);
+        StubRequesterService service = new StubRequesterService(7);
+        MturkResponseManager responseManager = new MturkResponseManager(lib, service);
+        MturkResponseManager.putRecord(survey, record);
+        Random random = new Random(0);
+        for (int i = 0 ; i < 2 ; i++) {
+            String hitId = service.addHIT().getHITId();
+            service.addSubmittedAssignment(hitId, "W", StubRequesterService.makeAnswerDocument(survey, random));
+            new MturkTask(service.getHIT(hitId), record);
+        }
+        Assert.assertEquals(2, responseManager.addResponses(survey, record.getAllTasks()));
+        responseManager.flush();
+        Assert.assertEquals(2, record.getNumValidResponses() + record.getNumBotResponses());
+        Set<String> srids = new HashSet<String>();
+        for (SurveyResponse sr : record.responses()) {
+            Assert.assertEquals("W", sr.getWorkerId());
+            srids.add(sr.getSrid());
+        }
+        Assert.assertEquals(2, srids.size());
+        MturkResponseManager.removeRecord(record);
+        responseManager.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testPipelineFailureIsRethrown()
+            throws SurveyException, IOException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        // the writer cannot open its journal in a directory that does not exist
+        record.outputFileName = new File(new File(System.getProperty("java.io.tmpdir"), "missing-" + record.rid),
+                "out.csv").getPath();
+        ResponsePipeline pipeline = new ResponsePipeline(record, 1);
+        pipeline.start();
+        try {
+            // more than the queues hold; submitting must not block forever once the writer has failed
+            for (int i = 0 ; i < 8 ; i++)
+                pipeline.submit(new SurveyResponse(
+                        new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse()));
+        } catch (PipelineFailedException expected) {
+        }
+        pipeline.close();
+        try {
+            pipeline.join();
+            Assert.fail("join should rethrow the writer's failure");
+        } catch (PipelineFailedException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IOException);
+        }
+        Assert.assertTrue(pipeline.hasFailed());
+        try {
+            pipeline.submit(new SurveyResponse(survey, "late"));
+            Assert.fail("a failed pipeline should not accept responses");
+        } catch (PipelineFailedException expected) {
+        }
+    }
+
+    @Test
+    public void testBackoffStaysBoundedAndStopsOnInterrupt() {
+        Backoff backoff = new Backoff(1, 4);
+        // enough doublings to overflow a long if the delay kept growing
+        for (int i = 0 ; i < 100 ; i++)
+            Assert.assertTrue(backoff.pause());
+        Assert.assertTrue(backoff.exceeded());
+        Assert.assertTrue(backoff.getTotalWaitMillis() <= 100 * 4);
+        Thread.currentThread().interrupt();
+        Assert.assertFalse(backoff.pause());
+        Assert.assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testPollSchedulerAdapts()
+            throws InterruptedException {
+        final int[] added = {0, 0, 0, 5, 5, -1};
+        final BoxedBool interrupt = new BoxedBool();
+        final long[] intervals = new long[added.length];
+        final PollScheduler scheduler = new PollScheduler(10, 40, 0.0);
+        scheduler.run(new PollScheduler.Poll() {
+            int i = 0;
+            @Override
+            public int poll() {
+                if (i > 0)
+                    intervals[i - 1] = scheduler.getIntervalMillis();
+                if (i == added.length - 1)
+                    interrupt.setInterrupt(true, "done");
+                return added[i++];
+            }
+        }, interrupt);
+        intervals[added.length - 1] = scheduler.getIntervalMillis();
+        // empty polls grow the interval up to the max, productive ones shrink it, failures double it
+        Assert.assertEquals(15, intervals[0]);
+        Assert.assertEquals(22, intervals[1]);
+        Assert.assertEquals(33, intervals[2]);
+        Assert.assertEquals(16, intervals[3]);
+        Assert.assertEquals(10, intervals[4]);
+        Assert.assertEquals(20, intervals[5]);
+        Assert.assertEquals(added.length, scheduler.getPolls());
+        Assert.assertEquals(3, scheduler.getEmptyPolls());
+        Assert.assertEquals(1, scheduler.getFailedPolls());
+        Assert.assertEquals(10, scheduler.getResponses());
+    }
+
+    @Test
+    public void testInProcessDelivery() {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("assignmentId", new String[]{"a1"});
+        params.put("q_1_1", new String[]{"comp_1_1", "comp_1_2"});
+        Server.IdResponseTuple tupe = Server.convertToXML(params);
+        boolean old = Server.deliverInProcess;
+        try {
+            Server.deliverInProcess = true;
+            Server.receive(tupe);
+            List<Server.IdResponseTuple> drained = new ArrayList<Server.IdResponseTuple>();
+            Assert.assertEquals(1, Server.drainDelivered(drained));
+            Assert.assertSame(tupe, drained.get(0));
+            Assert.assertEquals(0, Server.drainDelivered(drained));
+            // the HTTP endpoint still sees the answer
+            Assert.assertSame(tupe, Server.responseLog.get(Server.responseLog.size() - 1));
+        } finally {
+            Server.deliverInProcess = old;
+        }
+    }
+
+    @Test
+    public void testResponseLogCursor() {
+        ResponseLog log = new ResponseLog(2);
+        for (int i = 0 ; i < 5 ; i++)
+            Assert.assertEquals(i, log.append(new Server.IdResponseTuple("w" + i, "<a>" + i + "</a>")));
+        Assert.assertEquals(5, new JSONArray(log.jsonSince(0)).length());
+        JSONArray tail = new JSONArray(log.jsonSince(3));
+        Assert.assertEquals(2, tail.length());
+        Assert.assertEquals(3, tail.getJSONObject(0).getInt("seq"));
+        Assert.assertEquals("w4", tail.getJSONObject(1).getString("workerid"));
+        Assert.assertEquals(0, new JSONArray(log.jsonSince(5)).length());
+        List<Server.IdResponseTuple> seen = new ArrayList<Server.IdResponseTuple>();
+        Assert.assertEquals(5, log.since(4, seen));
+        Assert.assertEquals(1, seen.size());
+        Assert.assertEquals("w4", seen.get(0).id);
+    }
+
+    @Test
+    public void testTemplateMatchesFormat() {
+        String[] formats = {
+                "<html>%s<body>%s</body>%%%s</html>",
+                "%2$s then %1$s and %s again%n",
+                "ready(%b, %s);",
+                "padded %-5s falls back"
+        };
+        Object[] args = {Boolean.TRUE, "a", "b"};
+        for (String format : formats)
+            Assert.assertEquals(String.format(format, args), new Template(format).render(args));
+        Assert.assertFalse(new Template(formats[3]).isCompiled());
+    }
+
+    @Test
+    public void testHTMLIsCached()
+            throws SurveyException, IOException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        String html = HTML.getHTMLString(record, new MturkHTML());
+        Assert.assertSame(html, HTML.getHTMLString(record, new MturkHTML()));
+        Assert.assertFalse(ArtifactCache.writeIfChanged(record.getHtmlFileName(), html));
+    }
+
+    @Test
+    public void testRowEncoderMatchesFormat()
+            throws SurveyException {
+        for (int i = 0 ; i < testsFiles.length ; i++) {
+            if (!super.outcome[i])
+                continue;
+            CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[i], String.valueOf(separators[i])));
+            Survey survey = csvParser.parse();
+            SurveyResponse sr;
+            try {
+                sr = new SurveyResponse(
+                        new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+            } catch (UnanalyzableException e) {
+                continue;
+            }
+            sr.otherValues.put("workerid", "W\"1");
+            sr.otherValues.put("hitid", "H1");
+            Assert.assertEquals(testsFiles[i], ResponseWriter.outputSurveyResponseWithFormat(survey, sr),
+                    ResponseWriter.outputSurveyResponse(survey, sr));
+        }
+    }
+
+    private static String describe(
+            List<IQuestionResponse> responses,
+            Map<String, String> otherValues)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (IQuestionResponse qr : responses) {
+            sb.append(qr.getQuestion().id).append(" ").append(qr.getIndexSeen()).append(":");
+            for (OptTuple opt : qr.getOpts())
+                sb.append(" ").append(opt.c.getId()).append("@").append(opt.i);
+            sb.append("\n");
+        }
+        return sb.append(new TreeMap<String, String>(otherValues)).toString();
+    }
+
+    @Test
+    public void testStreamingParserMatchesDOM()
+            throws SurveyException, DocumentException, ParserConfigurationException, IOException, SAXException {
+        for (int i = 0 ; i < testsFiles.length ; i++) {
+            if (!super.outcome[i])
+                continue;
+            CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[i], String.valueOf(separators[i])));
+            Survey survey = csvParser.parse();
+            Random random = new Random(i);
+            for (int j = 0 ; j < 10 ; j++) {
+                String doc = StubRequesterService.makeAnswerDocument(survey, random);
+                Map<String, String> staxValues = new HashMap<String, String>();
+                Map<String, String> domValues = new HashMap<String, String>();
+                List<IQuestionResponse> stax = SurveyResponse.parse(survey, doc, staxValues);
+                List<IQuestionResponse> dom = SurveyResponse.parseWithDOM(survey, doc, domValues);
+                Assert.assertEquals(testsFiles[i], describe(dom, domValues), describe(stax, staxValues));
+            }
+        }
+    }
+
+    @Test
+    public void testRowEncoderKeepsFreeTextPerRow()
+            throws SurveyException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        ResponseRowEncoder encoder = new ResponseRowEncoder(survey);
+        for (String text : new String[]{ "first answer", "second \"answer\"" }) {
+            // free-text answers all get the same placeholder option id
+            QuestionResponse qr = new QuestionResponse();
+            qr.add("freetext", new OptTuple(new StringDatum(text, -1, -1, -1), -1), new HashMap<String, String>());
+            SurveyResponse sr = new SurveyResponse(survey, "W" + text.length());
+            List<IQuestionResponse> responses = new ArrayList<IQuestionResponse>();
+            responses.add(qr);
+            sr.setResponses(responses);
+            StringBuilder row = new StringBuilder();
+            encoder.encode(sr, row);
+            Assert.assertEquals(ResponseWriter.outputSurveyResponseWithFormat(survey, sr), row.toString());
+            Assert.assertTrue(row.toString().contains(ResponseRowEncoder.quote(text)));
+        }
+    }
+
+    @Test
+    public void testIsSurveyOption()
+            throws SurveyException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        for (Question q : survey.questions)
+            for (SurveyDatum c : q.options.values()) {
+                Assert.assertTrue(QuestionResponse.isSurveyOption(q, c));
+                // an answer that only shares the option's id is not the option
+                Assert.assertFalse(QuestionResponse.isSurveyOption(q, new StringDatum(c.getId(), -1, -1, -1)));
+            }
+        QuestionResponse qr = new QuestionResponse();
+        StringDatum freetext = new StringDatum("an answer", -1, -1, -1);
+        qr.add("freetext", new OptTuple(freetext, -1), new HashMap<String, String>());
+        Assert.assertFalse(QuestionResponse.isSurveyOption(qr.getQuestion(), freetext));
+    }
+
+    @Test
+    public void testColumnarExportRoundTrip()
+            throws SurveyException, IOException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+        for (int i = 0 ; i < 20 ; i++) {
+            SurveyResponse sr = new SurveyResponse(
+                    new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+            // one worker may submit several responses
+            sr.setWorkerId("W" + (i / 2));
+            responses.add(sr);
+        }
+        File file = File.createTempFile("responses", ColumnarExport.EXTENSION);
+        file.deleteOnExit();
+        ColumnarExport.write(survey, responses, file);
+        ColumnarReader reader = new ColumnarReader(file);
+        Assert.assertEquals(survey.sid, reader.getSurveyId());
+        Assert.assertEquals(responses.size(), reader.getNumResponses());
+        List<SurveyResponse> read = reader.readSurveyResponses(survey);
+        for (int i = 0 ; i < responses.size() ; i++) {
+            Assert.assertEquals(responses.get(i).getSrid(), read.get(i).getSrid());
+            Assert.assertEquals("W" + (i / 2), read.get(i).getWorkerId());
+            Assert.assertEquals(ResponseWriter.outputSurveyResponse(survey, responses.get(i)),
+                    ResponseWriter.outputSurveyResponse(survey, read.get(i)));
+        }
+        SurveyResponse last = responses.get(responses.size() - 1);
+        Assert.assertEquals(last.getWorkerId(), reader.readSurveyResponse(survey, last.getSrid()).getWorkerId());
+        Assert.assertEquals(ResponseWriter.outputSurveyResponse(survey, last),
+                ResponseWriter.outputSurveyResponse(survey, reader.readSurveyResponse(survey, last.getSrid())));
+        Assert.assertNull(reader.readSurveyResponse(survey, "no such response"));
+        int rows = 0;
+        for (SurveyResponse sr : responses)
+            for (IQuestionResponse qr : sr.getAllResponses())
+                rows += qr.getOpts().size();
+        Assert.assertEquals(rows, reader.column(ColumnarExport.OPTION_POS).length);
+    }
+
+    @Test
+    public void testStreamingResponseReader()
+            throws SurveyException, IOException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+        StringBuilder csv = new StringBuilder(ResponseWriter.outputHeaders(survey, new ArrayList<String>()));
+        for (int i = 0 ; i < 5 ; i++) {
+            SurveyResponse sr = new SurveyResponse(
+                    new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+            responses.add(sr);
+            csv.append(ResponseWriter.outputSurveyResponse(survey, sr));
+        }
+        SurveyResponseReader reader = new SurveyResponseReader(survey, new StringReader(csv.toString()));
+        int i = 0;
+        while (reader.hasNext()) {
+            SurveyResponse read = reader.next();
+            SurveyResponse original = responses.get(i++);
+            Assert.assertEquals(original.getSrid(), read.getSrid());
+            // each question appears once, however many options were chosen
+            Assert.assertEquals(original.resultsAsMap().size(), read.getAllResponses().size());
+            Assert.assertEquals(ResponseWriter.outputSurveyResponse(survey, original),
+                    ResponseWriter.outputSurveyResponse(survey, read));
+        }
+        reader.close();
+        Assert.assertEquals(responses.size(), i);
+    }
+
+    @Test
+    public void testJobStoreSurvivesTornWrite()
+            throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "jobstore" + System.nanoTime());
+        Assert.assertTrue(dir.mkdirs());
+        File unfinished = new File(dir, "unfinished");
+        File bonuses = new File(dir, "bonuses");
+        FileWriter w = new FileWriter(unfinished);
+        w.write("job1,LOCALHOST,t1,t2\n");
+        w.close();
+        w = new FileWriter(bonuses);
+        w.write("sr1,survey.csv,0.500000\n");
+        w.close();
+        File db = new File(dir, "jobs.db");
+        JobStore store = new JobStore(db, unfinished.getPath(), bonuses.getPath());
+        Assert.assertEquals("LOCALHOST,t1,t2", store.get(JobStore.jobKey("job1")));
+        Assert.assertTrue(store.contains(JobStore.bonusKey("sr1", "survey.csv")));
+        store.put(JobStore.jobKey("job2"), "MTURK,t3");
+        store.delete(JobStore.jobKey("job1"));
+        store.close();
+        // a crash halfway through the last entry
+        store = new JobStore(db, unfinished.getPath(), bonuses.getPath());
+        long length = db.length();
+        store.put(JobStore.jobKey("job3"), "MTURK,t4");
+        store.close();
+        RandomAccessFile raf = new RandomAccessFile(db, "rw");
+        raf.setLength(length + (db.length() - length) / 2);
+        raf.close();
+        store = new JobStore(db, unfinished.getPath(), bonuses.getPath());
+        Assert.assertNull(store.get(JobStore.jobKey("job1")));
+        Assert.assertEquals("MTURK,t3", store.get(JobStore.jobKey("job2")));
+        Assert.assertNull(store.get(JobStore.jobKey("job3")));
+        Assert.assertEquals(2, store.keys(JobStore.JOB_PREFIX).size() + store.keys(JobStore.BONUS_PREFIX).size());
+        store.close();
+    }
+
+    @Test
+    public void testBonusBatchIsIdempotent()
+            throws InterruptedException, IOException {
+        StubRequesterService stub = new StubRequesterService();
+        String[] hitIds = { stub.addHIT().getHITId(), stub.addHIT().getHITId() };
+        String run = String.valueOf(System.nanoTime());
+        Map<String, Double> bonuses = new HashMap<String, Double>();
+        for (int i = 0 ; i < 10 ; i++) {
+            String workerId = String.format("W%s_%d", run, i);
+            stub.addSubmittedAssignment(hitIds[i % 2], workerId, "");
+            bonuses.put(workerId, 0.25);
+        }
+        bonuses.put("nobody" + run, 0.25);
+        // a payment that was cut off by a crash
+        String interrupted = "W" + run + "_crashed";
+        stub.addSubmittedAssignment(hitIds[0], interrupted, "");
+        JobManager.recordPendingBonus(0.25, interrupted, "bonus_test");
+        bonuses.put(interrupted, 0.25);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        BonusPayer payer = new BonusPayer(stub, pool, 3, 2);
+        BonusPayer.Result first = payer.pay("bonus_test", bonuses, hitIds);
+        Assert.assertEquals(10, first.paid.size());
+        Assert.assertEquals(1, first.noAssignment.size());
+        Assert.assertEquals(1, first.unresolved.size());
+        Assert.assertEquals(10, stub.getBonuses().size());
+        BonusPayer.Result second = payer.pay("bonus_test", bonuses, hitIds);
+        Assert.assertEquals(0, second.paid.size());
+        Assert.assertEquals(10, second.alreadyPaid.size());
+        Assert.assertEquals(10, stub.getBonuses().size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAmbiguousBonusFailureKeepsMarker()
+            throws InterruptedException, IOException {
+        final String run = String.valueOf(System.nanoTime());
+        final String erroring = "W" + run + "_error";
+        final String refused = "W" + run + "_refused";
+        StubRequesterService stub = new StubRequesterService() {
+            @Override
+            public void grantBonus(String workerId, double bonusAmount, String assignmentId, String reason) {
+                if (workerId.equals(erroring))
+                    throw new InternalServiceException("Simulated failure granting a bonus");
+                if (workerId.equals(refused))
+                    throw new ObjectDoesNotExistException(assignmentId);
+                super.grantBonus(workerId, bonusAmount, assignmentId, reason);
+            }
+        };
+        String[] hitIds = { stub.addHIT().getHITId() };
+        Map<String, Double> bonuses = new HashMap<String, Double>();
+        for (String workerId : new String[]{ erroring, refused }) {
+            stub.addSubmittedAssignment(hitIds[0], workerId, "");
+            bonuses.put(workerId, 0.25);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        BonusPayer.Result result = new BonusPayer(stub, pool, 2, 0).pay("bonus_test", bonuses, hitIds);
+        pool.shutdown();
+        // an internal error does not say whether the bonus went through
+        Assert.assertEquals(Arrays.asList(erroring), result.unresolved);
+        Assert.assertTrue(JobManager.bonusPending(erroring, "bonus_test"));
+        // a refusal does
+        Assert.assertEquals(Arrays.asList(refused), result.failed);
+        Assert.assertFalse(JobManager.bonusPending(refused, "bonus_test"));
+    }
+
+    @Test
+    public void testResponseStoreMovesAndCounts()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        ResponseStore store = new ResponseStore();
+        int n = 2 * ResponseStore.SEGMENT_SIZE + 10;
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>();
+        for (int i = 0 ; i < n ; i++) {
+            SurveyResponse sr = new SurveyResponse(survey, "sr" + i);
+            responses.add(sr);
+            store.add(sr, i % 2 == 0);
+        }
+        Assert.assertEquals(n / 2, store.getNumValid());
+        Assert.assertEquals(n / 2, store.getNumBots());
+        Assert.assertTrue(store.reclassify("sr1", true));
+        Assert.assertFalse(store.reclassify("sr1", true));
+        // removing from the wrong class is a no-op
+        Assert.assertFalse(store.remove("sr3", true));
+        Assert.assertTrue(store.remove("sr3", false));
+        // a removed response is not brought back
+        Assert.assertFalse(store.reclassify("sr3", true));
+        Assert.assertFalse(store.add(responses.get(3), true));
+        // adding a srid that is already here changes nothing
+        Assert.assertFalse(store.add(responses.get(0), false));
+        Assert.assertTrue(store.isValid("sr0"));
+        Assert.assertEquals(n / 2 + 1, store.getNumValid());
+        Assert.assertEquals(n / 2 - 2, store.getNumBots());
+        int valid = 0, all = 0;
+        for (SurveyResponse sr : store.valid()) {
+            Assert.assertTrue(store.isValid(sr.getSrid()));
+            valid++;
+        }
+        for (SurveyResponse sr : store.all())
+            Assert.assertSame(responses.get(Integer.parseInt(sr.getSrid().substring(2))), sr);
+        for (SurveyResponse ignored : store.all())
+            all++;
+        Assert.assertEquals(store.getNumValid(), valid);
+        Assert.assertEquals(store.size(), all);
+        Assert.assertFalse(store.contains("sr3"));
+    }
+
+    @Test
+    public void testIncrementalClassifierSkipsSmallChanges()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        for (int i = 0 ; i < 200 ; i++) {
+            RandomRespondent rr = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
+            record.addValidResponse(new SurveyResponse(rr.getResponse()));
+        }
+        IncrementalClassifier classifier = record.getIncrementalClassifier();
+        String first = record.jsonizeResponses();
+        Assert.assertEquals(1, classifier.getFullPasses());
+        Assert.assertSame(first, record.jsonizeResponses());
+        RandomRespondent rr = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
+        SurveyResponse late = new SurveyResponse(rr.getResponse());
+        record.addValidResponse(late);
+        String second = record.jsonizeResponses();
+        // one more response barely moves the option distributions
+        Assert.assertEquals(1, classifier.getFullPasses());
+        Assert.assertTrue(classifier.drift() < 0.05);
+        Assert.assertTrue(second.startsWith(first.substring(0, first.length() - 2)));
+        Assert.assertEquals(new JSONArray(first).length() + 1, new JSONArray(second).length());
+    }
+
+    @Test
+    public void testResponseFeedSendsDeltas()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        record.library.props.setProperty(Parameters.DASHBOARD_SUBSCRIBERS, "1");
+        record.library.props.setProperty(Parameters.DASHBOARD_BUFFER, "4");
+        ResponseFeed feed = record.getResponseFeed();
+        ResponseFeed.Subscriber subscriber = feed.subscribe();
+        Assert.assertNull(feed.subscribe());
+        Assert.assertTrue(subscriber.next(0).startsWith("event: snapshot\n"));
+        Assert.assertNull(subscriber.next(0));
+        SurveyResponse sr = new SurveyResponse(
+                new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+        record.addValidResponse(sr);
+        String event = subscriber.next(0);
+        Assert.assertTrue(event.startsWith("event: response\n"));
+        Assert.assertTrue(event.contains(record.getIncrementalClassifier().jsonize(sr)));
+        Assert.assertEquals("event: counts\ndata: {\"valid\":1,\"bots\":0}\n\n", subscriber.next(0));
+        record.reclassifyResponse(sr, false);
+        Assert.assertTrue(subscriber.next(0).startsWith("event: classification\n"));
+        subscriber.next(0);
+        // a subscriber that falls behind gets a fresh snapshot rather than an unbounded backlog
+        for (int i = 0 ; i < 5 ; i++)
+            record.addBotResponse(new SurveyResponse(
+                    new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse()));
+        Assert.assertTrue(subscriber.next(0).startsWith("event: snapshot\n"));
+        Assert.assertNull(subscriber.next(0));
+        subscriber.close();
+        Assert.assertEquals(0, feed.getNumSubscribers());
+    }
+
+    @Test(timeout = 30000)
+    public void testResponseFeedDoesNotWaitOnClassifier()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException, InterruptedException {
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        final Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        ResponseFeed.Subscriber subscriber = record.getResponseFeed().subscribe();
+        subscriber.next(0);
+        final SurveyResponse sr = new SurveyResponse(
+                new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+        Thread ingest = new Thread() {
+            @Override
+            public void run() {
+                record.getResponseFeed().responseAdded(sr, true);
+            }
+        };
+        // stands in for a full pass holding the classifier
+        synchronized (record.getIncrementalClassifier()) {
+            ingest.start();
+            ingest.join(10000);
+            Assert.assertFalse(ingest.isAlive());
+        }
+        Assert.assertTrue(subscriber.next(0).startsWith("event: response\n"));
+        subscriber.close();
+    }
+
+    @Test
+    public void testStructJsonIsEscapedAndStreams()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException {
+        List<AnswerQuad> quads = new ArrayList<AnswerQuad>();
+        quads.add(new AnswerQuad("q_1_1", "she said \"hi\"\n", 0, -1));
+        Map<String, String> otherValues = new HashMap<String, String>();
+        otherValues.put("comment", "a \\ b \"c\"");
+        JSONObject json = new JSONObject(
+                new SurveyResponseStruct("sr", "W1", new AnswerStruct(quads), 0.25, 0.5, true, otherValues).jsonize());
+        Assert.assertEquals("W1", json.getString("workerid"));
+        Assert.assertEquals("she said \"hi\"\n", json.getJSONArray("answers").getJSONObject(0).getString("oid"));
+        Assert.assertEquals("a \\ b \"c\"", json.getJSONObject("otherValues").getString("comment"));
+
+        CSVParser csvParser = new CSVParser(new CSVLexer(testsFiles[0], String.valueOf(separators[0])));
+        Survey survey = csvParser.parse();
+        MturkLibrary.dumpSampleProperties();
+        QCMetrics qcMetrics = new QCMetrics(survey, new AllClassifier(survey));
+        Record record = new Record(qcMetrics, new MturkLibrary(), KnownBackendType.MTURK);
+        for (int i = 0 ; i < 10 ; i++)
+            record.addValidResponse(new SurveyResponse(
+                    new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record.writeResponses(out);
+        JSONArray streamed = new JSONArray(out.toString("UTF-8"));
+        JSONArray built = new JSONArray(record.jsonizeResponses());
+        Assert.assertEquals(built.length(), streamed.length());
+        for (int i = 0 ; i < built.length() ; i++) {
+            Assert.assertEquals(built.getJSONObject(i).getString("srid"), streamed.getJSONObject(i).getString("srid"));
+            Assert.assertEquals(built.getJSONObject(i).getString("workerid"),
+                    streamed.getJSONObject(i).getString("workerid"));
+        }
+    }
+
+    @Test
+    public void testStaticAssetCache()
+            throws IOException {
+        File file = File.createTempFile("asset", ".html");
+        file.deleteOnExit();
+        StringBuilder html = new StringBuilder();
+        for (int i = 0 ; i < 100 ; i++)
+            html.append("<p>thanks</p>\n");
+        FileWriter w = new FileWriter(file);
+        w.write(html.toString());
+        w.close();
+        StaticAssetCache cache = new StaticAssetCache();
+        StaticAssetCache.Asset asset = cache.get(file.getPath());
+        Assert.assertSame(asset, cache.get(file.getPath()));
+        Assert.assertEquals(html.toString(), asset.text());
+        Assert.assertTrue(asset.contentType.startsWith("text/html"));
+        Assert.assertTrue(asset.gzipped.length < asset.body.length);
+        GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(asset.gzipped));
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = gz.read(buf)) != -1)
+            unzipped.write(buf, 0, n);
+        Assert.assertTrue(Arrays.equals(asset.body, unzipped.toByteArray()));
+        try {
+            cache.get(file.getPath() + ".missing");
+            Assert.fail();
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    /**
+     * Counts polls per survey and never finds any responses.
+     */
+    private static class CountingResponseManager extends AbstractResponseManager {
+        final Map<String, AtomicInteger> polls = new ConcurrentHashMap<String, AtomicInteger>();
+        @Override public int addResponses(Survey survey, ITask[] tasks) {
+            polls.putIfAbsent(survey.source, new AtomicInteger());
+            polls.get(survey.source).incrementAndGet();
+            return 0;
+        }
+        @Override public int addResponses(Survey survey, ITask task) { return 0; }
+        @Override public ITask getTask(String taskid) { return null; }
+        @Override public boolean makeTaskUnavailable(ITask task) { return true; }
+        @Override public boolean makeTaskAvailable(String taskId, Record r) { return true; }
+        @Override public void awardBonus(double amount, edu.umass.cs.surveyman.analyses.SurveyResponse sr, Survey survey) { }
+        @Override public ITask makeTaskForId(Record record, String taskid) { return null; }
+        @Override public edu.umass.cs.surveyman.analyses.SurveyResponse parseResponse(String workerId, String ansXML,
+                Survey survey, Record r, Map<String, String> otherValues) { return null; }
+    }
+
+    @Test
+    public void testSchedulerStopsOneSurvey()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException, InterruptedException {
+        MturkLibrary.dumpSampleProperties();
+        CountingResponseManager responseManager = new CountingResponseManager();
+        ISurveyPoster poster = new ISurveyPoster() {
+            public ITask postSurvey(AbstractResponseManager rm, Record r) { return null; }
+            public boolean stopSurvey(AbstractResponseManager rm, Record r, BoxedBool interrupt) {
+                interrupt.setInterrupt(true, "Call to stop survey.");
+                return true;
+            }
+            public String makeTaskURL(AbstractResponseManager rm, ITask task) { return ""; }
+            public void init(String config) { }
+        };
+        BoxedBool parent = new BoxedBool();
+        List<SurveyRunContext> contexts = new ArrayList<SurveyRunContext>();
+        for (int i = 0 ; i < 2 ; i++) {
+            Survey survey = new CSVParser(new CSVLexer(testsFiles[i], String.valueOf(separators[i]))).parse();
+            AbstractLibrary library = new MturkLibrary();
+            library.props.setProperty(Parameters.NUM_PARTICIPANTS, "1000");
+            library.props.setProperty(Parameters.POLL_INTERVAL, "10");
+            library.props.setProperty(Parameters.POLL_INTERVAL_MAX, "20");
+            contexts.add(new SurveyRunContext(survey, new AllClassifier(survey), false, 0.05,
+                    KnownBackendType.LOCALHOST, library, responseManager, poster, parent));
+        }
+        // one thread is enough for both surveys
+        SurveyScheduler scheduler = new SurveyScheduler(1);
+        for (SurveyRunContext context : contexts)
+            scheduler.submit(context);
+        Thread.sleep(200);
+        contexts.get(0).stop("Done with testSchedulerStopsOneSurvey");
+        Assert.assertTrue(contexts.get(0).awaitDone(10000));
+        Assert.assertNull(AbstractResponseManager.getRecord(contexts.get(0).survey));
+        SurveyRunContext other = contexts.get(1);
+        int before = responseManager.polls.get(other.survey.source).get();
+        Thread.sleep(200);
+        Assert.assertFalse(other.isStopped());
+        Assert.assertTrue(responseManager.polls.get(other.survey.source).get() > before);
+        parent.setInterrupt(true, "Done with testSchedulerStopsOneSurvey");
+        Assert.assertTrue(other.awaitDone(10000));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testInsufficientFundsPausesOnlyThatSurvey()
+            throws SurveyException, IOException, NoSuchMethodException, IllegalAccessException,
+                   InvocationTargetException, InterruptedException {
+        MturkLibrary.dumpSampleProperties();
+        CountingResponseManager responseManager = new CountingResponseManager();
+        final AtomicInteger posts = new AtomicInteger();
+        final AtomicBoolean funded = new AtomicBoolean(false);
+        ISurveyPoster broke = new ISurveyPoster() {
+            public ITask postSurvey(AbstractResponseManager rm, Record r) {
+                if (!funded.get())
+                    throw new InsufficientFundsException("Simulated empty account");
+                posts.incrementAndGet();
+                return null;
+            }
+            public boolean stopSurvey(AbstractResponseManager rm, Record r, BoxedBool interrupt) {
+                interrupt.setInterrupt(true, "Call to stop survey.");
+                return true;
+            }
+            public String makeTaskURL(AbstractResponseManager rm, ITask task) { return ""; }
+            public void init(String config) { }
+        };
+        ISurveyPoster poster = new ISurveyPoster() {
+            public ITask postSurvey(AbstractResponseManager rm, Record r) { return null; }
+            public boolean stopSurvey(AbstractResponseManager rm, Record r, BoxedBool interrupt) {
+                interrupt.setInterrupt(true, "Call to stop survey.");
+                return true;
+            }
+            public String makeTaskURL(AbstractResponseManager rm, ITask task) { return ""; }
+            public void init(String config) { }
+        };
+        BoxedBool parent = new BoxedBool();
+        List<SurveyRunContext> contexts = new ArrayList<SurveyRunContext>();
+        for (int i = 0 ; i < 2 ; i++) {
+            Survey survey = new CSVParser(new CSVLexer(testsFiles[i], String.valueOf(separators[i]))).parse();
+            AbstractLibrary library = new MturkLibrary();
+            library.props.setProperty(Parameters.NUM_PARTICIPANTS, "1000");
+            library.props.setProperty(Parameters.POLL_INTERVAL, "10");
+            library.props.setProperty(Parameters.POLL_INTERVAL_MAX, "20");
+            contexts.add(new SurveyRunContext(survey, new AllClassifier(survey), false, 0.05,
+                    KnownBackendType.LOCALHOST, library, responseManager, i == 0 ? broke : poster, parent));
+        }
+        // with one thread, a pool thread waiting on the user would starve the other survey
+        SurveyScheduler scheduler = new SurveyScheduler(1);
+        for (SurveyRunContext context : contexts)
+            scheduler.submit(context);
+        SurveyRunContext paused = contexts.get(0);
+        Assert.assertSame(paused, scheduler.awaitFundsRequest(10000));
+        SurveyRunContext other = contexts.get(1);
+        int before = responseManager.polls.get(other.survey.source).get();
+        Thread.sleep(200);
+        Assert.assertTrue(responseManager.polls.get(other.survey.source).get() > before);
+        Assert.assertFalse(paused.isStopped());
+        Assert.assertEquals(0, posts.get());
+        // answering the request resumes posting
+        funded.set(true);
+        scheduler.resumePosting(paused);
+        Thread.sleep(200);
+        Assert.assertTrue(posts.get() > 0);
+        Assert.assertNull(scheduler.awaitFundsRequest(0));
+        parent.setInterrupt(true, "Done with testInsufficientFundsPausesOnlyThatSurvey");
+        for (SurveyRunContext context : contexts)
+            Assert.assertTrue(context.awaitDone(10000));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testTaskScopeLeavesNothingBehind()
+            throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger ran = new AtomicInteger();
+        TaskScope scope = new TaskScope(Workers.newExecutor("test-scope", 1, false));
+        scope.fork(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ran.incrementAndGet();
+            }
+        });
+        Future<?> queued = scope.fork(new Runnable() {
+            public void run() { ran.incrementAndGet(); }
+        });
+        started.await();
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                release.countDown();
+            }
+        }.start();
+        // waits for the running task but never starts the queued one
+        scope.close();
+        Assert.assertEquals(1, ran.get());
+        Assert.assertTrue(queued.isCancelled());
+        // virtual-thread mode runs the same tasks, or falls back to a pool on older JVMs
+        TaskScope virtual = new TaskScope(Workers.newExecutor("test-virtual", 2, true));
+        for (int i = 0 ; i < 1000 ; i++)
+            virtual.fork(new Runnable() {
+                public void run() { ran.incrementAndGet(); }
+            });
+        Assert.assertEquals(0, virtual.join());
+        virtual.close();
+        Assert.assertEquals(1001, ran.get());
+    }
+
+    @Test
+    public void testMetricsHistogramAndExport() throws Exception {
+        Histogram histogram = Metrics.histogram("test.latency.nanos");
+        for (long v = 1 ; v <= 10000 ; v++)
+            histogram.record(v * 1000);
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10000000, histogram.getMax());
+        // buckets are within 1/16 of the value they hold
+        long p50 = histogram.getPercentile(0.5), p99 = histogram.getPercentile(0.99);
+        Assert.assertTrue(p50 >= 5000000 && p50 <= 5000000 * 17 / 16);
+        Assert.assertTrue(p99 >= 9900000 && p99 <= 10000000);
+        Assert.assertSame(histogram, Metrics.histogram("test.latency.nanos"));
+        Metrics.counter("test.events").add(3);
+        JSONObject json = new JSONObject(Metrics.toJson());
+        Assert.assertEquals(3, json.getJSONObject("counters").getLong("test.events"));
+        Assert.assertEquals(10000, json.getJSONObject("histograms").getJSONObject("test.latency.nanos").getLong("count"));
+        Metrics.registerMBean();
+        Object max = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "test.latency.nanos.max");
+        Assert.assertEquals(10000000L, max);
+    }
+
 //    @Test
 //    public void testCorrelatedPipeline() throws Exception {
 //        for (int i = 0 ; i < testsFiles.length ; i++) {
@@ -0,0 +1,75 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.StubRequesterService;
+import edu.umass.cs.runner.system.AnswerParser;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link AnswerParser} against the DOM parser on generated QuestionFormAnswers documents, and
+ * measures {@link SurveyResponse#parse} as the response managers call it. Each document answers every question in
+ * the survey, choosing options at random.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AnswerParserBenchmark {
+
+    private static final int DOCUMENTS = 64;
+
+    @Param({"prototypicality.csv", "wage_survey.csv", "phonology.csv"})
+    public String surveyFile;
+
+    private Survey survey;
+    private final List<String> documents = new ArrayList<String>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        survey = BenchmarkData.survey(surveyFile);
+        Random random = new Random(surveyFile.hashCode());
+        for (int i = 0 ; i < DOCUMENTS ; i++)
+            documents.add(StubRequesterService.makeAnswerDocument(survey, random));
+    }
+
+    private String nextDocument()
+    {
+        String doc = documents.get(next);
+        next = (next + 1) % documents.size();
+        return doc;
+    }
+
+    @Benchmark
+    public List<IQuestionResponse> stax() throws Exception {
+        return AnswerParser.parse(survey, nextDocument(), new HashMap<String, String>());
+    }
+
+    @Benchmark
+    public List<IQuestionResponse> surveyResponseParse() throws Exception {
+        return SurveyResponse.parse(survey, nextDocument(), new HashMap<String, String>());
+    }
+
+    @Benchmark
+    public List<IQuestionResponse> dom() throws Exception {
+        return SurveyResponse.parseWithDOM(survey, nextDocument(), new HashMap<String, String>());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(AnswerParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.backend.AbstractLibrary;
+import edu.umass.cs.runner.system.backend.KnownBackendType;
+import edu.umass.cs.runner.system.backend.known.mturk.MturkLibrary;
+import edu.umass.cs.surveyman.input.csv.CSVLexer;
+import edu.umass.cs.surveyman.input.csv.CSVParser;
+import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.classifiers.AbstractClassifier;
+import edu.umass.cs.surveyman.qc.respondents.RandomRespondent;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.SurveyDatum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks: surveys parsed from the sample CSVs and synthetic populations of respondents,
+ * as parsed responses, answer documents and form posts.
+ */
+public class BenchmarkData {
+
+    public static final String SAMPLES = String.format("src%1$stest%1$sresources%1$sdata%1$ssamples%1$s",
+            AbstractLibrary.fileSep);
+
+    public static Survey survey(String surveyFile) throws Exception {
+        return new CSVParser(new CSVLexer(SAMPLES + surveyFile, ",")).parse();
+    }
+
+    /**
+     * Responses from uniformly random respondents, each carrying the header values an MTurk assignment would.
+     */
+    public static List<SurveyResponse> responses(Survey survey, int n) throws Exception {
+        List<SurveyResponse> responses = new ArrayList<SurveyResponse>(n);
+        for (int i = 0 ; i < n ; i++) {
+            SurveyResponse sr = new SurveyResponse(
+                    new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+            sr.otherValues.put("hitid", "HIT" + i);
+            sr.otherValues.put("workerid", "W" + i);
+            sr.otherValues.put("assignmentstatus", "Submitted");
+            responses.add(sr);
+        }
+        return responses;
+    }
+
+    /**
+     * A Record holding the responses as valid responses.
+     */
+    public static Record record(Survey survey, AbstractClassifier classifier, List<SurveyResponse> responses)
+            throws Exception {
+        Record record = new Record(new QCMetrics(survey, classifier), new MturkLibrary(), KnownBackendType.MTURK);
+        for (SurveyResponse sr : responses)
+            record.addValidResponse(sr);
+        return record;
+    }
+
+    /**
+     * The form fields a browser posts to the local server for a random respondent: each question's selected
+     * options as JSON, then the assignment id and submit button.
+     */
+    public static Map<String, String[]> formParams(Survey survey, Random random) {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        int qpos = 0;
+        for (Question q : survey.questions) {
+            if (q.freetext || q.options.isEmpty())
+                continue;
+            List<SurveyDatum> opts = new ArrayList<SurveyDatum>(q.options.values());
+            String[] values = new String[q.exclusive ? 1 : 1 + random.nextInt(opts.size())];
+            for (int i = 0 ; i < values.length ; i++) {
+                int opos = random.nextInt(opts.size());
+                values[i] = String.format("{\"quid\":\"%s\",\"oid\":\"%s\",\"qpos\":%d,\"opos\":%d}",
+                        q.id, opts.get(opos).getId(), qpos, opos);
+            }
+            params.put(q.id, values);
+            qpos++;
+        }
+        params.put("assignmentId", new String[]{ "ASSIGNMENT_ID_NOT_AVAILABLE" });
+        params.put("commit", new String[]{ "Submit" });
+        return params;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the classifiers the way the runner invokes them: once per incoming response in the pipeline's classifier
+ * stage, and over the whole population in a full pass. The population is classified once during setup so that
+ * classifiers which derive thresholds from it are warmed up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ClassifierBenchmark {
+
+    private static final double ALPHA = 0.05;
+
+    @Param({"prototypicality.csv", "wage_survey.csv"})
+    public String surveyFile;
+
+    @Param({"ALL", "ENTROPY", "LPO"})
+    public String classifier;
+
+    @Param({"100"})
+    public int population;
+
+    private Record record;
+    private List<SurveyResponse> responses;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Survey survey = BenchmarkData.survey(surveyFile);
+        responses = BenchmarkData.responses(survey, population);
+        record = BenchmarkData.record(survey, SurveyMan.resolveClassifier(survey, classifier, 2, ALPHA, false),
+                responses);
+        record.qcMetrics.classifyResponses(new ArrayList<SurveyResponse>(responses));
+    }
+
+    @Benchmark
+    public boolean classifyResponse() throws Exception {
+        SurveyResponse sr = responses.get(next);
+        next = (next + 1) % responses.size();
+        return record.classifier.classifyResponse(sr);
+    }
+
+    @Benchmark
+    public Record classifyPopulation() throws Exception {
+        record.qcMetrics.classifyResponses(new ArrayList<SurveyResponse>(responses));
+        return record;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(ClassifierBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
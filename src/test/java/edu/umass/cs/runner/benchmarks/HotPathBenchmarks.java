@@ -0,0 +1,25 @@
+package edu.umass.cs.runner.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this package and writes the results as JSON, so that runs can be compared. Run it with
+ * mvn -P benchmark test. The jmh.include system property narrows the run to benchmarks matching a regular
+ * expression, and jmh.result names the results file (target/jmh-result.json by default).
+ */
+public class HotPathBenchmarks {
+
+    public static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", HotPathBenchmarks.class.getPackage().getName() + ".*");
+        String result = System.getProperty("jmh.result", DEFAULT_RESULT);
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build()).run();
+    }
+}
@@ -0,0 +1,395 @@
+package edu.umass.cs.runner.benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.Runner;
+import edu.umass.cs.runner.SurveyRunContext;
+import edu.umass.cs.runner.system.Parameters;
+import edu.umass.cs.runner.system.backend.ITask;
+import edu.umass.cs.runner.system.backend.known.localhost.Server;
+import edu.umass.cs.runner.system.metrics.Histogram;
+import edu.umass.cs.runner.system.output.Json;
+import edu.umass.cs.surveyman.input.csv.CSVLexer;
+import edu.umass.cs.surveyman.input.csv.CSVParser;
+import edu.umass.cs.surveyman.qc.classifiers.AllClassifier;
+import edu.umass.cs.surveyman.survey.Survey;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test for the LOCALHOST backend. Starts the runner in this JVM on a sample survey and has a number of virtual
+ * respondents load the survey page and post answer forms to the {@link Server}, the way a browser would, at a fixed
+ * overall rate. Each submission carries its own assignment id; a tailer follows the survey's CSV and, when the id's
+ * first row appears, records the time from submission to CSV. Reports those latencies, the page and post latencies,
+ * throughput and errors. Run it with mvn -P loadtest test -Dloadtest.args="--respondents 32 --rate 100".
+ */
+public class LocalLoadGenerator {
+
+    private static final String ID_PREFIX = "load-";
+    private static final long TAIL_MILLIS = 20;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final String pageUrl;
+    private final Survey survey;
+    private final int respondents;
+    private final double rate;
+    private final int submissions;
+    private final CloseableHttpClient http;
+    /** Submission start times, by assignment id, of the submissions not yet seen in the CSV. */
+    private final Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+    private final Histogram pageLatency = new Histogram();
+    private final Histogram postLatency = new Histogram();
+    private final Histogram csvLatency = new Histogram();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger pageErrors = new AtomicInteger();
+    private final AtomicInteger postErrors = new AtomicInteger();
+    private volatile boolean tailing = true;
+    private long started;
+    private long submitted;
+    private long finished;
+
+    public LocalLoadGenerator(
+            String pageUrl,
+            Survey survey,
+            int respondents,
+            double rate,
+            int submissions)
+    {
+        this.pageUrl = pageUrl;
+        this.survey = survey;
+        this.respondents = respondents;
+        this.rate = rate;
+        this.submissions = submissions;
+        this.http = HttpClients.custom()
+                .setMaxConnTotal(respondents)
+                .setMaxConnPerRoute(respondents)
+                .build();
+    }
+
+    /**
+     * Fetches the survey page, as a respondent does before answering.
+     */
+    private void loadPage()
+    {
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = http.execute(new HttpGet(pageUrl));
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200)
+                pageErrors.incrementAndGet();
+        } catch (IOException e) {
+            pageErrors.incrementAndGet();
+        }
+        pageLatency.recordSince(start);
+    }
+
+    private void submit(
+            int n)
+    {
+        Map<String, String[]> form = BenchmarkData.formParams(survey, ThreadLocalRandom.current());
+        String id = ID_PREFIX + n;
+        form.put("assignmentId", new String[]{ id });
+        List<NameValuePair> fields = new ArrayList<NameValuePair>();
+        for (Map.Entry<String, String[]> entry : form.entrySet())
+            for (String value : entry.getValue())
+                fields.add(new BasicNameValuePair(entry.getKey(), value));
+        HttpPost post = new HttpPost(pageUrl);
+        post.setHeader("Referer", pageUrl);
+        post.setEntity(new UrlEncodedFormEntity(fields, StandardCharsets.UTF_8));
+        long start = System.nanoTime();
+        pending.put(id, start);
+        try {
+            HttpResponse response = http.execute(post);
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200) {
+                pending.remove(id);
+                postErrors.incrementAndGet();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            postErrors.incrementAndGet();
+        }
+        postLatency.recordSince(start);
+    }
+
+    /**
+     * Submission n is due n / rate seconds after the start; a respondent that falls behind submits immediately.
+     */
+    private void awaitSlot(
+            int n)
+            throws InterruptedException
+    {
+        if (rate <= 0)
+            return;
+        long due = started + (long) (n * 1e9 / rate);
+        long wait = due - System.nanoTime();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private Runnable makeRespondent(
+            final CountDownLatch done)
+    {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int n;
+                    while ((n = next.getAndIncrement()) < submissions) {
+                        awaitSlot(n);
+                        loadPage();
+                        submit(n);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    /**
+     * Follows the CSV as the journal appends to it, matching the first column of each new row against the pending
+     * submissions.
+     */
+    private Thread makeTailer(
+            final String csv)
+    {
+        return new Thread("load-tailer") {
+            @Override
+            public void run() {
+                RandomAccessFile file = null;
+                StringBuilder line = new StringBuilder();
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    while (tailing) {
+                        if (file == null && new File(csv).exists())
+                            file = new RandomAccessFile(csv, "r");
+                        int read = file == null ? -1 : file.read(buffer);
+                        if (read <= 0) {
+                            Thread.sleep(TAIL_MILLIS);
+                            continue;
+                        }
+                        long now = System.nanoTime();
+                        int from = 0;
+                        for (int i = 0 ; i < read ; i++) {
+                            if (buffer[i] != '\n')
+                                continue;
+                            line.append(new String(buffer, from, i - from, StandardCharsets.UTF_8));
+                            matchRow(line, now);
+                            line.setLength(0);
+                            from = i + 1;
+                        }
+                        line.append(new String(buffer, from, read - from, StandardCharsets.UTF_8));
+                    }
+                } catch (IOException e) {
+                    Runner.LOGGER.warn(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    try {
+                        if (file != null) file.close();
+                    } catch (IOException e) {
+                        Runner.LOGGER.warn(e);
+                    }
+                }
+            }
+        };
+    }
+
+    private void matchRow(
+            StringBuilder row,
+            long now)
+    {
+        int comma = row.indexOf(",");
+        if (comma < 0)
+            return;
+        Long start = pending.remove(row.substring(0, comma));
+        if (start != null)
+            csvLatency.record(now - start);
+    }
+
+    /**
+     * Runs the load against the survey page and waits up to drainMillis after the last submission for its rows to
+     * reach the CSV.
+     */
+    public void run(
+            String csv,
+            long drainMillis)
+            throws InterruptedException,
+                   IOException
+    {
+        Thread tailer = makeTailer(csv);
+        tailer.start();
+        ExecutorService pool = Executors.newFixedThreadPool(respondents);
+        CountDownLatch done = new CountDownLatch(respondents);
+        started = System.nanoTime();
+        try {
+            for (int i = 0 ; i < respondents ; i++)
+                pool.execute(makeRespondent(done));
+            done.await();
+            submitted = System.nanoTime();
+            long deadline = System.currentTimeMillis() + drainMillis;
+            while (!pending.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(TAIL_MILLIS);
+            finished = System.nanoTime();
+        } finally {
+            pool.shutdownNow();
+            tailing = false;
+            tailer.join();
+            http.close();
+        }
+    }
+
+    private static void writeLatency(
+            JsonGenerator generator,
+            String name,
+            Histogram histogram)
+            throws IOException
+    {
+        generator.writeObjectFieldStart(name);
+        generator.writeNumberField("count", histogram.getCount());
+        generator.writeNumberField("meanMillis", histogram.getMean() / NANOS_PER_MILLI);
+        generator.writeNumberField("p50Millis", histogram.getPercentile(0.5) / NANOS_PER_MILLI);
+        generator.writeNumberField("p90Millis", histogram.getPercentile(0.9) / NANOS_PER_MILLI);
+        generator.writeNumberField("p99Millis", histogram.getPercentile(0.99) / NANOS_PER_MILLI);
+        generator.writeNumberField("maxMillis", histogram.getMax() / NANOS_PER_MILLI);
+        generator.writeEndObject();
+    }
+
+    public void writeReport(
+            JsonGenerator generator)
+            throws IOException
+    {
+        double submitSeconds = (submitted - started) / 1e9;
+        double totalSeconds = (finished - started) / 1e9;
+        long posted = postLatency.getCount() - postErrors.get();
+        generator.writeStartObject();
+        generator.writeNumberField("respondents", respondents);
+        generator.writeNumberField("targetRate", rate);
+        generator.writeNumberField("submissions", submissions);
+        generator.writeNumberField("posted", posted);
+        generator.writeNumberField("written", csvLatency.getCount());
+        generator.writeNumberField("lost", pending.size());
+        generator.writeNumberField("pageErrors", pageErrors.get());
+        generator.writeNumberField("postErrors", postErrors.get());
+        generator.writeNumberField("errorRate", submissions == 0 ? 0.0
+                : (pageErrors.get() + postErrors.get() + pending.size()) / (double) submissions);
+        generator.writeNumberField("postThroughput", submitSeconds > 0 ? posted / submitSeconds : 0.0);
+        generator.writeNumberField("writeThroughput", totalSeconds > 0 ? csvLatency.getCount() / totalSeconds : 0.0);
+        writeLatency(generator, "page", pageLatency);
+        writeLatency(generator, "post", postLatency);
+        writeLatency(generator, "submitToCsv", csvLatency);
+        generator.writeEndObject();
+    }
+
+    private static ArgumentParser makeArgParser()
+    {
+        ArgumentParser argumentParser = ArgumentParsers.newArgumentParser(LocalLoadGenerator.class.getName(), true)
+                .description("Drives the LOCALHOST backend with virtual respondents and reports latencies.");
+        argumentParser.addArgument("--survey").setDefault(BenchmarkData.SAMPLES + "prototypicality.csv")
+                .help("The survey to run.");
+        argumentParser.addArgument("--respondents").type(Integer.class).setDefault(16)
+                .help("Number of respondents submitting concurrently.");
+        argumentParser.addArgument("--rate").type(Double.class).setDefault(50.0)
+                .help("Submissions per second across all respondents; 0 submits as fast as possible.");
+        argumentParser.addArgument("--submissions").type(Integer.class).setDefault(1000)
+                .help("Total number of forms to submit.");
+        argumentParser.addArgument("--drain").type(Integer.class).setDefault(30)
+                .help("Seconds to wait after the last submission for its rows to reach the CSV.");
+        argumentParser.addArgument("--properties").setDefault("")
+                .help("Properties file for the local backend.");
+        argumentParser.addArgument("--report")
+                .help("File to write the JSON report to, in addition to standard out.");
+        return argumentParser;
+    }
+
+    public static void main(
+            String[] args)
+            throws Exception
+    {
+        ArgumentParser argumentParser = makeArgParser();
+        Namespace ns;
+        try {
+            ns = argumentParser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            argumentParser.handleError(e);
+            return;
+        }
+        int submissions = ns.getInt("submissions");
+        int respondents = ns.getInt("respondents");
+        if (respondents < 1) {
+            System.err.println("FAILURE: --respondents must be at least 1");
+            return;
+        }
+
+        Runner.init("LOCALHOST", ns.getString("properties"), "");
+        // the survey must not reach its target before the load does
+        Runner.library.props.setProperty(Parameters.NUM_PARTICIPANTS, String.valueOf(submissions + 1));
+        Server.startServe(Runner.library);
+        Survey survey = new CSVParser(new CSVLexer(ns.getString("survey"), ",")).parse();
+        SurveyRunContext context = Runner.newContext(survey, new AllClassifier(survey), false, 0.05);
+        Runner.getScheduler().submit(context);
+        Record record = context.record;
+        record.awaitTasks(context.interrupt);
+        ITask[] tasks = record.getAllTasks();
+        String pageUrl = context.surveyPoster.makeTaskURL(context.responseManager, tasks[0]);
+
+        LocalLoadGenerator load = new LocalLoadGenerator(pageUrl, survey, respondents,
+                ns.getDouble("rate"), submissions);
+        try {
+            load.run(record.outputFileName, ns.getInt("drain") * 1000L);
+        } finally {
+            context.stop("load test finished");
+            context.awaitDone();
+            Runner.getScheduler().shutdown();
+            Server.endServe();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        JsonGenerator generator = Json.generator(sb);
+        generator.useDefaultPrettyPrinter();
+        load.writeReport(generator);
+        generator.close();
+        System.out.println(sb.toString());
+        String report = ns.getString("report");
+        if (report != null) {
+            FileOutputStream out = new FileOutputStream(report);
+            try {
+                generator = Json.generator(out);
+                load.writeReport(generator);
+                generator.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
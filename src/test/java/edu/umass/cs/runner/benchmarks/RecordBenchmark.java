@@ -0,0 +1,58 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.Record;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.qc.classifiers.AllClassifier;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Record scans the polling loop and writer make on every pass, over populations of random responses.
+ * Every response is marked as recorded, so {@link Record#needsWrite()} has to look at all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RecordBenchmark {
+
+    @Param({"prototypicality.csv", "wage_survey.csv"})
+    public String surveyFile;
+
+    @Param({"100", "1000"})
+    public int population;
+
+    private Record record;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Survey survey = BenchmarkData.survey(surveyFile);
+        List<SurveyResponse> responses = BenchmarkData.responses(survey, population);
+        record = BenchmarkData.record(survey, new AllClassifier(survey), responses);
+        for (SurveyResponse sr : responses)
+            sr.setRecorded(true);
+    }
+
+    @Benchmark
+    public List<SurveyResponse> getAllResponses() {
+        return record.getAllResponses();
+    }
+
+    @Benchmark
+    public boolean needsWrite() {
+        return record.needsWrite();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(RecordBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
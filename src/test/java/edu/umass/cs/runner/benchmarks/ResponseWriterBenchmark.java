@@ -0,0 +1,72 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.ResponseRowEncoder;
+import edu.umass.cs.runner.ResponseWriter;
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled {@link ResponseRowEncoder}, {@link ResponseWriter#outputSurveyResponse} and the String.format
+ * implementation on a batch of random responses, each carrying a few backend header values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResponseWriterBenchmark {
+
+    private static final int RESPONSES = 256;
+
+    @Param({"prototypicality.csv", "wage_survey.csv", "phonology.csv"})
+    public String surveyFile;
+
+    private Survey survey;
+    private ResponseRowEncoder encoder;
+    private List<SurveyResponse> responses;
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        survey = BenchmarkData.survey(surveyFile);
+        encoder = new ResponseRowEncoder(survey);
+        responses = BenchmarkData.responses(survey, RESPONSES);
+    }
+
+    @Benchmark
+    public int encoder() {
+        buffer.setLength(0);
+        for (SurveyResponse sr : responses)
+            encoder.encode(sr, buffer);
+        return buffer.length();
+    }
+
+    @Benchmark
+    public int outputSurveyResponse() {
+        buffer.setLength(0);
+        for (SurveyResponse sr : responses)
+            buffer.append(ResponseWriter.outputSurveyResponse(survey, sr));
+        return buffer.length();
+    }
+
+    @Benchmark
+    public int format() {
+        buffer.setLength(0);
+        for (SurveyResponse sr : responses)
+            buffer.append(ResponseWriter.outputSurveyResponseWithFormat(survey, sr));
+        return buffer.length();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(ResponseWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,55 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.system.backend.known.localhost.Server;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Server#convertToXML(Map)}, which turns every form the local server receives into a
+ * QuestionFormAnswers document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ServerBenchmark {
+
+    private static final int FORMS = 64;
+
+    @Param({"prototypicality.csv", "wage_survey.csv", "phonology.csv"})
+    public String surveyFile;
+
+    private final List<Map<String, String[]>> forms = new ArrayList<Map<String, String[]>>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Survey survey = BenchmarkData.survey(surveyFile);
+        Random random = new Random(surveyFile.hashCode());
+        for (int i = 0 ; i < FORMS ; i++)
+            forms.add(BenchmarkData.formParams(survey, random));
+    }
+
+    @Benchmark
+    public Server.IdResponseTuple convertToXML() {
+        Map<String, String[]> form = forms.get(next);
+        next = (next + 1) % forms.size();
+        return Server.convertToXML(form);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(ServerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package edu.umass.cs.runner.benchmarks;
+
+import edu.umass.cs.runner.system.SurveyResponse;
+import edu.umass.cs.runner.system.output.SurveyResponseStruct;
+import edu.umass.cs.surveyman.survey.Survey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dashboard's per-response JSON: serializing prebuilt structs, and building the struct from the
+ * response and serializing it, as a cache miss in the incremental classifier does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StructBenchmark {
+
+    private static final int RESPONSES = 256;
+
+    @Param({"prototypicality.csv", "wage_survey.csv", "phonology.csv"})
+    public String surveyFile;
+
+    private List<SurveyResponse> responses;
+    private final List<SurveyResponseStruct> structs = new ArrayList<SurveyResponseStruct>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Survey survey = BenchmarkData.survey(surveyFile);
+        responses = BenchmarkData.responses(survey, RESPONSES);
+        for (SurveyResponse sr : responses)
+            structs.add(sr.makeStruct());
+    }
+
+    @Benchmark
+    public int jsonize() {
+        int length = 0;
+        for (SurveyResponseStruct struct : structs)
+            length += struct.jsonize().length();
+        return length;
+    }
+
+    @Benchmark
+    public int makeStructAndJsonize() {
+        int length = 0;
+        for (SurveyResponse sr : responses)
+            length += sr.makeStruct().jsonize().length();
+        return length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new org.openjdk.jmh.runner.Runner(new OptionsBuilder()
+                .include(StructBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}